@@ -0,0 +1,215 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.mskcc.cbio.biogene.schema.*;
+
+/**
+ * Writes the response of a bulk request (see EUtils.processBulkRequest) as gene info becomes available.
+ *
+ * xml:  one biogene_info_list document, written once all genes are in (genes in query order).
+ * json:  one GeneInfoList object, genes are written (in the order they become available) as they come in.
+ * ndjson:  one line per gene, preceded by a {"query":...,"returnCode":...} line for each query without genes,
+ *         followed by an {"id":...,"returnCode":"PARTIAL"} line for each gene not fetched in time and
+ *         a final {"returnCode":...,"retMax":...} line.
+ */
+class BulkWriter {
+
+	private static String ENCODING = "UTF-8";
+
+	private HttpServletResponse response;
+	private String outputType;
+	private List<String> IDs;
+	private OutputStream out;
+	private java.io.Writer writer;
+	private int written;
+	private boolean partial;
+	private List<String> unfetchedIDs = new ArrayList<String>();
+	private Map<String, GeneInfo> geneInfo = new HashMap<String, GeneInfo>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param response HttpServletResponse
+	 * @param outputType String
+	 * @param IDs List<String> (all gene ids of the request, in query order)
+	 */
+	public BulkWriter(HttpServletResponse response, String outputType, List<String> IDs) {
+		this.response = response;
+		this.outputType = outputType;
+		this.IDs = IDs;
+	}
+
+	/**
+	 * Reports a query which did not find any genes (ndjson only).
+	 *
+	 * @param query String
+	 * @param returnCode EUtils.RETURN_CODES
+	 * @throws IOException
+	 */
+	public void writeFailedQuery(String query, EUtils.RETURN_CODES returnCode) throws IOException {
+
+		if (!outputType.equals(Writer.NDJSON_FORMAT)) return;
+		begin();
+		writer.write("{\"query\":");
+		JSONWriter.writeString(query, writer);
+		writer.write(",\"returnCode\":");
+		JSONWriter.writeString(returnCode.toString(), writer);
+		writer.write("}\n");
+	}
+
+	/**
+	 * Marks the response as incomplete, its return code will be PARTIAL.
+	 *
+	 * @param unfetchedIDs Collection<String> (ids of genes left out, reported with ndjson)
+	 */
+	public void setPartial(Collection<String> unfetchedIDs) {
+		partial = true;
+		this.unfetchedIDs.addAll(unfetchedIDs);
+	}
+
+	/**
+	 * Writes the given gene info (in query order) and flushes it to the client.
+	 *
+	 * @param geneInfo Map<String, GeneInfo>
+	 * @throws IOException
+	 */
+	public void write(Map<String, GeneInfo> geneInfo) throws IOException {
+
+		if (outputType.equals(Writer.XML_FORMAT)) {
+			this.geneInfo.putAll(geneInfo);
+			return;
+		}
+		begin();
+		writer.flush();
+		for (String geneID : IDs) {
+			GeneInfo toWrite = geneInfo.get(geneID);
+			if (toWrite == null) continue;
+			if (outputType.equals(Writer.JSON_FORMAT) && written > 0) out.write(',');
+			out.write(Writer.getJSONFragment(toWrite));
+			if (outputType.equals(Writer.NDJSON_FORMAT)) out.write('\n');
+			written++;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Completes the response.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		if (outputType.equals(Writer.XML_FORMAT)) {
+			GeneInfoList geneInfoList = new GeneInfoList();
+			geneInfoList.setCount(IDs.size());
+			for (String geneID : IDs) {
+				GeneInfo toWrite = geneInfo.get(geneID);
+				if (toWrite != null) geneInfoList.getGeneInfo().add(toWrite);
+			}
+			geneInfoList.setRetMax(geneInfoList.getGeneInfo().size());
+			geneInfoList.setReturnCode(getReturnCode(geneInfoList.getGeneInfo().size()));
+			Writer.write(response, geneInfoList, outputType);
+			return;
+		}
+		begin();
+		if (outputType.equals(Writer.JSON_FORMAT)) {
+			writer.write("],\"retMax\":");
+			writer.write(Integer.toString(written));
+			writer.write(",\"returnCode\":");
+			JSONWriter.writeString(getReturnCode(written), writer);
+			writer.write('}');
+		}
+		else {
+			for (String geneID : unfetchedIDs) {
+				writer.write("{\"id\":");
+				JSONWriter.writeString(geneID, writer);
+				writer.write(",\"returnCode\":");
+				JSONWriter.writeString(EUtils.RETURN_CODES.PARTIAL.toString(), writer);
+				writer.write("}\n");
+			}
+			writer.write("{\"returnCode\":");
+			JSONWriter.writeString(getReturnCode(written), writer);
+			writer.write(",\"retMax\":");
+			writer.write(Integer.toString(written));
+			writer.write("}\n");
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Sets the content type and starts the document, the first time it is called.
+	 *
+	 * @throws IOException
+	 */
+	private void begin() throws IOException {
+
+		if (writer != null) return;
+		if (outputType.equals(Writer.NDJSON_FORMAT)) {
+			response.setContentType("application/x-ndjson; charset=" + ENCODING);
+		}
+		else {
+			response.setContentType("text/json; charset=" + ENCODING);
+		}
+		out = response.getOutputStream();
+		writer = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+		if (outputType.equals(Writer.JSON_FORMAT)) {
+			writer.write("{\"count\":");
+			writer.write(Integer.toString(IDs.size()));
+			writer.write(",\"geneInfo\":[");
+		}
+	}
+
+	/**
+	 * Return code is PARTIAL if the response is incomplete, else SUCCESS if at least one gene was found.
+	 *
+	 * @param found int
+	 * @return String
+	 */
+	private String getReturnCode(int found) {
+		if (partial) return EUtils.RETURN_CODES.PARTIAL.toString();
+		return (found > 0) ? EUtils.RETURN_CODES.SUCCESS.toString() : EUtils.RETURN_CODES.FAILURE.toString();
+	}
+}
@@ -35,8 +35,16 @@ package org.mskcc.cbio.biogene.eutils;
 import org.apache.log4j.Logger;
 
 import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 
+import com.google.common.base.Joiner;
+
+import java.io.InputStream;
+
+import java.util.Map;
 import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
 
 /**
  * Fetches entrez gene info from ncbi.
@@ -49,6 +57,15 @@ public class EFetch {
     private static Logger log = Logger.getLogger(EFetch.class);
 	private static String URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=gene&retmode=xml&id=";
 
+	public static final String BATCH_SIZE_PROPERTY = "efetch.batch.size";
+	public static int DEFAULT_BATCH_SIZE = 50;
+
+	private static ResponseHandler<GeneInfo> PARSE_HANDLER = new ResponseHandler<GeneInfo>() {
+		public GeneInfo handle(InputStream in, String charset) throws Exception {
+			return EFetchParser.parse(in);
+		}
+	};
+
 	/**
 	 * Given an id, fetches gene info
 	 *
@@ -56,25 +73,27 @@ public class EFetch {
 	 * @return GeneInfo
 	 */
 	public static GeneInfo fetch(String geneID) {
+		return EFetch.fetch(geneID, null);
+	}
+
+	/**
+	 * Given an id, fetches gene info.  If the response cannot be parsed,
+	 * the id is added to unparsableIDs (if unparsableIDs is not null).
+	 *
+	 * @param geneID String
+	 * @param unparsableIDs List<String>
+	 * @return GeneInfo
+	 */
+	private static GeneInfo fetch(String geneID, List<String> unparsableIDs) {
 		try {
-			// fetch from entrez gene
+			// fetch from entrez gene, parsing as content arrives
 			String url = URL + geneID;
-			String content = Retriever.connect(url);
-
-			// if we have no content, skip
-			if (content == null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetch.fetch(), no content, id: " + geneID);
-				}
-				return null;
-			}
-			
-			// content is not null, parse
-			GeneInfo geneInfo = EFetchParser.parse(content);
+			GeneInfo geneInfo = Retriever.execute(url, PARSE_HANDLER);
 			if (geneInfo == null) {
 				if (log.isDebugEnabled()) {
-					log.debug("EFetch.fetch(), parse error, id: " + geneID);
+					log.debug("EFetch.fetch(), no content or parse error, id: " + geneID);
 				}
+				if (unparsableIDs != null) unparsableIDs.add(geneID);
 				return null;
 			}
 
@@ -98,8 +117,10 @@ public class EFetch {
     /**
      * Given a list of ids, fetches gene info.
 	 *
-	 * This routine assumes IDs size > 0.  For each id, a GeneInfo object is constructed.  If 
-	 * an exception is encountered, the routine continues to the next id to process.
+	 * This routine assumes IDs size > 0.  IDs are fetched in batches of efetch.batch.size
+	 * ids per request.  If a batch request cannot be completed, each id in that batch is
+	 * fetched on its own.  If an id cannot be retrieved, the routine continues to the next
+	 * id to process.  GeneInfo objects are returned in the order of the given IDs.
 	 * The return code of the GeneInfoList object returned is set to EUtils.RETURN_CODES.SUCCESS
 	 * if contains at least one GeneInfo object.
      *
@@ -107,14 +128,45 @@ public class EFetch {
 	 * @return GeneInfoList
      */
     public static GeneInfoList fetch(List<String> IDs) {
+		return EFetch.fetch(IDs, null);
+	}
+
+    /**
+     * Given a list of ids, fetches gene info.
+	 *
+	 * Same as fetch(List<String>), but ids which could not be retrieved
+	 * are added to failedIDs (if failedIDs is not null).
+     *
+     * @param IDs List<String>
+	 * @param failedIDs List<String>
+	 * @return GeneInfoList
+     */
+    public static GeneInfoList fetch(List<String> IDs, List<String> failedIDs) {
+		return EFetch.fetch(IDs, failedIDs, null);
+	}
+
+    /**
+     * Given a list of ids, fetches gene info.
+	 *
+	 * Same as fetch(List<String>, List<String>), but failed ids whose response was received
+	 * and could not be parsed are also added to unparsableIDs (if unparsableIDs is not null).
+	 * Unlike connection errors, these are not expected to go away when tried again.
+     *
+     * @param IDs List<String>
+	 * @param failedIDs List<String>
+	 * @param unparsableIDs List<String>
+	 * @return GeneInfoList
+     */
+    public static GeneInfoList fetch(List<String> IDs, List<String> failedIDs, List<String> unparsableIDs) {
 
 		// what we will marshall
 		GeneInfoList toReturn = new GeneInfoList();
 
-		// interate over all ids
-		for (String geneID : IDs) {
-			GeneInfo geneInfo = EFetch.fetch(geneID);
-			if (geneInfo != null) {
+		// interate over all ids, a batch at a time
+		int batchSize = EFetch.getBatchSize();
+		for (int lc = 0; lc < IDs.size(); lc += batchSize) {
+			List<String> batch = IDs.subList(lc, Math.min(lc + batchSize, IDs.size()));
+			for (GeneInfo geneInfo : EFetch.fetchBatch(batch, failedIDs, unparsableIDs)) {
 				toReturn.getGeneInfo().add(geneInfo);
 			}
 		}
@@ -129,4 +181,135 @@ public class EFetch {
 		// outta here
 		return toReturn;
     }
+
+	/**
+	 * Returns the number of ids fetched in one request.
+	 *
+	 * @return int
+	 */
+	public static int getBatchSize() {
+		int batchSize = BioGeneProperties.getInt(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+		return (batchSize <= 0) ? DEFAULT_BATCH_SIZE : batchSize;
+	}
+
+	/**
+	 * Fetches the efetch xml for a batch of ids in one request, without parsing it.
+	 * Returns null if the request fails.
+	 *
+	 * @param batch List<String>
+	 * @return String
+	 */
+	public static String fetchXML(List<String> batch) {
+
+		try {
+			return Retriever.connect(URL + Joiner.on(",").join(batch));
+		}
+		catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("EFetch.fetchXML(), exception fetching batch of " + batch.size() + " ids", e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the efetch xml of a batch of ids (as returned by fetchXML()).
+	 *
+	 * GeneInfo objects are returned in batch order.  Ids missing from content (or all ids,
+	 * if content is null) are fetched on their own.  Ids which could not be retrieved are
+	 * added to failedIDs (if failedIDs is not null).
+	 *
+	 * @param batch List<String>
+	 * @param content String
+	 * @param failedIDs List<String>
+	 * @return List<GeneInfo>
+	 */
+	public static List<GeneInfo> parseBatch(List<String> batch, String content, List<String> failedIDs) {
+
+		List<String> parseFailures = new ArrayList<String>();
+		List<GeneInfo> parsed = (content != null) ? EFetchParser.parseAll(content, parseFailures) : null;
+		return EFetch.assemble(batch, parsed, parseFailures, failedIDs, null);
+	}
+
+	/**
+	 * Fetches gene info for a batch of ids in one request.
+	 *
+	 * @param batch List<String>
+	 * @param failedIDs List<String>
+	 * @param unparsableIDs List<String>
+	 * @return List<GeneInfo>
+	 */
+	private static List<GeneInfo> fetchBatch(List<String> batch, List<String> failedIDs, List<String> unparsableIDs) {
+
+		// a batch of one is no different than a single fetch
+		List<GeneInfo> parsed = null;
+		final List<String> parseFailures = new ArrayList<String>();
+		if (batch.size() > 1) {
+			try {
+				parsed = Retriever.execute(URL + Joiner.on(",").join(batch), new ResponseHandler<List<GeneInfo>>() {
+						public List<GeneInfo> handle(InputStream in, String charset) throws Exception {
+							return EFetchParser.parseAll(in, parseFailures);
+						}
+					});
+			}
+			catch (Exception e) {
+				if (log.isDebugEnabled()) {
+					log.debug("EFetch.fetchBatch(), exception fetching batch of " + batch.size() + " ids", e);
+				}
+			}
+		}
+
+		return EFetch.assemble(batch, parsed, parseFailures, failedIDs, unparsableIDs);
+	}
+
+	/**
+	 * Puts the GeneInfo objects parsed from a batch response in batch order,
+	 * fetching the ids missing from the response on their own.
+	 *
+	 * @param batch List<String>
+	 * @param parsed List<GeneInfo> (null if the batch request failed)
+	 * @param parseFailures List<String>
+	 * @param failedIDs List<String>
+	 * @param unparsableIDs List<String>
+	 * @return List<GeneInfo>
+	 */
+	private static List<GeneInfo> assemble(List<String> batch, List<GeneInfo> parsed, List<String> parseFailures,
+										   List<String> failedIDs, List<String> unparsableIDs) {
+
+		List<GeneInfo> toReturn = new ArrayList<GeneInfo>();
+
+		// index what we parsed
+		Map<String, GeneInfo> parsedByID = new HashMap<String, GeneInfo>();
+		if (parsed != null) {
+			for (GeneInfo geneInfo : parsed) {
+				parsedByID.put(geneInfo.getGeneId(), geneInfo);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("EFetch.assemble(), requested: " + batch.size() + ", parsed: " + parsedByID.size() +
+						  ", parse errors: " + parseFailures.size());
+			}
+		}
+
+		// assemble in request order, ids missing from the batch response are fetched on their own
+		for (String geneID : batch) {
+			GeneInfo geneInfo = parsedByID.get(geneID);
+			if (geneInfo == null) {
+				if (!parseFailures.contains(geneID)) {
+					geneInfo = EFetch.fetch(geneID, unparsableIDs);
+				}
+				else if (unparsableIDs != null) {
+					unparsableIDs.add(geneID);
+				}
+			}
+			if (geneInfo != null) {
+				toReturn.add(geneInfo);
+			}
+			else if (failedIDs != null) {
+				failedIDs.add(geneID);
+			}
+		}
+
+		// outta here
+		return toReturn;
+	}
 }
@@ -34,24 +34,52 @@ package org.mskcc.cbio.biogene.eutils;
 // imports
 import org.apache.log4j.Logger;
 
-import org.jdom2.Element;
-import org.jdom2.Document;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
 
+import java.io.Reader;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.List;
+import java.util.ArrayList;
 
 import org.mskcc.cbio.biogene.schema.*;
 
+/**
+ * Parses Entrezgene documents returned from efetch.
+ *
+ * The document is pulled through a StAX reader in a single pass, elements
+ * which do not contribute to GeneInfo (Entrezgene_locus, most of the comments, ...)
+ * are skipped without being materialized.  Text is normalized the same way as
+ * JDOM Element.getTextNormalize(), and only the first occurrence of a child element
+ * is considered, as with Element.getChild().
+ */
 public class EFetchParser {
 
 	private static String DELIMITER = ":";
     private static Logger log = Logger.getLogger(EFetchParser.class);
 
+	// stax factories are not guaranteed to be thread-safe
+	private static ThreadLocal<XMLInputFactory> xmlInputFactory = new ThreadLocal<XMLInputFactory>() {
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			return factory;
+		}
+	};
+
 	// root
 	private static String ENTREZ_GENE_ELEMENT = "Entrezgene";
 
+	// track-info constants
+	private static String ENTREZ_GENE_TRACK_INFO_ELEMENT = "Entrezgene_track-info";
+	private static String ENTREZ_GENE_GENE_TRACK_ELEMENT = "Gene-track";
+	private static String ENTREZ_GENE_GENE_TRACK_GENE_ID_ELEMENT = "Gene-track_geneid";
+
 	// gene-ref constants
 	private static String ENTREZ_GENE_GENE_ELEMENT = "Entrezgene_gene";
 	private static String ENTREZ_GENE_GENE_REF_ELEMENT = "Gene-ref";
@@ -97,6 +125,15 @@ public class EFetchParser {
 	private static String GENE_COMMENTARY_REFS_PUB_PMID_ELEMENT = "Pub_pmid";
 	private static String GENE_COMMENTARY_REFS_PUB_PMID_ID_ELEMENT = "PubMedId";
 
+	/**
+	 * State of the Entrezgene record being parsed.
+	 */
+	private static class Record {
+		GeneInfo geneInfo = new GeneInfo();
+		String geneID;
+		boolean failed;
+	}
+
     /**
      * Parses XML returned from eutils.
 	 *
@@ -108,330 +145,642 @@ public class EFetchParser {
 	 * @eturn GeneInfo
      */
     public static GeneInfo parse(String content) {
+		return EFetchParser.parse(new StringReader(content), null);
+	}
+
+    /**
+     * Parses XML returned from eutils, see parse(String).
+     *
+     * @param in InputStream (xml document)
+	 * @eturn GeneInfo
+     */
+    public static GeneInfo parse(InputStream in) {
+		return EFetchParser.parse(null, in);
+	}
+
+    /**
+     * Parses XML returned from eutils when more than one id is fetched at once.
+	 *
+	 * A GeneInfo object is returned for every Entrezgene record that can be parsed.
+	 * The gene id of each GeneInfo object is taken from the record's track info.
+	 * Records that cannot be parsed are skipped and their gene id (if known) is
+	 * added to failedIDs.  Null is returned if the document cannot be parsed at all,
+	 * if the document is cut short, the records parsed up to that point are returned.
+     *
+     * @param content String (xml document)
+	 * @param failedIDs List<String>
+	 * @eturn List<GeneInfo>
+     */
+    public static List<GeneInfo> parseAll(String content, List<String> failedIDs) {
+		return EFetchParser.parseAll(new StringReader(content), null, failedIDs);
+	}
+
+    /**
+     * Parses XML returned from eutils when more than one id is fetched at once,
+	 * see parseAll(String, List<String>).
+     *
+     * @param in InputStream (xml document)
+	 * @param failedIDs List<String>
+	 * @eturn List<GeneInfo>
+     */
+    public static List<GeneInfo> parseAll(InputStream in, List<String> failedIDs) {
+		return EFetchParser.parseAll(null, in, failedIDs);
+	}
+
+	/**
+	 * Parses the first Entrezgene record of the document found on reader or in.
+	 *
+	 * @param reader Reader
+	 * @param in InputStream
+	 * @return GeneInfo
+	 */
+	private static GeneInfo parse(Reader reader, InputStream in) {
 
+		XMLStreamReader xmlReader = null;
 		try {
-			GeneInfo toReturn = new GeneInfo();
-			StringReader reader = new StringReader(content);
-			SAXBuilder builder = new SAXBuilder();
-			Document document = builder.build(reader);
-			Element root = document.getRootElement();
-			Element entrezGene = root.getChild(ENTREZ_GENE_ELEMENT);
-			if (entrezGene != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parse(), entrez gene element found.");
+			xmlReader = EFetchParser.createXMLStreamReader(reader, in);
+			while (EFetchParser.nextChild(xmlReader)) {
+				if (xmlReader.getLocalName().equals(ENTREZ_GENE_ELEMENT)) {
+					if (log.isDebugEnabled()) {
+						log.debug("EFetchParser.parse(), entrez gene element found.");
+					}
+					Record record = new Record();
+					EFetchParser.parseEntrezGene(xmlReader, record);
+					return (record.failed) ? null : record.geneInfo;
 				}
-				EFetchParser.parseEntrezGene(entrezGene, toReturn);
-				return toReturn;
+				EFetchParser.skipElement(xmlReader);
 			}
 		}
 		catch (Exception e) {
 			if (log.isDebugEnabled()) {
-				log.debug("ESearchParser.parseESearchResults(), parse error.");
+				log.debug("EFetchParser.parse(), parse error.");
 			}
 			return null;
 		}
+		finally {
+			EFetchParser.close(xmlReader);
+		}
 
 		// outta here
 		return null;
 	}
 
 	/**
-	 * Parses entrez gene element
+	 * Parses all Entrezgene records of the document found on reader or in.
 	 *
-	 * @param e Element
-	 * @param toReturn GeneInfo
+	 * @param reader Reader
+	 * @param in InputStream
+	 * @param failedIDs List<String>
+	 * @return List<GeneInfo>
 	 */
-	private static void parseEntrezGene(Element entrezGene, GeneInfo toReturn) throws Exception {
-		
-		// get gene ref props
-		Element entrezGeneGene = entrezGene.getChild(ENTREZ_GENE_GENE_ELEMENT);
-		if (entrezGeneGene != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_ELEMENT + " found.");
-			}
-			parseEntrezGeneGene(entrezGeneGene, toReturn);
-		}
+	private static List<GeneInfo> parseAll(Reader reader, InputStream in, List<String> failedIDs) {
 
-		// get gene source props
-		Element entrezGeneSource = entrezGene.getChild(ENTREZ_GENE_SOURCE_ELEMENT);
-		if (entrezGeneSource != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_ELEMENT + " found.");
+		List<GeneInfo> toReturn = new ArrayList<GeneInfo>();
+		XMLStreamReader xmlReader = null;
+		try {
+			xmlReader = EFetchParser.createXMLStreamReader(reader, in);
+			while (EFetchParser.nextChild(xmlReader)) {
+				if (!xmlReader.getLocalName().equals(ENTREZ_GENE_ELEMENT)) {
+					EFetchParser.skipElement(xmlReader);
+					continue;
+				}
+				Record record = new Record();
+				EFetchParser.parseEntrezGene(xmlReader, record);
+				if (record.geneID == null) {
+					if (log.isDebugEnabled()) {
+						log.debug("EFetchParser.parseAll(), skipping record without " + ENTREZ_GENE_GENE_TRACK_GENE_ID_ELEMENT);
+					}
+				}
+				else if (record.failed) {
+					if (log.isDebugEnabled()) {
+						log.debug("EFetchParser.parseAll(), parse error, id: " + record.geneID);
+					}
+					if (failedIDs != null) failedIDs.add(record.geneID);
+				}
+				else {
+					record.geneInfo.setGeneId(record.geneID);
+					toReturn.add(record.geneInfo);
+				}
 			}
-			parseEntrezGeneSource(entrezGeneSource, toReturn);
 		}
-
-		// gene summary
-		Element entrezGeneSummary = entrezGene.getChild(ENTREZ_GENE_SUMMARY_ELEMENT);
-		if (entrezGeneSummary != null) {
+		catch (Exception e) {
 			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SUMMARY_ELEMENT + " found.");
+				log.debug("EFetchParser.parseAll(), parse error after " + toReturn.size() + " record(s).");
 			}
-			toReturn.setGeneSummary(entrezGeneSummary.getTextNormalize());
+			return (toReturn.size() > 0) ? toReturn : null;
+		}
+		finally {
+			EFetchParser.close(xmlReader);
 		}
 
-		// get gene prot props
-		Element entrezGeneProt = entrezGene.getChild(ENTREZ_GENE_PROT_ELEMENT);
-		if (entrezGeneProt != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_PROT_ELEMENT + " found.");
+		// outta here
+		return toReturn;
+	}
+
+	/**
+	 * Parses entrez gene element.  Reader is positioned on the Entrezgene start tag
+	 * and is left on the matching end tag.
+	 *
+	 * @param reader XMLStreamReader
+	 * @param record Record
+	 */
+	private static void parseEntrezGene(XMLStreamReader reader, Record record) throws XMLStreamException {
+
+		boolean trackInfo = false, gene = false, source = false, summary = false, prot = false, comments = false;
+		while (EFetchParser.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (!trackInfo && name.equals(ENTREZ_GENE_TRACK_INFO_ELEMENT)) {
+				trackInfo = true;
+				parseEntrezGeneTrackInfo(reader, record);
+			}
+			else if (!gene && name.equals(ENTREZ_GENE_GENE_ELEMENT)) {
+				gene = true;
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_ELEMENT + " found.");
+				}
+				parseEntrezGeneGene(reader, record);
+			}
+			else if (!source && name.equals(ENTREZ_GENE_SOURCE_ELEMENT)) {
+				source = true;
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_ELEMENT + " found.");
+				}
+				parseEntrezGeneSource(reader, record);
+			}
+			else if (!summary && name.equals(ENTREZ_GENE_SUMMARY_ELEMENT)) {
+				summary = true;
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SUMMARY_ELEMENT + " found.");
+				}
+				record.geneInfo.setGeneSummary(readText(reader));
+			}
+			else if (!prot && name.equals(ENTREZ_GENE_PROT_ELEMENT)) {
+				prot = true;
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_PROT_ELEMENT + " found.");
+				}
+				parseEntrezGeneProt(reader, record);
+			}
+			else if (!comments && name.equals(ENTREZ_GENE_COMMENTS_ELEMENT)) {
+				comments = true;
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_COMMENTS_ELEMENT + " found.");
+				}
+				parseEntrezGeneComments(reader, record);
+			}
+			else {
+				// Entrezgene_locus, Entrezgene_properties, ...
+				skipElement(reader);
 			}
-			parseEntrezGeneProt(entrezGeneProt, toReturn);
 		}
+	}
 
-		// get comments/rifs
-		Element entrezGeneComments = entrezGene.getChild(ENTREZ_GENE_COMMENTS_ELEMENT);
-		if (entrezGeneComments != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_COMMENTS_ELEMENT + " found.");
+	/**
+	 * Parses entrez gene track info (gene id).
+	 *
+	 * @param reader XMLStreamReader
+	 * @param record Record
+	 */
+	private static void parseEntrezGeneTrackInfo(XMLStreamReader reader, Record record) throws XMLStreamException {
+
+		if (!descendTo(reader, ENTREZ_GENE_GENE_TRACK_ELEMENT)) return;
+		boolean geneID = false;
+		while (nextChild(reader)) {
+			if (!geneID && reader.getLocalName().equals(ENTREZ_GENE_GENE_TRACK_GENE_ID_ELEMENT)) {
+				geneID = true;
+				String id = readText(reader);
+				if (id.length() > 0) record.geneID = id;
+			}
+			else {
+				skipElement(reader);
 			}
-			parseEntrezGeneComments(entrezGeneComments, toReturn);
 		}
+		finishElement(reader);
 	}
 
 	/**
 	 * Parses entrez gene source props
 	 * 
-	 * @param entrezGeneSource Element
-	 * @param toReturn GeneInfo
+	 * @param reader XMLStreamReader
+	 * @param record Record
 	 */
-	private static void parseEntrezGeneSource(Element entrezGeneSource, GeneInfo toReturn) throws Exception {
-
-		Element entrezBioSource = entrezGeneSource.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_ELEMENT);
+	private static void parseEntrezGeneSource(XMLStreamReader reader, Record record) throws XMLStreamException {
 
-		if (entrezBioSource != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_ELEMENT + " found.");
-			}
+		if (!descendTo(reader, ENTREZ_GENE_SOURCE_BIOSOURCE_ELEMENT)) return;
+		if (log.isDebugEnabled()) {
+			log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_ELEMENT + " found.");
+		}
 
+		boolean org = false, subType = false;
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
 			// taxonomy
-			Element bioSourceOrg = entrezBioSource.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_ELEMENT);
-			if (bioSourceOrg != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_ELEMENT  + " found.");
-				}
-				Element orgRef = bioSourceOrg.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_ELEMENT);
-				if (orgRef != null) {
-					if (log.isDebugEnabled()) {
-						log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_ELEMENT  + " found.");
-					}
-					Element taxName = orgRef.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_TAXNAME_ELEMENT);
-					if (taxName != null) {
-						if (log.isDebugEnabled()) {
-							log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_TAXNAME_ELEMENT  + " found.");
-						}
-						toReturn.setGeneOrganism(taxName.getTextNormalize());
-					}
+			if (!org && name.equals(ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_ELEMENT)) {
+				org = true;
+				if (descendTo(reader, ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_ELEMENT)) {
+					String taxName = readFirstChildText(reader, ENTREZ_GENE_SOURCE_BIOSOURCE_ORG_REF_TAXNAME_ELEMENT);
+					if (taxName != null) record.geneInfo.setGeneOrganism(taxName);
+					finishElement(reader);
 				}
 			}
-
 			// chromosome
-			Element bioSourceSubType = entrezBioSource.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_ELEMENT);
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_ELEMENT  + " found.");
-			}
-			if (bioSourceSubType != null) {
-				Element subSource = bioSourceSubType.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_ELEMENT);
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_ELEMENT  + " found.");
-				}
-				if (subSource != null) {
-					Element subSourceName = subSource.getChild(ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_NAME_ELEMENT);
-					if (subSourceName != null) {
-						if (log.isDebugEnabled()) {
-							log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_NAME_ELEMENT  + " found.");
-						}
-						toReturn.setGeneChromosome(subSourceName.getTextNormalize());
-					}
+			else if (!subType && name.equals(ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_ELEMENT)) {
+				subType = true;
+				if (descendTo(reader, ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_ELEMENT)) {
+					String subSourceName = readFirstChildText(reader, ENTREZ_GENE_SOURCE_BIOSOURCE_SUBTYPE_SUBSOURCE_NAME_ELEMENT);
+					if (subSourceName != null) record.geneInfo.setGeneChromosome(subSourceName);
+					finishElement(reader);
 				}
 			}
+			else {
+				skipElement(reader);
+			}
 		}
+		finishElement(reader);
 	}
 
 	/**
 	 * Parses entrez gene gene props
 	 * 
-	 * @param entrezGeneGene Element
-	 * @param toReturn GeneInfo
+	 * @param reader XMLStreamReader
+	 * @param record Record
 	 */
-	private static void parseEntrezGeneGene(Element entrezGeneGene, GeneInfo toReturn) throws Exception {
-
-		Element entrezGeneRef = entrezGeneGene.getChild(ENTREZ_GENE_GENE_REF_ELEMENT);
+	private static void parseEntrezGeneGene(XMLStreamReader reader, Record record) throws XMLStreamException {
 
-		if (entrezGeneRef != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGeneGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_ELEMENT + " found.");
-			}
+		if (!descendTo(reader, ENTREZ_GENE_GENE_REF_ELEMENT)) return;
+		if (log.isDebugEnabled()) {
+			log.debug("EFetchParser.parseEntrezGeneGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_ELEMENT + " found.");
+		}
 
+		GeneInfo geneInfo = record.geneInfo;
+		boolean locus = false, locusTag = false, mapLoc = false, description = false, syn = false, db = false;
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
 			// locus (symbol)
-			Element e = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_LOCUS_ELEMENT);
-			if (e != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_LOCUS_ELEMENT + " found.");
-				}
-				toReturn.setGeneSymbol(e.getTextNormalize());
+			if (!locus && name.equals(ENTREZ_GENE_GENE_REF_LOCUS_ELEMENT)) {
+				locus = true;
+				geneInfo.setGeneSymbol(readText(reader));
 			}
-
 			// locus tag
-			e = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_LOCUS_TAG_ELEMENT);
-			if (e != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_LOCUS_TAG_ELEMENT + " found.");
-				}
-				toReturn.setGeneTag(e.getTextNormalize());
+			else if (!locusTag && name.equals(ENTREZ_GENE_GENE_REF_LOCUS_TAG_ELEMENT)) {
+				locusTag = true;
+				geneInfo.setGeneTag(readText(reader));
 			}
-
 			// maploc
-			e = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_MAPLOC_ELEMENT);
-			if (e != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_MAPLOC_ELEMENT + " found.");
-				}
-				toReturn.setGeneLocation(e.getTextNormalize());
+			else if (!mapLoc && name.equals(ENTREZ_GENE_GENE_REF_MAPLOC_ELEMENT)) {
+				mapLoc = true;
+				geneInfo.setGeneLocation(readText(reader));
 			}
-
 			// description
-			e = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_DESCRIPTION_ELEMENT);
-			if (e != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_DESCRIPTION_ELEMENT + " found.");
-				}
-				toReturn.setGeneDescription(e.getTextNormalize());
+			else if (!description && name.equals(ENTREZ_GENE_GENE_REF_DESCRIPTION_ELEMENT)) {
+				description = true;
+				geneInfo.setGeneDescription(readText(reader));
 			}
-
 			// aliases
-			e = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_SYN_ELEMENT);
-			if (e != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_SYN_ELEMENT + " found.");
-				}
-				List<Element> aliases = e.getChildren();
-				String aliasesStr = "";
-				for (Element alias : aliases) {
-					String curAlias = alias.getTextNormalize();
-					if (curAlias != null && curAlias.length() > 0) {
-						if (log.isDebugEnabled()) {
-							log.debug("EFetchParser.parseEntrezGene(), entrez gene - adding alias: " + curAlias);
-						}
-						aliasesStr += curAlias + DELIMITER;
-					}
-				}
-				if (aliasesStr.length() > 0) {
-					toReturn.setGeneAliases(aliasesStr.substring(0, aliasesStr.length()-1));
-				}
+			else if (!syn && name.equals(ENTREZ_GENE_GENE_REF_SYN_ELEMENT)) {
+				syn = true;
+				String aliases = readChildrenText(reader);
+				if (aliases.length() > 0) geneInfo.setGeneAliases(aliases);
 			}
-
 			// mim
-			Element entrezGeneRefDb = entrezGeneRef.getChild(ENTREZ_GENE_GENE_REF_DB_ELEMENT);
-			if (entrezGeneRefDb != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_GENE_REF_DB_ELEMENT + " found.");
+			else if (!db && name.equals(ENTREZ_GENE_GENE_REF_DB_ELEMENT)) {
+				db = true;
+				parseEntrezGeneGeneRefDb(reader, record);
+			}
+			else {
+				skipElement(reader);
+			}
+		}
+		finishElement(reader);
+	}
+
+	/**
+	 * Parses gene-ref db tags looking for mim.
+	 *
+	 * @param reader XMLStreamReader
+	 * @param record Record
+	 */
+	private static void parseEntrezGeneGeneRefDb(XMLStreamReader reader, Record record) throws XMLStreamException {
+
+		while (nextChild(reader)) {
+			if (!reader.getLocalName().equals(ENTREZ_GENE_GENE_REF_DB_TAG_ELEMENT)) {
+				skipElement(reader);
+				continue;
+			}
+			String db = null, objectID = null;
+			boolean dbFound = false, tagFound = false;
+			while (nextChild(reader)) {
+				String name = reader.getLocalName();
+				if (!dbFound && name.equals(ENTREZ_GENE_GENE_REF_DB_TAG_DB_ELEMENT)) {
+					dbFound = true;
+					db = readText(reader);
 				}
-				List<Element> refDBTags = entrezGeneRefDb.getChildren(ENTREZ_GENE_GENE_REF_DB_TAG_ELEMENT);
-				for (Element refDBTag : refDBTags) {
-					Element dbTagDB = refDBTag.getChild(ENTREZ_GENE_GENE_REF_DB_TAG_DB_ELEMENT);
-					if (dbTagDB.getTextNormalize().equals("MIM")) {
-						Element dbTagTag = refDBTag.getChild(ENTREZ_GENE_GENE_REF_DB_TAG_TAG_ELEMENT);
-						if (dbTagTag != null) {
-							Element objectID = dbTagTag.getChild(ENTREZ_GENE_GENE_REF_DB_TAG_TAG_OBJECT_ID_ELEMENT);
-							if (objectID != null) {
-								Element objectIDID = objectID.getChild(ENTREZ_GENE_GENE_REF_DB_TAG_TAG_OBJECT_ID_ID_ELEMENT);
-								if (objectIDID != null) {
-									toReturn.setGeneMim(objectIDID.getTextNormalize());
-								}
-							}
-						}
+				else if (!tagFound && name.equals(ENTREZ_GENE_GENE_REF_DB_TAG_TAG_ELEMENT)) {
+					tagFound = true;
+					if (descendTo(reader, ENTREZ_GENE_GENE_REF_DB_TAG_TAG_OBJECT_ID_ELEMENT)) {
+						objectID = readFirstChildText(reader, ENTREZ_GENE_GENE_REF_DB_TAG_TAG_OBJECT_ID_ID_ELEMENT);
+						finishElement(reader);
 					}
 				}
+				else {
+					skipElement(reader);
+				}
+			}
+			// a db tag without a db is malformed
+			if (db == null) {
+				record.failed = true;
+			}
+			else if (db.equals("MIM") && objectID != null) {
+				record.geneInfo.setGeneMim(objectID);
 			}
 		}
 	}
 
 	/**
-	 * Parses entrez gene source props
+	 * Parses entrez gene prot props
 	 * 
-	 * @param entrezGeneSource Element
-	 * @param toReturn GeneInfo
+	 * @param reader XMLStreamReader
+	 * @param record Record
 	 */
-	private static void parseEntrezGeneProt(Element entrezGeneProt, GeneInfo toReturn) throws Exception {
+	private static void parseEntrezGeneProt(XMLStreamReader reader, Record record) throws XMLStreamException {
 
-		Element entrezGeneProtRef = entrezGeneProt.getChild(ENTREZ_GENE_PROT_REF_ELEMENT);
+		if (!descendTo(reader, ENTREZ_GENE_PROT_REF_ELEMENT)) return;
+		if (log.isDebugEnabled()) {
+			log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_PROT_REF_ELEMENT + " found.");
+		}
 
-		if (entrezGeneProtRef != null) {
-			if (log.isDebugEnabled()) {
-				log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_PROT_REF_ELEMENT + " found.");
+		boolean protRefName = false;
+		while (nextChild(reader)) {
+			if (!protRefName && reader.getLocalName().equals(ENTREZ_GENE_PROT_REF_NAME_ELEMENT)) {
+				protRefName = true;
+				String designations = readChildrenText(reader);
+				if (designations.length() > 0) record.geneInfo.setGeneDesignations(designations);
 			}
-			Element entrezGeneProtRefName = entrezGeneProtRef.getChild(ENTREZ_GENE_PROT_REF_NAME_ELEMENT);
-			if (entrezGeneProtRefName != null) {
-				if (log.isDebugEnabled()) {
-					log.debug("EFetchParser.parseEntrezGene(), entrez gene - " + ENTREZ_GENE_PROT_REF_NAME_ELEMENT + " found.");
-				}
-				List<Element> designations = entrezGeneProtRefName.getChildren();
-				String designationsStr = "";
-				for (Element designation : designations) {
-					String curDesignation = designation.getTextNormalize();
-					if (curDesignation != null && curDesignation.length() > 0) {
-						if (log.isDebugEnabled()) {
-							log.debug("EFetchParser.parseEntrezGene(), entrez gene - adding designation: " + curDesignation);
-						}
-						designationsStr += curDesignation + DELIMITER;
-					}
-				}
-				if (designationsStr.length() > 0) {
-					toReturn.setGeneDesignations(designationsStr.substring(0, designationsStr.length()-1));
-				}
+			else {
+				skipElement(reader);
 			}
 		}
+		finishElement(reader);
 	}
 
 	/**
 	 * Parses entrez gene comments element
 	 * 
-	 * @param e Element
-	 * @param toReturn GeneInfo
+	 * @param reader XMLStreamReader
+	 * @param record Record
 	 */
-	private static void parseEntrezGeneComments(Element entrezGeneComments, GeneInfo toReturn) throws Exception {
-
-		List<Element> comments = entrezGeneComments.getChildren(GENE_COMMENTARY_ELEMENT);
-		for (Element comment : comments) {
-			// get Type
-			Element commentType = comment.getChild(GENE_COMMENTARY_TYPE_ELEMENT);
-			if (commentType != null) {
-				String commentTypeValue = commentType.getAttributeValue(GENE_COMMENTARY_TYPE_VALUE_ATTRIBUTE);
-				// if we have generif, process
-				if (commentTypeValue != null && commentTypeValue.equals(GENE_COMMENTARY_TYPE_RIF_VALUE)) {
-					if (log.isDebugEnabled()) {
-						log.debug("EFetchParser.parseEntrezGeneComments(), we have gene rif to process.");
+	private static void parseEntrezGeneComments(XMLStreamReader reader, Record record) throws XMLStreamException {
+
+		while (nextChild(reader)) {
+			if (!reader.getLocalName().equals(GENE_COMMENTARY_ELEMENT)) {
+				skipElement(reader);
+				continue;
+			}
+
+			// gather the parts of the commentary we care about
+			String commentTypeValue = null, commentText = null, pmid = null;
+			boolean typeFound = false, textFound = false, refsFound = false;
+			while (nextChild(reader)) {
+				String name = reader.getLocalName();
+				if (!typeFound && name.equals(GENE_COMMENTARY_TYPE_ELEMENT)) {
+					typeFound = true;
+					commentTypeValue = reader.getAttributeValue(null, GENE_COMMENTARY_TYPE_VALUE_ATTRIBUTE);
+					skipElement(reader);
+				}
+				else if (!textFound && name.equals(GENE_COMMENTARY_TEXT_ELEMENT)) {
+					textFound = true;
+					commentText = readText(reader);
+				}
+				else if (!refsFound && name.equals(GENE_COMMENTARY_REFS_ELEMENT)) {
+					refsFound = true;
+					if (descendTo(reader, GENE_COMMENTARY_REFS_PUB_ELEMENT)) {
+						if (descendTo(reader, GENE_COMMENTARY_REFS_PUB_PMID_ELEMENT)) {
+							pmid = readFirstChildText(reader, GENE_COMMENTARY_REFS_PUB_PMID_ID_ELEMENT);
+							finishElement(reader);
+						}
+						finishElement(reader);
 					}
-					// create new GeneRIFType
-					GeneRIF geneRIF = new GeneRIF();
-					// get rif text
-					Element commentText = comment.getChild(GENE_COMMENTARY_TEXT_ELEMENT);
-					if (commentText != null) {
-						geneRIF.setRif(commentText.getTextNormalize());
+				}
+				else {
+					// Gene-commentary_comment holds the bulk of the comments, never looked at
+					skipElement(reader);
+				}
+			}
+
+			// if we have generif, process
+			if (commentTypeValue != null && commentTypeValue.equals(GENE_COMMENTARY_TYPE_RIF_VALUE)) {
+				if (log.isDebugEnabled()) {
+					log.debug("EFetchParser.parseEntrezGeneComments(), we have gene rif to process.");
+				}
+				GeneRIF geneRIF = new GeneRIF();
+				if (commentText != null) {
+					geneRIF.setRif(commentText);
+				}
+				if (pmid != null) {
+					try {
+						geneRIF.setPubmedId(Integer.valueOf(pmid));
 					}
-					// get pubmed id
-					Element commentRefs = comment.getChild(GENE_COMMENTARY_REFS_ELEMENT);
-					if (commentRefs != null) {
-						Element pub = commentRefs.getChild(GENE_COMMENTARY_REFS_PUB_ELEMENT);
-						if (pub != null) {
-							Element pmid = pub.getChild(GENE_COMMENTARY_REFS_PUB_PMID_ELEMENT);
-							if (pmid != null) {
-								Element id = pmid.getChild(GENE_COMMENTARY_REFS_PUB_PMID_ID_ELEMENT);
-								if (id != null) {
-									geneRIF.setPubmedId(Integer.valueOf(id.getTextNormalize()));
-								}
-							}
-						}
+					catch (NumberFormatException e) {
+						record.failed = true;
+						continue;
 					}
-					if (geneRIF.getRif() != null && geneRIF.getRif().length() > 0 && geneRIF.getPubmedId() > 0) {
-						if (log.isDebugEnabled()) {
-							log.debug("EFetchParser.parseEntrezGeneComments(), adding gene rif to rif list.");
-						}
-						toReturn.getGeneRif().add(geneRIF);
+				}
+				if (geneRIF.getRif() != null && geneRIF.getRif().length() > 0 && geneRIF.getPubmedId() > 0) {
+					if (log.isDebugEnabled()) {
+						log.debug("EFetchParser.parseEntrezGeneComments(), adding gene rif to rif list.");
 					}
+					record.geneInfo.getGeneRif().add(geneRIF);
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Creates a stream reader over reader (if not null) or in.
+	 *
+	 * @param reader Reader
+	 * @param in InputStream
+	 * @return XMLStreamReader
+	 */
+	private static XMLStreamReader createXMLStreamReader(Reader reader, InputStream in) throws XMLStreamException {
+
+		XMLStreamReader toReturn = (reader != null) ?
+			xmlInputFactory.get().createXMLStreamReader(reader) :
+			xmlInputFactory.get().createXMLStreamReader(in);
+		// position on the root element
+		while (toReturn.hasNext() && toReturn.next() != XMLStreamConstants.START_ELEMENT) {}
+		if (!toReturn.isStartElement()) {
+			throw new XMLStreamException("EFetchParser, root element not found.");
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Advances to the next child of the current element.  Returns true if reader is positioned on
+	 * the start tag of a child, false if it is positioned on the end tag of the current element.
+	 *
+	 * @param reader XMLStreamReader
+	 * @return boolean
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) return true;
+			if (event == XMLStreamConstants.END_ELEMENT) return false;
+		}
+		throw new XMLStreamException("EFetchParser, unexpected end of document.");
+	}
+
+	/**
+	 * Positions reader on the start tag of the first child with the given name,
+	 * skipping the children before it.  If there is no such child, the reader is left
+	 * on the end tag of the current element and false is returned.
+	 *
+	 * @param reader XMLStreamReader
+	 * @param name String
+	 * @return boolean
+	 */
+	private static boolean descendTo(XMLStreamReader reader, String name) throws XMLStreamException {
+
+		while (nextChild(reader)) {
+			if (reader.getLocalName().equals(name)) return true;
+			skipElement(reader);
+		}
+		return false;
+	}
+
+	/**
+	 * Skips the remaining children of the current element, leaving
+	 * reader on its end tag.
+	 *
+	 * @param reader XMLStreamReader
+	 */
+	private static void finishElement(XMLStreamReader reader) throws XMLStreamException {
+		while (nextChild(reader)) {
+			skipElement(reader);
+		}
+	}
+
+	/**
+	 * Skips the current element (and its subtree), leaving reader on its end tag.
+	 *
+	 * @param reader XMLStreamReader
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	/**
+	 * Returns the normalized text of the first child with the given name, or null if there is
+	 * no such child.  The remaining children are skipped, leaving reader on the end tag of
+	 * the current element.
+	 *
+	 * @param reader XMLStreamReader
+	 * @param name String
+	 * @return String
+	 */
+	private static String readFirstChildText(XMLStreamReader reader, String name) throws XMLStreamException {
+
+		String toReturn = null;
+		while (nextChild(reader)) {
+			if (toReturn == null && reader.getLocalName().equals(name)) {
+				toReturn = readText(reader);
+			}
+			else {
+				skipElement(reader);
+			}
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the non-empty normalized text of every child of the current element joined by DELIMITER.
+	 *
+	 * @param reader XMLStreamReader
+	 * @return String
+	 */
+	private static String readChildrenText(XMLStreamReader reader) throws XMLStreamException {
+
+		StringBuilder toReturn = new StringBuilder();
+		while (nextChild(reader)) {
+			String text = readText(reader);
+			if (text.length() > 0) {
+				if (toReturn.length() > 0) toReturn.append(DELIMITER);
+				toReturn.append(text);
+			}
+		}
+		return toReturn.toString();
+	}
+
+	/**
+	 * Returns the normalized text directly contained by the current element,
+	 * text of nested elements is ignored.  Reader is left on the end tag.
+	 *
+	 * @param reader XMLStreamReader
+	 * @return String
+	 */
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+
+		StringBuilder text = new StringBuilder();
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+				event == XMLStreamConstants.SPACE) {
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT) {
+				skipElement(reader);
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+		return normalize(text);
+	}
+
+	/**
+	 * Trims text and collapses runs of whitespace into a single space.
+	 *
+	 * @param text CharSequence
+	 * @return String
+	 */
+	private static String normalize(CharSequence text) {
+
+		int left = 0, right = text.length() - 1;
+		while (left <= right && isWhitespace(text.charAt(left))) left++;
+		while (right > left && isWhitespace(text.charAt(right))) right--;
+		if (left > right) return "";
+
+		StringBuilder toReturn = new StringBuilder(right - left + 1);
+		boolean space = false;
+		for (int lc = left; lc <= right; lc++) {
+			char c = text.charAt(lc);
+			if (isWhitespace(c)) {
+				if (!space) toReturn.append(' ');
+				space = true;
+			}
+			else {
+				toReturn.append(c);
+				space = false;
+			}
+		}
+		return toReturn.toString();
+	}
+
+	private static boolean isWhitespace(char c) {
+		return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+	}
+
+	private static void close(XMLStreamReader reader) {
+		if (reader != null) {
+			try { reader.close(); } catch (XMLStreamException e) {}
+		}
+	}
+}
@@ -37,7 +37,6 @@ import org.apache.log4j.Logger;
 import org.mskcc.cbio.biogene.schema.*;
 
 import java.net.URLEncoder;
-import java.util.ArrayList;
 
 /**
  * Searches for entrez gene info from ncbi.  Used to 
@@ -75,22 +74,22 @@ public class ESearch {
     private static Logger log = Logger.getLogger(ESearch.class);
 	private static String ADVANCED_SEARCH_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi?db=gene&term=alive[prop]+NOT+newentry[title]+FREETEXT&retstart=RETSTART&retmax=RETMAX";
 	private static String CACHE_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi?db=gene&term=alive[prop]+NOT+newentry[title]+ORGANISM[orgn]&retstart=RETSTART";
+	private static String NOT_ALIVE_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi?db=gene&term=all[sb]+NOT+alive[prop]+AND+ORGANISM[orgn]&retstart=RETSTART";
+	private static String MODIFIED_SINCE_PARAMETERS = "&retmax=RETMAX&datetype=mdat&mindate=MINDATE&maxdate=MAXDATE";
 
     /**
      * Converts gene symbol & organism combination to one or more gene ids.
 	 *
-	 * If searchSymbol is true, symbol search is performed, else free text search.
+	 * The query is run using the url template of the given search mode.
      *
-	 * @param searchSymbol boolean
-     * @param symbol String
+	 * @param searchMode SEARCH_MODE
+     * @param query String
      * @param organism String
 	 * @param retStart int
 	 * @param retMax int
-	 * @param IDs ArrayList<String>
-	 * @param totalCount Integer[]
-	 * @return String
+	 * @return SearchResult
      */
-    public static EUtils.RETURN_CODES search(SEARCH_MODE searchMode, String query, String organism, int retStart, int retMax, ArrayList<String> IDs, Integer[] totalCount) {
+    public static SearchResult search(SEARCH_MODE searchMode, String query, String organism, int retStart, int retMax) {
 
 		try {
 			// fetch from entrez gene
@@ -108,13 +107,13 @@ public class ESearch {
 			if (log.isDebugEnabled()) {
 				log.debug("ESearch.search(), url: " + url);
 			}
-			return getIDs(url, IDs, totalCount);
+			return getIDs(url);
 		}
 		catch (Exception e) {
 			if (log.isDebugEnabled()) {
 				log.debug("Exception", e);
 			}
-			return EUtils.RETURN_CODES.FAILURE;
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 		}
     }
 
@@ -124,11 +123,9 @@ public class ESearch {
      * @param organism String
 	 * @param retStart int
 	 * @param retMax int
-	 * @param IDs ArrayList<String>
-	 * @param totalCount Integer[]
-	 * @return String
+	 * @return SearchResult
      */
-    public static EUtils.RETURN_CODES search(String organism, int retStart, int retMax, ArrayList<String> IDs, Integer[] totalCount) {
+    public static SearchResult search(String organism, int retStart, int retMax) {
 
 		try {
 			String url = CACHE_URL.replace("RETSTART", Integer.toString(retStart));
@@ -140,13 +137,54 @@ public class ESearch {
 				organism = URLEncoder.encode(organism, "UTF-8");
 				url = url.replace("ORGANISM", organism);
 			}
-			return getIDs(url, IDs, totalCount);
+			return getIDs(url);
+		}
+		catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("Exception", e);
+			}
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
+		}
+	}
+
+	/**
+	 * Fetches ids of genes of the given organism modified (entrez mdat) between minDate and maxDate,
+	 * starting at desired start record number and returning max records.  Either the genes that are alive
+	 * or those that are not (discontinued, or replaced by another gene) are returned.
+	 *
+	 * @param organism String
+	 * @param minDate String (yyyy/MM/dd)
+	 * @param maxDate String (yyyy/MM/dd)
+	 * @param alive boolean
+	 * @param retStart int
+	 * @param retMax int
+	 * @return SearchResult
+	 */
+	public static SearchResult search(String organism, String minDate, String maxDate, boolean alive, int retStart, int retMax) {
+
+		try {
+			String url = (alive) ? CACHE_URL : NOT_ALIVE_URL;
+			url = url.replace("RETSTART", Integer.toString(retStart)) + MODIFIED_SINCE_PARAMETERS;
+			url = url.replace("MINDATE", URLEncoder.encode(minDate, "UTF-8"));
+			url = url.replace("MAXDATE", URLEncoder.encode(maxDate, "UTF-8"));
+			url = url.replace("RETMAX", Integer.toString(retMax));
+			if (organism.equalsIgnoreCase(EUtils.ALL_ORGANISMS)) {
+				url = url.replace("+AND+ORGANISM[orgn]", "").replace("+ORGANISM[orgn]", "");
+			}
+			else {
+				organism = URLEncoder.encode(organism, "UTF-8");
+				url = url.replace("ORGANISM", organism);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("ESearch.search(), url: " + url);
+			}
+			return getIDs(url);
 		}
 		catch (Exception e) {
 			if (log.isDebugEnabled()) {
 				log.debug("Exception", e);
 			}
-			return EUtils.RETURN_CODES.FAILURE;
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 		}
 	}
 
@@ -154,10 +192,9 @@ public class ESearch {
 	 * Given a url, searches for ids via esearch.
 	 *
 	 * @param url String
-	 * @param IDs ArrayList
-	 * @param totalCount Integer[]
+	 * @return SearchResult
 	 */
-	private static EUtils.RETURN_CODES getIDs(String url, ArrayList<String> IDs, Integer[] totalCount) {
+	private static SearchResult getIDs(String url) {
 
 		try {
 			String content = Retriever.connect(url);
@@ -168,33 +205,28 @@ public class ESearch {
 				if (log.isDebugEnabled()) {
 					log.debug("ESearch.search(), connect error.");
 				}
-				return EUtils.RETURN_CODES.FAILURE;
+				return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 			}
 			// parse
-			ArrayList<String> res = ESearchParser.parse(content, totalCount);
-			if (res == null) {
-				return EUtils.RETURN_CODES.FAILURE;
-			}
-			else if (res.size() == 0) {
-				if (log.isDebugEnabled()) {
+			SearchResult result = ESearchParser.parse(content);
+			if (log.isDebugEnabled()) {
+				if (result.getCode() == EUtils.RETURN_CODES.ID_NOT_FOUND) {
 					log.debug("ESearch.search(), id not found.");
 				}
-				return EUtils.RETURN_CODES.ID_NOT_FOUND;
-			}
-			if (log.isDebugEnabled()) {
-				log.debug("ESearch.search(), gene id(s) retrieval success.");
+				else if (result.isSuccess()) {
+					log.debug("ESearch.search(), gene id(s) retrieval success.");
+				}
 			}
-			IDs.addAll(res);
+
+			// outta here
+			return result;
 		}
 		catch (Exception e) {
 			if (log.isDebugEnabled()) {
 				log.debug("Exception", e);
 			}
-			return EUtils.RETURN_CODES.FAILURE;
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 		}
-
-		// outta here
-		return EUtils.RETURN_CODES.SUCCESS;
 	}
 
 	/**
@@ -53,16 +53,14 @@ public class ESearchParser {
 	private static String COUNT_ELEMENT = "Count";
 	private static String ID_LIST_ELEMENT = "IdList";
 	private static String ID_VALUE_ATTRIBUTE = "Id";
-    private static Integer ID_COUNT;
 
     /**
      * Parses XML returned from eutils
      *
      * @param content String (xml document)
-	 * @param totalCount Integer[]
-	 * @return ArrayList<String> (or null if parse error)
+	 * @return SearchResult (code is FAILURE if parse error)
      */
-    public static ArrayList<String> parse(String content, Integer[] totalCount) {
+    public static SearchResult parse(String content) {
 
 		try {
 			StringReader reader = new StringReader(content);
@@ -73,20 +71,20 @@ public class ESearchParser {
 				if (log.isDebugEnabled()) {
 					log.debug("ESearchParser.parse(), eSearchResult element not found.");
 				}
-				return null;
+				return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 			}
 
 			//  we have something to parse
 			if (log.isDebugEnabled()) {
 				log.debug("ESearchParser.parse(), eSearchResult element found.");
 			}
-			return ESearchParser.parseESearchResult(eSearchResult, totalCount);
+			return ESearchParser.parseESearchResult(eSearchResult);
 		}
 		catch (Exception e) {
 			if (log.isDebugEnabled()) {
 				log.debug("ESearchParser.parseESearchResults(), parse error.");
 			}
-			return null;
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 		}
 	}
 
@@ -94,37 +92,30 @@ public class ESearchParser {
 	 * Parses entrez gene element
 	 *
 	 * @param eSearchResult Element
-	 * @param totalCount Integer[]
-	 * @return ArrayList<String> or null if parse error
+	 * @return SearchResult
 	 */
-	private static ArrayList<String> parseESearchResult(Element eSearchResult, Integer[] totalCount) throws Exception {
+	private static SearchResult parseESearchResult(Element eSearchResult) throws Exception {
 
 		// what we return
 		ArrayList<String> toReturn = new ArrayList<String>();
 
 		// get count
 		Element idCount = eSearchResult.getChild(COUNT_ELEMENT);
-		ID_COUNT = (idCount != null) ? new Integer(idCount.getTextNormalize()) : null;
-		if (ID_COUNT != null && totalCount != null && totalCount.length > 0) {
-			if (log.isDebugEnabled()) {
-				log.debug("ESearchParser.parseESearchResults(), setting totalCount parameter (pass by ref) to ID_COUNT: " + ID_COUNT);
-			}
-			totalCount[0] = ID_COUNT;
-		}
-		if (ID_COUNT == null) {
+		Integer count = (idCount != null) ? new Integer(idCount.getTextNormalize()) : null;
+		if (count == null) {
 			if (log.isDebugEnabled()) {
 				log.debug("ESearchParser.parseESearchResults(), cannot parse count.");
 			}
-			return null;
+			return new SearchResult(EUtils.RETURN_CODES.FAILURE);
 		}
-		else if (ID_COUNT == 0) {
+		else if (count == 0) {
 			if (log.isDebugEnabled()) {
 				log.debug("ESearchParser.parseESearchResults(), count = 0.");
 			}
-			return toReturn;
+			return new SearchResult(EUtils.RETURN_CODES.ID_NOT_FOUND);
 		}
 		if (log.isDebugEnabled()) {
-			log.debug("ESearchParser.parseESearchResults(), we have a total of " + ID_COUNT + " id(s) to process.");
+			log.debug("ESearchParser.parseESearchResults(), we have a total of " + count + " id(s) to process.");
 		}
 
 		// get ids
@@ -145,6 +136,7 @@ public class ESearchParser {
 		}
 
 		// outta here
-		return toReturn;
+		EUtils.RETURN_CODES code = (toReturn.size() > 0) ? EUtils.RETURN_CODES.SUCCESS : EUtils.RETURN_CODES.ID_NOT_FOUND;
+		return new SearchResult(code, toReturn, count);
 	}
-}
\ No newline at end of file
+}
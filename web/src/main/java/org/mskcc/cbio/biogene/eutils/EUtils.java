@@ -36,15 +36,35 @@ import org.apache.log4j.Logger;
 
 import javax.servlet.http.HttpServletResponse;
 
+import java.util.Map;
+import java.util.Set;
 import java.util.List;
-import java.util.Vector;
+import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.io.IOException;
 import java.net.URLDecoder;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 import org.mskcc.cbio.biogene.util.cache.EhCache;
-
-import com.google.common.base.Joiner;
+import org.mskcc.cbio.biogene.util.cache.GeneIndex;
+import org.mskcc.cbio.biogene.util.cache.UniProtMappingStore;
 
 /**
  * Coordinates ESearch and EFetch serivces.
@@ -55,14 +75,36 @@ public class EUtils {
 
 	// some statics
 	public static final String ALL_ORGANISMS = "all organisms";
+	public static final String BULK_MAX_QUERIES_PROPERTY = "bulk.max.queries";
+	public static final String BULK_MAX_SEARCHES_PROPERTY = "bulk.max.searches";
+	public static final String BULK_DEADLINE_PROPERTY = "bulk.deadline";
+	public static int DEFAULT_BULK_MAX_QUERIES = 1000;
+	public static int DEFAULT_BULK_MAX_SEARCHES = 100;
+	public static int DEFAULT_BULK_DEADLINE = 120000;
+	public static final String PAGE_DEADLINE_PROPERTY = "eutils.page.deadline";
+	public static final String PAGE_THREADS_PROPERTY = "efetch.page.threads";
+	public static final String PAGE_QUEUE_SIZE_PROPERTY = "efetch.page.queue.size";
+	public static int DEFAULT_PAGE_DEADLINE = 30000;
+	public static int DEFAULT_PAGE_THREADS = 4;
+	public static int DEFAULT_PAGE_QUEUE_SIZE = 100;
+
+	// as of Oct 1, 2010, eutils search no longer likes max int as retMAX value - 1M should suffice
+	private static int MAX_SEARCH_RESULTS = 1048576;
 
-	private static RETURN_CODES code;
     private static Logger log = Logger.getLogger(EUtils.class);
+
+	// concurrent misses on the same query or gene share one eutils call
+	private static SingleFlight<SearchResult> searches = new SingleFlight<SearchResult>("esearch");
+	private static SingleFlight<GeneInfo> fetches = new SingleFlight<GeneInfo>("efetch");
+
+	// batches of gene info missing from a page are fetched concurrently
+	private static ThreadPoolExecutor pageExecutor = createPageExecutor();
 	
 	public static enum RETURN_CODES {
 
 		// data types
 		SUCCESS("SUCCESS"),
+		PARTIAL("PARTIAL"),
 		FAILURE("FAILURE"),
 		ID_NOT_FOUND("ID_NOT_FOUND");
 
@@ -89,6 +131,34 @@ public class EUtils {
 	 * @param response HttpServletResponse
      */
     public static void processRequest(String query, String organism, Integer retStart, Integer retMax, String outputType, HttpServletResponse response) {
+		EUtils.processRequest(query, organism, retStart, retMax, outputType, response, false);
+	}
+
+    /**
+     * Same as processRequest(), but only if the request can be answered without calling eutils
+	 * (ids and gene info are cached, or known not to exist).  Otherwise nothing is written
+	 * and false is returned.
+     *
+	 * @param query String
+	 * @param organism String
+	 * @param retStart Integer
+	 * @param retMax Integer
+	 * @param outputType String
+	 * @param response HttpServletResponse
+	 * @return boolean
+     */
+    public static boolean processRequestFromCache(String query, String organism, Integer retStart, Integer retMax, String outputType, HttpServletResponse response) {
+		return EUtils.processRequest(query, organism, retStart, retMax, outputType, response, true);
+	}
+
+    /**
+     * Fetches entrez gene info given a symbol and organism, returns false if cacheOnly
+	 * is set and eutils would have to be called (nothing is written in that case).
+     */
+    private static boolean processRequest(String query, String organism, Integer retStart, Integer retMax, String outputType,
+										  HttpServletResponse response, boolean cacheOnly) {
+
+		long deadline = EUtils.getPageDeadline();
 
 		// decode args
 		try {
@@ -102,7 +172,7 @@ public class EUtils {
 			if (response != null) {
 				Writer.writeError(response, RETURN_CODES.FAILURE, outputType);
 			}
-			return;
+			return true;
 		}
 
 		if (log.isDebugEnabled()) {
@@ -113,22 +183,212 @@ public class EUtils {
 		}
 
 		// look in cache for list of ids
-		ArrayList<String> IDs = EUtils.getIDs(query, organism);
-		if (IDs == null) {
+		SearchResult result = EUtils.getIDs(query, organism, cacheOnly);
+		if (result == null) {
+			return false;
+		}
+		if (!result.isSuccess()) {
 			if (log.isDebugEnabled()) {
-				log.debug("EUtils.processRequest(), error executing ESearch.search(), return code: " + EUtils.code.toString());
+				log.debug("EUtils.processRequest(), error executing ESearch.search(), return code: " + result.getCode().toString());
 			}
 			if (response != null) {
-				Writer.writeError(response, code, outputType);
+				Writer.writeError(response, result.getCode(), outputType);
 			}
-			return;
+			return true;
 		}
 		else {
 			// we have IDs to work with
-			EUtils.processIDs(response, retStart, retMax, IDs, organism, outputType);
+			return EUtils.processIDs(response, retStart, retMax, result.getIDs(), organism, outputType, cacheOnly, deadline);
 		}
     }
 
+	/**
+	 * Fetches entrez gene info for a list of symbols (or gene ids) of the same organism.
+	 *
+	 * Each query is resolved as in processRequest() and contributes its first retMax genes.
+	 * Gene info of all queries is looked up in the cache at once, and genes not in cache are
+	 * fetched a batch (efetch.batch.size ids) at a time.  With the json and ndjson formats,
+	 * cached genes are written right away and fetched genes as each batch arrives, see BulkWriter.
+	 *
+	 * Queries not in cache are searched concurrently, at most bulk.max.searches of them.  Queries
+	 * beyond that, or not resolved within bulk.deadline milliseconds, count as FAILURE and genes not
+	 * fetched by then are left out; the return code is PARTIAL in either case (with ndjson, each gene
+	 * left out is reported on a line of its own).
+	 *
+	 * @param queries List<String>
+	 * @param organism String
+	 * @param retMax Integer
+	 * @param outputType String
+	 * @param response HttpServletResponse
+	 */
+	public static void processBulkRequest(List<String> queries, String organism, Integer retMax, String outputType, HttpServletResponse response) {
+
+		List<String> decodedQueries = new ArrayList<String>();
+		try {
+			for (String query : queries) {
+				decodedQueries.add(URLDecoder.decode(query, "UTF-8"));
+			}
+			organism = URLDecoder.decode(organism, "UTF-8");
+		}
+		catch(Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("EUtils.processBulkRequest(), exception thrown while decoding queries or organism: " + e.getMessage());
+			}
+			Writer.writeError(response, RETURN_CODES.FAILURE, outputType);
+			return;
+		}
+
+		// resolve every query, keeping ids in query order
+		long deadline = EUtils.getBulkDeadline();
+		Map<String, SearchResult> results = EUtils.resolveQueries(new LinkedHashSet<String>(decodedQueries), organism, deadline);
+		boolean partial = false;
+		Set<String> IDs = new LinkedHashSet<String>();
+		Map<String, RETURN_CODES> failedQueries = new LinkedHashMap<String, RETURN_CODES>();
+		for (String query : decodedQueries) {
+			SearchResult result = results.get(query);
+			if (result == null) {
+				// not searched (too many searches or deadline passed)
+				partial = true;
+				failedQueries.put(query, RETURN_CODES.FAILURE);
+				continue;
+			}
+			if (!result.isSuccess()) {
+				failedQueries.put(query, result.getCode());
+				continue;
+			}
+			List<String> queryIDs = result.getIDs();
+			IDs.addAll(queryIDs.subList(0, Math.min(retMax, queryIDs.size())));
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("EUtils.processBulkRequest(), " + queries.size() + " queries, " + IDs.size() + " ids, " +
+					  failedQueries.size() + " queries without ids");
+		}
+
+		// look in cache for all gene info objects at once
+		Map<String, GeneInfo> cachedGeneInfo = EhCache.checkInfoCache(IDs);
+		List<String> missingIDs = new ArrayList<String>();
+		for (String geneID : IDs) {
+			if (!cachedGeneInfo.containsKey(geneID) && !EhCache.checkNegativeInfoCache(geneID)) {
+				missingIDs.add(geneID);
+			}
+		}
+
+		BulkWriter writer = new BulkWriter(response, outputType, new ArrayList<String>(IDs));
+		try {
+			for (Map.Entry<String, RETURN_CODES> failedQuery : failedQueries.entrySet()) {
+				writer.writeFailedQuery(failedQuery.getKey(), failedQuery.getValue());
+			}
+			writer.write(cachedGeneInfo);
+			int batchSize = EFetch.getBatchSize();
+			List<String> unfetchedIDs = new ArrayList<String>();
+			for (int lc = 0; lc < missingIDs.size(); lc += batchSize) {
+				List<String> batch = missingIDs.subList(lc, Math.min(lc + batchSize, missingIDs.size()));
+				if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+					unfetchedIDs.addAll(missingIDs.subList(lc, missingIDs.size()));
+					break;
+				}
+				Map<String, GeneInfo> fetchedGeneInfo = new HashMap<String, GeneInfo>();
+				if (!EUtils.fetchMissingGeneInfo(batch, organism, fetchedGeneInfo, deadline)) {
+					for (String geneID : batch) {
+						if (!fetchedGeneInfo.containsKey(geneID)) unfetchedIDs.add(geneID);
+					}
+				}
+				writer.write(fetchedGeneInfo);
+			}
+			if (partial || !unfetchedIDs.isEmpty()) {
+				if (log.isInfoEnabled()) {
+					log.info("EUtils.processBulkRequest(), bulk deadline passed or search limit reached, returning genes at hand, " +
+							 unfetchedIDs.size() + " gene(s) not fetched");
+				}
+				writer.setPartial(unfetchedIDs);
+			}
+			writer.close();
+		}
+		catch (IOException e) {
+			log.error("EUtils.processBulkRequest(), IO Error", e);
+		}
+	}
+
+	/**
+	 * Resolves the given queries (as getIDs()).  Queries answered by the caches are resolved
+	 * right away, the first bulk.max.searches others are searched concurrently on the page threads
+	 * (at most efetch.page.threads at a time for the request).
+	 *
+	 * Queries not searched, or not resolved by the deadline, are left out of the returned map.
+	 *
+	 * @param queries Set<String>
+	 * @param organism String
+	 * @param deadline long (System.currentTimeMillis(), 0 for none)
+	 * @return Map<String, SearchResult>
+	 */
+	private static Map<String, SearchResult> resolveQueries(Set<String> queries, final String organism, final long deadline) {
+
+		final Map<String, SearchResult> results = new ConcurrentHashMap<String, SearchResult>();
+		final ConcurrentLinkedQueue<String> toSearch = new ConcurrentLinkedQueue<String>();
+		int maxSearches = BioGeneProperties.getInt(BULK_MAX_SEARCHES_PROPERTY, DEFAULT_BULK_MAX_SEARCHES);
+		for (String query : queries) {
+			SearchResult result = EUtils.getIDs(query, organism, true);
+			if (result != null) results.put(query, result);
+			else if (toSearch.size() < maxSearches) toSearch.add(query);
+		}
+		if (toSearch.isEmpty()) return results;
+
+		// a few searchers per request, each taking the next query until none are left or the deadline passes
+		Runnable searcher = new Runnable() {
+			public void run() {
+				String query;
+				while ((deadline <= 0 || System.currentTimeMillis() < deadline) && (query = toSearch.poll()) != null) {
+					results.put(query, EUtils.getIDs(query, organism, false));
+				}
+			}
+		};
+		int threads = Math.min(toSearch.size(), BioGeneProperties.getInt(PAGE_THREADS_PROPERTY, DEFAULT_PAGE_THREADS));
+		List<FutureTask<Void>> searchers = new ArrayList<FutureTask<Void>>();
+		for (int lc = 0; lc < Math.max(1, threads); lc++) {
+			FutureTask<Void> future = new FutureTask<Void>(searcher, null);
+			try {
+				pageExecutor.execute(future);
+			}
+			catch (RejectedExecutionException e) {
+				// page queue full (or shutting down), search on this thread
+				future.run();
+			}
+			searchers.add(future);
+		}
+		for (FutureTask<Void> future : searchers) {
+			try {
+				if (deadline > 0) future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				else future.get();
+			}
+			catch (TimeoutException e) {
+				break;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (ExecutionException e) {
+				log.error("EUtils.resolveQueries(), exception", e.getCause());
+			}
+		}
+
+		// searchers not started are dropped, those still running carry on and store their ids in the cache
+		toSearch.clear();
+		for (FutureTask<Void> future : searchers) {
+			pageExecutor.remove(future);
+		}
+		return new HashMap<String, SearchResult>(results);
+	}
+
+	/**
+	 * Returns the number of esearch & efetch calls made and saved by coalescing concurrent misses.
+	 *
+	 * @return String
+	 */
+	public static String getCoalescingStatistics() {
+		return searches.getStatistics() + fetches.getStatistics();
+	}
+
 	/**
 	 * Given a query, determines if it is an advanced one.
 	 *
@@ -148,64 +408,146 @@ public class EUtils {
 	}
 
 	/**
-	 * Given a query and organism, gets back list of id's.  Null is returned if ids not found.
-	 * We all retrieve all ids.
-	 * EUtils.code is set by this routine.
+	 * Given a query and organism, gets back list of id's.
+	 * We all retrieve all ids.  The return code of the result is SUCCESS if ids
+	 * were found, ID_NOT_FOUND if every search mode tried found nothing, else FAILURE.
+	 *
+	 * If cacheOnly is set and esearch would have to be called, null is returned.
 	 *
 	 * @param query String
 	 * @param org String
-	 * @return ArrayList<String>
+	 * @param cacheOnly boolean
+	 * @return SearchResult
 	 */
-	private static ArrayList<String> getIDs(String query, String org) {
+	private static SearchResult getIDs(String query, String org, boolean cacheOnly) {
 		
 		// look in cache for list of ids
         // (if advanced query, don't use organism in cache key)
 		String organism = (EUtils.advancedQuery(query)) ? "" : org; 
 		ArrayList<String> IDs = EhCache.checkIDCache(query, organism);
 
+        // IDs in cache, outta here
+		if (IDs != null) {
+			return new SearchResult(RETURN_CODES.SUCCESS, IDs, IDs.size());
+		}
+
+		// recently found nothing, skip the search cascade
+		if (EhCache.checkNegativeIDCache(query, organism)) {
+			return new SearchResult(RETURN_CODES.ID_NOT_FOUND);
+		}
+
 		// IDs not in cache
-		if (IDs == null) {
-			boolean multitermQuery = (query.contains(" "));
-			IDs = new ArrayList<String>();
-			// iterate over all search modes, stopping when we have ids
-			for (ESearch.SEARCH_MODE mode : ESearch.SEARCH_MODE.values()) {
-				// if we have a single-term query, skip search on free text
-				if (!multitermQuery && mode == ESearch.SEARCH_MODE.FREE_TEXT_OR) {
-					continue;
-				}
-				// if we have a multi-term query, skip wildcard searching on [pref] and [sym]
-				if (multitermQuery && (mode == ESearch.SEARCH_MODE.PREF ||
-						               mode == ESearch.SEARCH_MODE.SYMBOL ||
-						               mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD_RIGHT || 
-									   mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD ||
-									   mode == ESearch.SEARCH_MODE.FREE_TEXT_WILDCARD_RIGHT ||
-									   mode == ESearch.SEARCH_MODE.FREE_TEXT_WILDCARD)) {
-					continue;
-				}
-				//EUtils.code = ESearch.search(mode, query, organism, 0, Integer.MAX_VALUE, IDs, null);
-				// as of Oct 1, 2010, eutils search no longer likes max int as retMAX value - 1M should suffice
-				EUtils.code = ESearch.search(mode, query, organism, 0, 1048576, IDs, null);
-				if (EUtils.code == RETURN_CODES.SUCCESS) {
-					// we successfully found ids, store in cache (unless organism is "All Organisms") and return
-					if (!organism.equalsIgnoreCase(EUtils.ALL_ORGANISMS)) {
-						EhCache.storeIDInCache(query, organism, IDs);
-					}
-					return IDs;
+		SearchResult result = new SearchResult(RETURN_CODES.FAILURE);
+		List<ESearch.SEARCH_MODE> modes = EUtils.getSearchModes(query);
+
+		// answer leading modes from the local gene index where possible
+		while (!modes.isEmpty()) {
+			SearchResult localResult = GeneIndex.search(modes.get(0), query, organism);
+			if (localResult == null) break;
+			result = localResult;
+			modes.remove(0);
+			if (result.isSuccess()) break;
+		}
+
+		// local ids are not stored in the id cache, the index stays current as genes are stored
+		if (result.isSuccess() || modes.isEmpty()) {
+			return result;
+		}
+		if (cacheOnly) {
+			return null;
+		}
+
+		// remaining modes go to esearch, unless the same search is in flight
+		String key = EhCache.getIDCacheKey(query, organism);
+		SingleFlight.Call<SearchResult> call = searches.join(key);
+		if (!call.isLeader()) {
+			SearchResult shared = searches.await(call);
+			if (shared != null) return shared;
+			call = null;
+		}
+		try {
+			result = EUtils.search(modes, query, organism);
+			if (result.isSuccess()) {
+				// we successfully found ids, store in cache (unless organism is "All Organisms") and return
+				if (!organism.equalsIgnoreCase(EUtils.ALL_ORGANISMS)) {
+					EhCache.storeIDInCache(query, organism, result.getIDs());
 				}
 			}
+			else if (result.getCode() == RETURN_CODES.ID_NOT_FOUND) {
+				// every mode found nothing (none failed)
+				EhCache.storeNegativeIDInCache(query, organism);
+			}
 		}
-        // IDs in cache, outta here
-		else {
-			return IDs;
+		finally {
+			// ids and ID_NOT_FOUND are shared, after a failure waiters try for themselves
+			if (call != null) searches.complete(key, call, (result.getCode() != RETURN_CODES.FAILURE) ? result : null);
+		}
+
+		// outta here
+		return result;
+	}
+
+	/**
+	 * Runs the given search modes against esearch, stopping at the first that finds ids.
+	 * If none does, the result is ID_NOT_FOUND only if no mode failed.
+	 *
+	 * @param modes List<ESearch.SEARCH_MODE>
+	 * @param query String
+	 * @param organism String
+	 * @return SearchResult
+	 */
+	private static SearchResult search(List<ESearch.SEARCH_MODE> modes, String query, String organism) {
+
+		if (ParallelSearch.isEnabled()) {
+			return ParallelSearch.search(modes, query, organism, MAX_SEARCH_RESULTS);
 		}
 
-		// we have a problem getting ids
-		return null;
+		// iterate over all search modes, stopping when we have ids
+		SearchResult result = new SearchResult(RETURN_CODES.FAILURE);
+		boolean failed = false;
+		for (ESearch.SEARCH_MODE mode : modes) {
+			result = ESearch.search(mode, query, organism, 0, MAX_SEARCH_RESULTS);
+			if (result.isSuccess()) return result;
+			if (result.getCode() == RETURN_CODES.FAILURE) failed = true;
+		}
+		return (failed) ? new SearchResult(RETURN_CODES.FAILURE) : result;
+	}
+
+	/**
+	 * Returns the search modes to try for the given query, in the order they should be tried.
+	 *
+	 * @param query String
+	 * @return List<ESearch.SEARCH_MODE>
+	 */
+	private static List<ESearch.SEARCH_MODE> getSearchModes(String query) {
+
+		List<ESearch.SEARCH_MODE> toReturn = new ArrayList<ESearch.SEARCH_MODE>();
+		boolean multitermQuery = (query.contains(" "));
+		for (ESearch.SEARCH_MODE mode : ESearch.SEARCH_MODE.values()) {
+			// if we have a single-term query, skip search on free text
+			if (!multitermQuery && mode == ESearch.SEARCH_MODE.FREE_TEXT_OR) {
+				continue;
+			}
+			// if we have a multi-term query, skip wildcard searching on [pref] and [sym]
+			if (multitermQuery && (mode == ESearch.SEARCH_MODE.PREF ||
+								   mode == ESearch.SEARCH_MODE.SYMBOL ||
+								   mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD_RIGHT || 
+								   mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD ||
+								   mode == ESearch.SEARCH_MODE.FREE_TEXT_WILDCARD_RIGHT ||
+								   mode == ESearch.SEARCH_MODE.FREE_TEXT_WILDCARD)) {
+				continue;
+			}
+			toReturn.add(mode);
+		}
+		return toReturn;
 	}
 
 	/**
 	 * Given a set of Id's gets GeneInfo objects and dumps out to response.
 	 * Routine accepts retMax, the maximum number of objects to dump.
+	 * GeneInfo objects of the page are looked up in the cache at once, those not found
+	 * are fetched in concurrent batches.  If they have not all arrived by the deadline,
+	 * the genes at hand are returned with a PARTIAL return code.
 	 *
 	 * @param response HttpServletResponse
 	 * @param retStart Integer
@@ -213,58 +555,280 @@ public class EUtils {
 	 * @param IDs ArrayList<String>
 	 * @param organism String
 	 * @param outputType String
-	 *
+	 * @param cacheOnly boolean return false (writing nothing) if gene info would have to be fetched
+	 * @param deadline long (System.currentTimeMillis(), 0 for none)
+	 * @return boolean
 	 */
-	private static void processIDs(HttpServletResponse response, Integer retStart, Integer retMax, ArrayList<String> IDs, String organism, String outputType) {
+	private static boolean processIDs(HttpServletResponse response, Integer retStart, Integer retMax, ArrayList<String> IDs,
+									  String organism, String outputType, boolean cacheOnly, long deadline) {
 
 		// setup some required vars
 		GeneInfoList geneInfoList = new GeneInfoList();
 		geneInfoList.setCount(IDs.size());
 
-		// interate over IDs
-		int retEnd = retStart + retMax;
-		for (int lc = retStart; lc < retEnd; lc++) {
-			
-			// get geneID - make sure we don't go out of bounds
-			if (lc >= IDs.size()) {
-				break;
+		// interate over IDs - make sure we don't go out of bounds
+		int retEnd = Math.min(retStart + retMax, IDs.size());
+		List<String> pageIDs = (retStart < retEnd) ? IDs.subList(retStart, retEnd) : new ArrayList<String>();
+		// look in cache for gene info objects
+		Map<String, GeneInfo> pageGeneInfo = new HashMap<String, GeneInfo>(EhCache.checkInfoCache(pageIDs));
+		List<String> missingIDs = new ArrayList<String>();
+		for (String geneID : pageIDs) {
+			if (!pageGeneInfo.containsKey(geneID) && !missingIDs.contains(geneID) && !EhCache.checkNegativeInfoCache(geneID)) {
+				missingIDs.add(geneID);
 			}
-			String geneID = IDs.get(lc);
+		}
+
+		if (cacheOnly && missingIDs.size() > 0) {
+			return false;
+		}
+
+		// gene info not in cache, fetch
+		boolean complete = EUtils.fetchMissingGeneInfo(missingIDs, organism, pageGeneInfo, deadline);
 
-			// look in cache for gene info object
-			GeneInfo geneInfo = EhCache.checkInfoCache(geneID);
+		// add objects to return, in id order
+		for (int lc = 0; lc < pageIDs.size(); lc++) {
+			GeneInfo geneInfo = pageGeneInfo.get(pageIDs.get(lc));
 			if (geneInfo != null) {
-				// found object in cache, add object to GeneInfoList
 				if (log.isDebugEnabled()) {
-					log.debug("EUtils.processRequest(), retStart: " + retStart + ", loop counter: " + lc +
+					log.debug("EUtils.processIDs(), retStart: " + retStart + ", loop counter: " + (retStart + lc) +
 							  ", retMax: " + retMax + ", adding geneInfo to return set");
 				}
 				geneInfoList.getGeneInfo().add(geneInfo);
 			}
-			// gene info not in cache, fetch
-			else {
-				geneInfo = EFetch.fetch(geneID);
-				if (geneInfo != null) {
-					// add to cache for future (unless organism is "All Organisms")
-					if (!organism.equalsIgnoreCase(EUtils.ALL_ORGANISMS)) {
-						Vector<String> uniProtMapping = EhCache.checkUniProtMappingCache(geneID);
-						if (uniProtMapping != null) geneInfo.setGeneUniprotMapping(Joiner.on(":").join(uniProtMapping));
-						EhCache.storeInfoInCache(geneInfo);
+		}
+
+		// made it here
+		if (!complete) {
+			if (log.isInfoEnabled()) {
+				log.info("EUtils.processIDs(), page deadline passed, returning " + geneInfoList.getGeneInfo().size() +
+						 " of " + pageIDs.size() + " gene info object(s)");
+			}
+			geneInfoList.setReturnCode(RETURN_CODES.PARTIAL.toString());
+		}
+		EUtils.dumpGeneInfoList(response, geneInfoList, outputType);
+		return true;
+	}
+
+
+	/**
+	 * Fetches gene info for the given ids, completing their calls (if any) as the genes arrive.
+	 *
+	 * @param IDs List<String>
+	 * @param organism String
+	 * @param pageGeneInfo Map<String, GeneInfo>
+	 * @param calls Map<String, SingleFlight.Call<GeneInfo>>
+	 */
+	private static void fetchGeneInfo(List<String> IDs, String organism, Map<String, GeneInfo> pageGeneInfo,
+									  Map<String, SingleFlight.Call<GeneInfo>> calls) {
+
+		if (IDs.isEmpty()) return;
+		List<String> unparsableIDs = new ArrayList<String>();
+		for (GeneInfo geneInfo : EFetch.fetch(IDs, null, unparsableIDs).getGeneInfo()) {
+			String geneID = geneInfo.getGeneId();
+			// add to cache for future (unless organism is "All Organisms"), the mapping is not stored
+			geneInfo.setGeneUniprotMapping(UniProtMappingStore.getMapping(geneID));
+			if (!organism.equalsIgnoreCase(EUtils.ALL_ORGANISMS)) {
+				EhCache.storeInfoInCache(geneInfo);
+			}
+			pageGeneInfo.put(geneID, geneInfo);
+			if (calls != null && calls.containsKey(geneID)) {
+				fetches.complete(geneID, calls.get(geneID), geneInfo);
+			}
+		}
+		for (String geneID : unparsableIDs) {
+			EhCache.storeNegativeInfoInCache(geneID);
+		}
+	}
+
+	/**
+	 * Fetches the gene info of the given ids (not in cache) into pageGeneInfo.  Ids being
+	 * fetched for another request are waited for rather than fetched again, the others
+	 * are fetched a batch (efetch.batch.size ids) per efetch.page.threads thread.
+	 *
+	 * Returns false if the deadline passed before every id was fetched (or found missing).
+	 * Batches not started by then are dropped, fetches still running carry on and store
+	 * their genes in the cache.
+	 *
+	 * @param missingIDs List<String>
+	 * @param organism String
+	 * @param pageGeneInfo Map<String, GeneInfo>
+	 * @param deadline long (System.currentTimeMillis(), 0 for none)
+	 * @return boolean
+	 */
+	private static boolean fetchMissingGeneInfo(List<String> missingIDs, String organism, Map<String, GeneInfo> pageGeneInfo, long deadline) {
+
+		if (missingIDs.isEmpty()) return true;
+		if (log.isDebugEnabled()) {
+			log.debug("EUtils.fetchMissingGeneInfo(), fetching " + missingIDs.size() + " gene info object(s) not found in cache");
+		}
+		Map<String, SingleFlight.Call<GeneInfo>> calls = new HashMap<String, SingleFlight.Call<GeneInfo>>();
+		List<String> leadingIDs = new ArrayList<String>();
+		for (String geneID : missingIDs) {
+			SingleFlight.Call<GeneInfo> call = fetches.join(geneID);
+			calls.put(geneID, call);
+			if (call.isLeader()) leadingIDs.add(geneID);
+		}
+		List<Future<Map<String, GeneInfo>>> batches = EUtils.fetchGeneInfo(leadingIDs, organism, calls, deadline);
+
+		// wait for ids fetched by other requests
+		boolean complete = true;
+		List<String> unsharedIDs = new ArrayList<String>();
+		for (String geneID : missingIDs) {
+			SingleFlight.Call<GeneInfo> call = calls.get(geneID);
+			if (call.isLeader()) continue;
+			GeneInfo geneInfo = (deadline > 0) ?
+				fetches.await(call, deadline - System.currentTimeMillis()) : fetches.await(call);
+			if (geneInfo != null) pageGeneInfo.put(geneID, geneInfo);
+			else if (deadline > 0 && System.currentTimeMillis() >= deadline) complete = false;
+			else unsharedIDs.add(geneID);
+		}
+		batches.addAll(EUtils.fetchGeneInfo(unsharedIDs, organism, null, deadline));
+
+		// collect batches
+		for (Future<Map<String, GeneInfo>> batch : batches) {
+			try {
+				pageGeneInfo.putAll((deadline > 0) ?
+									batch.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS) : batch.get());
+			}
+			catch (TimeoutException e) {
+				complete = false;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				complete = false;
+			}
+			catch (ExecutionException e) {
+				log.error("EUtils.fetchMissingGeneInfo(), exception", e.getCause());
+			}
+		}
+
+		// batches not started by the deadline are dropped from the queue, their calls completed empty
+		if (!complete) {
+			for (Future<Map<String, GeneInfo>> batch : batches) {
+				if (batch.isDone() || !pageExecutor.remove((Runnable)batch)) continue;
+				for (String geneID : ((PageBatch)batch).getIDs()) {
+					if (calls.get(geneID).isLeader()) fetches.complete(geneID, calls.get(geneID), null);
+				}
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * Starts the fetch of gene info for the given ids, a batch per task.  The calls of
+	 * the ids (if any) are completed when their batch is done.  Batches not started
+	 * by the deadline are not fetched (their calls are completed empty).
+	 *
+	 * @param IDs List<String>
+	 * @param organism String
+	 * @param calls Map<String, SingleFlight.Call<GeneInfo>>
+	 * @param deadline long (System.currentTimeMillis(), 0 for none)
+	 * @return List<Future<Map<String, GeneInfo>>>
+	 */
+	private static List<Future<Map<String, GeneInfo>>> fetchGeneInfo(List<String> IDs, final String organism,
+																	  final Map<String, SingleFlight.Call<GeneInfo>> calls,
+																	  final long deadline) {
+
+		List<Future<Map<String, GeneInfo>>> toReturn = new ArrayList<Future<Map<String, GeneInfo>>>();
+		int batchSize = EFetch.getBatchSize();
+		for (int lc = 0; lc < IDs.size(); lc += batchSize) {
+			final List<String> batch = new ArrayList<String>(IDs.subList(lc, Math.min(lc + batchSize, IDs.size())));
+			Callable<Map<String, GeneInfo>> task = new Callable<Map<String, GeneInfo>>() {
+				public Map<String, GeneInfo> call() {
+					Map<String, GeneInfo> batchGeneInfo = new HashMap<String, GeneInfo>();
+					try {
+						if (deadline <= 0 || System.currentTimeMillis() < deadline) {
+							fetchGeneInfo(batch, organism, batchGeneInfo, calls);
+						}
 					}
-					// add object to return
-					if (log.isDebugEnabled()) {
-						log.debug("EUtils.processRequest(), retStart: " + retStart + ", loop counter: " + lc +
-								  ", retMax: " + retMax + ", adding geneInfo to return set");
+					finally {
+						// ids not found (or not fetched)
+						if (calls != null) {
+							for (String geneID : batch) {
+								fetches.complete(geneID, calls.get(geneID), null);
+							}
+						}
 					}
-					geneInfoList.getGeneInfo().add(geneInfo);
+					return batchGeneInfo;
 				}
+			};
+			PageBatch future = new PageBatch(task, batch);
+			try {
+				pageExecutor.execute(future);
 			}
+			catch (RejectedExecutionException e) {
+				// page queue full (or shutting down), fetch on this thread
+				future.run();
+			}
+			toReturn.add(future);
 		}
+		return toReturn;
+	}
 
-		// made it here
-		EUtils.dumpGeneInfoList(response, geneInfoList, outputType);
+	/**
+	 * A batch of gene info to fetch, queued on the page threads.
+	 */
+	private static class PageBatch extends FutureTask<Map<String, GeneInfo>> {
+
+		private List<String> IDs;
+
+		public PageBatch(Callable<Map<String, GeneInfo>> task, List<String> IDs) {
+			super(task);
+			this.IDs = IDs;
+		}
+
+		public List<String> getIDs() { return IDs; }
 	}
 
+	/**
+	 * Returns the deadline of a request starting now (0 if eutils.page.deadline is 0).
+	 *
+	 * @return long
+	 */
+	private static long getPageDeadline() {
+		long deadline = BioGeneProperties.getLong(PAGE_DEADLINE_PROPERTY, DEFAULT_PAGE_DEADLINE);
+		return (deadline > 0) ? System.currentTimeMillis() + deadline : 0;
+	}
+
+	/**
+	 * Returns the deadline of a bulk request starting now (0 if bulk.deadline is 0).
+	 *
+	 * @return long
+	 */
+	private static long getBulkDeadline() {
+		long deadline = BioGeneProperties.getLong(BULK_DEADLINE_PROPERTY, DEFAULT_BULK_DEADLINE);
+		return (deadline > 0) ? System.currentTimeMillis() + deadline : 0;
+	}
+
+	/**
+	 * Shuts down the threads fetching page gene info.
+	 */
+	public static void shutdown() {
+		pageExecutor.shutdownNow();
+	}
+
+	/**
+	 * Creates the pool of daemon threads used to fetch page gene info.  At most efetch.page.queue.size
+	 * batches wait for a thread, further ones are fetched by the requests themselves.
+	 *
+	 * @return ThreadPoolExecutor
+	 */
+	private static ThreadPoolExecutor createPageExecutor() {
+
+		int threads = BioGeneProperties.getInt(PAGE_THREADS_PROPERTY, DEFAULT_PAGE_THREADS);
+		if (threads <= 0) threads = DEFAULT_PAGE_THREADS;
+		int queueSize = BioGeneProperties.getInt(PAGE_QUEUE_SIZE_PROPERTY, DEFAULT_PAGE_QUEUE_SIZE);
+		if (queueSize <= 0) queueSize = DEFAULT_PAGE_QUEUE_SIZE;
+		return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+									  new ThreadFactory() {
+										  private AtomicInteger count = new AtomicInteger();
+										  public Thread newThread(Runnable runnable) {
+											  Thread thread = new Thread(runnable, "efetch-page-" + count.incrementAndGet());
+											  thread.setDaemon(true);
+											  return thread;
+										  }
+									  });
+	}
 
 	/**
 	 * Given a GeneInfoList, writes content out to response
@@ -276,10 +840,13 @@ public class EUtils {
 	private static void dumpGeneInfoList(HttpServletResponse response, GeneInfoList geneInfoList, String outputType) {
 
 		// return code is SUCCESS if we have at least one GeneInfo in list - which is most cases
+		// (unless already set, PARTIAL)
 		int geneSize = geneInfoList.getGeneInfo().size();
-		String returnCode = (geneSize > 0) ?
-			EUtils.RETURN_CODES.SUCCESS.toString() : EUtils.RETURN_CODES.FAILURE.toString();
-		geneInfoList.setReturnCode(returnCode);
+		if (geneInfoList.getReturnCode() == null) {
+			String returnCode = (geneSize > 0) ?
+				EUtils.RETURN_CODES.SUCCESS.toString() : EUtils.RETURN_CODES.FAILURE.toString();
+			geneInfoList.setReturnCode(returnCode);
+		}
 		geneInfoList.setRetMax(geneSize);
 
 		// if we have a writer, dump list
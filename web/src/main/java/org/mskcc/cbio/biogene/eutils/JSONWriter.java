@@ -0,0 +1,175 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+
+import org.mskcc.cbio.biogene.schema.*;
+
+/**
+ * Streams GeneInfoList objects out as JSON.
+ *
+ * The output is the same as flexjson's JSONSerializer.exclude("*.class").deepSerialize(),
+ * which is what clients have been parsing: properties are written in alphabetical order,
+ * missing values are written as null and strings are escaped the same way.
+ */
+public class JSONWriter {
+
+	private static String ENCODING = "UTF-8";
+	private static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Writes the given GeneInfoList to out as UTF-8.  The stream is flushed, not closed.
+	 *
+	 * @param geneInfoList GeneInfoList
+	 * @param out OutputStream
+	 * @throws IOException
+	 */
+	public static void write(GeneInfoList geneInfoList, OutputStream out) throws IOException {
+
+		java.io.Writer writer = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+		writer.write("{\"count\":");
+		writer.write(Integer.toString(geneInfoList.getCount()));
+		writer.write(",\"geneInfo\":[");
+		boolean first = true;
+		for (GeneInfo geneInfo : geneInfoList.getGeneInfo()) {
+			if (!first) writer.write(',');
+			writeGeneInfo(geneInfo, writer);
+			first = false;
+		}
+		writer.write("],\"retMax\":");
+		writer.write(Integer.toString(geneInfoList.getRetMax()));
+		writer.write(",\"returnCode\":");
+		writeString(geneInfoList.getReturnCode(), writer);
+		writer.write('}');
+		writer.flush();
+	}
+
+	/**
+	 * Writes a single GeneInfo object.
+	 *
+	 * @param geneInfo GeneInfo
+	 * @param writer java.io.Writer
+	 * @throws IOException
+	 */
+	public static void writeGeneInfo(GeneInfo geneInfo, java.io.Writer writer) throws IOException {
+
+		writer.write("{\"geneAliases\":");
+		writeString(geneInfo.getGeneAliases(), writer);
+		writer.write(",\"geneChromosome\":");
+		writeString(geneInfo.getGeneChromosome(), writer);
+		writer.write(",\"geneDescription\":");
+		writeString(geneInfo.getGeneDescription(), writer);
+		writer.write(",\"geneDesignations\":");
+		writeString(geneInfo.getGeneDesignations(), writer);
+		writer.write(",\"geneId\":");
+		writeString(geneInfo.getGeneId(), writer);
+		writer.write(",\"geneLocation\":");
+		writeString(geneInfo.getGeneLocation(), writer);
+		writer.write(",\"geneMim\":");
+		writeString(geneInfo.getGeneMim(), writer);
+		writer.write(",\"geneOrganism\":");
+		writeString(geneInfo.getGeneOrganism(), writer);
+		writer.write(",\"geneRif\":[");
+		boolean first = true;
+		for (GeneRIF geneRIF : geneInfo.getGeneRif()) {
+			if (!first) writer.write(',');
+			writer.write("{\"pubmedId\":");
+			writer.write(Integer.toString(geneRIF.getPubmedId()));
+			writer.write(",\"rif\":");
+			writeString(geneRIF.getRif(), writer);
+			writer.write('}');
+			first = false;
+		}
+		writer.write("],\"geneSummary\":");
+		writeString(geneInfo.getGeneSummary(), writer);
+		writer.write(",\"geneSymbol\":");
+		writeString(geneInfo.getGeneSymbol(), writer);
+		writer.write(",\"geneTag\":");
+		writeString(geneInfo.getGeneTag(), writer);
+		writer.write(",\"geneUniprotMapping\":");
+		writeString(geneInfo.getGeneUniprotMapping(), writer);
+		writer.write('}');
+	}
+
+	/**
+	 * Writes a quoted, escaped string (or null).
+	 *
+	 * @param value String
+	 * @param writer java.io.Writer
+	 * @throws IOException
+	 */
+	static void writeString(String value, java.io.Writer writer) throws IOException {
+
+		if (value == null) {
+			writer.write("null");
+			return;
+		}
+
+		writer.write('"');
+		int start = 0;
+		int length = value.length();
+		for (int lc = 0; lc < length; lc++) {
+			char c = value.charAt(lc);
+			String escape = null;
+			switch (c) {
+			    case '"':  escape = "\\\""; break;
+			    case '\\': escape = "\\\\"; break;
+			    case '\b': escape = "\\b"; break;
+			    case '\f': escape = "\\f"; break;
+			    case '\n': escape = "\\n"; break;
+			    case '\r': escape = "\\r"; break;
+			    case '\t': escape = "\\t"; break;
+			    default:
+					if (!Character.isISOControl(c)) continue;
+			}
+			// flush the run of plain characters before c
+			if (lc > start) writer.write(value, start, lc - start);
+			if (escape != null) {
+				writer.write(escape);
+			}
+			else {
+				writer.write("\\u");
+				writer.write(HEX_DIGITS[(c >> 12) & 0xF]);
+				writer.write(HEX_DIGITS[(c >> 8) & 0xF]);
+				writer.write(HEX_DIGITS[(c >> 4) & 0xF]);
+				writer.write(HEX_DIGITS[c & 0xF]);
+			}
+			start = lc + 1;
+		}
+		if (length > start) writer.write(value, start, length - start);
+		writer.write('"');
+	}
+}
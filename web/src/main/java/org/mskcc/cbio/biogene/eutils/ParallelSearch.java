@@ -0,0 +1,205 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the esearch modes of a query concurrently instead of one after the other.
+ *
+ * Modes are given in priority order.  All of them are started at once (each needs
+ * one of esearch.parallel.threads pool threads, which are shared by all requests),
+ * and results are examined in priority order: the first successful mode wins as soon
+ * as every mode ahead of it has failed, and the modes behind it are cancelled.
+ * The outcome is therefore the same as running the modes sequentially: if no mode finds ids,
+ * the result is ID_NOT_FOUND only if no mode failed, else FAILURE.
+ *
+ * When the pool is busy, waiting searches are started by rank (the position of the mode
+ * within its request), so the leading modes of every request run before the trailing
+ * modes of earlier requests, and those are often cancelled before they start.
+ */
+public class ParallelSearch {
+
+	// some statics
+    private static Logger log = Logger.getLogger(ParallelSearch.class);
+
+	public static final String ENABLED_PROPERTY = "esearch.parallel";
+	public static final String THREADS_PROPERTY = "esearch.parallel.threads";
+	public static int DEFAULT_THREADS = 4;
+
+	private static ExecutorService executor = createExecutor();
+	private static AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Returns true if esearch modes should be run concurrently.
+	 *
+	 * @return boolean
+	 */
+	public static boolean isEnabled() {
+		return BioGeneProperties.getBoolean(ENABLED_PROPERTY, false);
+	}
+
+	/**
+	 * Runs the given search modes concurrently.
+	 *
+	 * @param modes List<ESearch.SEARCH_MODE> (highest priority first)
+	 * @param query String
+	 * @param organism String
+	 * @param retMax int
+	 * @return SearchResult
+	 */
+	public static SearchResult search(List<ESearch.SEARCH_MODE> modes, final String query, final String organism, final int retMax) {
+
+		// start every mode
+		List<Future<SearchResult>> futures = new ArrayList<Future<SearchResult>>();
+		for (int lc = 0; lc < modes.size(); lc++) {
+			final ESearch.SEARCH_MODE mode = modes.get(lc);
+			ModeSearch modeSearch = new ModeSearch(lc, new Callable<SearchResult>() {
+					public SearchResult call() {
+						return ESearch.search(mode, query, organism, 0, retMax);
+					}
+				});
+			executor.execute(modeSearch);
+			futures.add(modeSearch);
+		}
+
+		// walk results in priority order
+		SearchResult result = new SearchResult(EUtils.RETURN_CODES.FAILURE);
+		boolean failed = false;
+		try {
+			for (int lc = 0; lc < futures.size(); lc++) {
+				result = getResult(futures.get(lc));
+				if (result.getCode() == EUtils.RETURN_CODES.FAILURE) failed = true;
+				if (result.isSuccess()) {
+					if (log.isDebugEnabled()) {
+						log.debug("ParallelSearch.search(), mode: " + modes.get(lc).name() + " succeeded, cancelling " +
+								  (futures.size() - lc - 1) + " lower priority mode(s)");
+					}
+					break;
+				}
+			}
+		}
+		finally {
+			for (Future<SearchResult> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		// outta here
+		return (failed && !result.isSuccess()) ? new SearchResult(EUtils.RETURN_CODES.FAILURE) : result;
+	}
+
+	/**
+	 * Shuts down the search threads.
+	 */
+	public static void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Waits for the given search to complete.
+	 *
+	 * @param future Future<SearchResult>
+	 * @return SearchResult
+	 */
+	private static SearchResult getResult(Future<SearchResult> future) {
+
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("ParallelSearch.getResult(), exception", e);
+			}
+		}
+		return new SearchResult(EUtils.RETURN_CODES.FAILURE);
+	}
+
+	/**
+	 * A search waiting for a pool thread, ordered by rank, then by submission.
+	 */
+	private static class ModeSearch extends FutureTask<SearchResult> implements Comparable<ModeSearch> {
+
+		private int rank;
+		private long sequenceNumber = sequence.getAndIncrement();
+
+		ModeSearch(int rank, Callable<SearchResult> callable) {
+			super(callable);
+			this.rank = rank;
+		}
+
+		public int compareTo(ModeSearch other) {
+			if (rank != other.rank) return (rank < other.rank) ? -1 : 1;
+			return (sequenceNumber < other.sequenceNumber) ? -1 : ((sequenceNumber == other.sequenceNumber) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Creates the pool of daemon threads used to run searches,
+	 * searches waiting for a thread are queued by rank.
+	 *
+	 * @return ExecutorService
+	 */
+	private static ExecutorService createExecutor() {
+
+		int threads = BioGeneProperties.getInt(THREADS_PROPERTY, DEFAULT_THREADS);
+		if (threads <= 0) threads = DEFAULT_THREADS;
+		return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+									  new ThreadFactory() {
+										  private AtomicInteger count = new AtomicInteger();
+										  public Thread newThread(Runnable runnable) {
+											  Thread thread = new Thread(runnable, "esearch-" + count.incrementAndGet());
+											  thread.setDaemon(true);
+											  return thread;
+										  }
+									  });
+	}
+}
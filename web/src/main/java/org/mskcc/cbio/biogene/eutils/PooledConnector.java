@@ -0,0 +1,211 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.net.URL;
+import java.net.HttpURLConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connector which reuses persistent (keep-alive) connections.
+ *
+ * Idle connections (and their TLS sessions) are pooled by the JVM http handler.  That pool
+ * is shared by everything in the JVM (the servlet container included), so it is not configured
+ * here: the JVM keeps up to 5 idle connections per host, which can be changed with the
+ * -Dhttp.maxConnections=N JVM flag (and keep-alive is on unless -Dhttp.keepAlive=false is given).
+ * A connection only goes back into the pool once its response has been read fully and closed,
+ * so every response is drained before it is released.  The number of requests in flight
+ * against a single host is bounded by eutils.max.connections.per.host.
+ */
+public class PooledConnector implements Connector {
+
+	// some statics
+    private static Logger log = Logger.getLogger(PooledConnector.class);
+	private static String GZIP_ENCODING = "gzip";
+	private static String DEFAULT_CHARSET = "UTF-8";
+
+	public static final String CONNECT_TIMEOUT_PROPERTY = "eutils.connect.timeout";
+	public static final String READ_TIMEOUT_PROPERTY = "eutils.read.timeout";
+	public static final String MAX_CONNECTIONS_PER_HOST_PROPERTY = "eutils.max.connections.per.host";
+
+	public static int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static int DEFAULT_READ_TIMEOUT = 60000;
+	public static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+	// members
+	private int connectTimeout;
+	private int readTimeout;
+	private int maxConnectionsPerHost;
+	private ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	/**
+	 * Constructor, settings are read from biogene.properties.
+	 */
+	public PooledConnector() {
+		this(BioGeneProperties.getInt(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT),
+			 BioGeneProperties.getInt(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT),
+			 BioGeneProperties.getInt(MAX_CONNECTIONS_PER_HOST_PROPERTY, DEFAULT_MAX_CONNECTIONS_PER_HOST));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connectTimeout int (ms)
+	 * @param readTimeout int (ms)
+	 * @param maxConnectionsPerHost int
+	 */
+	public PooledConnector(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+
+		this.connectTimeout = (connectTimeout < 0) ? DEFAULT_CONNECT_TIMEOUT : connectTimeout;
+		this.readTimeout = (readTimeout < 0) ? DEFAULT_READ_TIMEOUT : readTimeout;
+		this.maxConnectionsPerHost = (maxConnectionsPerHost <= 0) ? DEFAULT_MAX_CONNECTIONS_PER_HOST : maxConnectionsPerHost;
+
+		if (log.isInfoEnabled()) {
+			log.info("PooledConnector(), connectTimeout: " + this.connectTimeout + ", readTimeout: " + this.readTimeout +
+					 ", maxConnectionsPerHost: " + this.maxConnectionsPerHost + ", idle connections per host (jvm): " +
+					 System.getProperty("http.maxConnections", "5"));
+		}
+	}
+
+	/**
+	 * Issues a GET request against the given url and hands the response body to handler.
+	 *
+	 * @param urlStr String
+	 * @param handler ResponseHandler<T>
+	 * @return T
+	 * @throws Exception
+	 */
+	public <T> T execute(String urlStr, ResponseHandler<T> handler) throws Exception {
+
+		URL url = new URL(urlStr);
+		Semaphore permits = getHostPermits(url.getHost());
+		permits.acquire();
+		try {
+			HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setUseCaches(false);
+			conn.setRequestProperty("Accept-Encoding", GZIP_ENCODING);
+
+			int status = conn.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				// read the error body so the connection can be reused
+				drain(conn.getErrorStream(), true);
+				throw new IOException("PooledConnector.execute(), http status " + status + " returned for url: " + urlStr);
+			}
+
+			InputStream in = conn.getInputStream();
+			try {
+				InputStream body = (GZIP_ENCODING.equalsIgnoreCase(conn.getContentEncoding())) ?
+					new GZIPInputStream(in) : in;
+				T toReturn = handler.handle(body, getCharset(conn.getContentType()));
+				drain(in, false);
+				return toReturn;
+			}
+			finally {
+				in.close();
+			}
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Returns the semaphore which bounds concurrent requests to the given host.
+	 *
+	 * @param host String
+	 * @return Semaphore
+	 */
+	private Semaphore getHostPermits(String host) {
+
+		Semaphore permits = hostPermits.get(host);
+		if (permits == null) {
+			Semaphore newPermits = new Semaphore(maxConnectionsPerHost, true);
+			permits = hostPermits.putIfAbsent(host, newPermits);
+			if (permits == null) permits = newPermits;
+		}
+		return permits;
+	}
+
+	/**
+	 * Extracts charset from a content type header, defaults to UTF-8.
+	 *
+	 * @param contentType String
+	 * @return String
+	 */
+	private static String getCharset(String contentType) {
+
+		if (contentType != null) {
+			for (String param : contentType.split(";")) {
+				param = param.trim();
+				if (param.toLowerCase().startsWith("charset=")) {
+					String charset = param.substring("charset=".length()).replace("\"", "").trim();
+					if (charset.length() > 0) return charset;
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+
+	/**
+	 * Reads whatever is left on the given stream.
+	 *
+	 * @param in InputStream
+	 * @param close boolean
+	 */
+	private static void drain(InputStream in, boolean close) {
+
+		if (in == null) return;
+		try {
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) >= 0) {}
+			if (close) in.close();
+		}
+		catch (IOException e) {
+			if (log.isDebugEnabled()) {
+				log.debug("PooledConnector.drain(), exception draining stream: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,270 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.apache.log4j.Logger;
+
+import java.util.LinkedList;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the rate of requests made to eutils.
+ *
+ * Callers wait in line for a token: interactive callers are always served
+ * before background callers, and callers of the same priority are served in
+ * the order they arrived.  The priority of a call is taken from the calling
+ * thread (see setPriority()), which defaults to INTERACTIVE.
+ */
+public class RateLimiter {
+
+	// some statics
+    private static Logger log = Logger.getLogger(RateLimiter.class);
+
+	public static enum PRIORITY {
+		INTERACTIVE,
+		BACKGROUND
+	}
+
+	private static ThreadLocal<PRIORITY> threadPriority = new ThreadLocal<PRIORITY>() {
+		protected PRIORITY initialValue() {
+			return PRIORITY.INTERACTIVE;
+		}
+	};
+
+	// some members
+	private double permitsPerSecond;
+	private double maxPermits;
+	private double storedPermits;
+	private long lastRefill;
+
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition changed = lock.newCondition();
+	private LinkedList<Object> interactiveWaiters = new LinkedList<Object>();
+	private LinkedList<Object> backgroundWaiters = new LinkedList<Object>();
+
+	private AtomicLong[] acquired = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+	private AtomicLong[] totalWait = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+	private AtomicLong[] maxWait = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+
+	/**
+	 * Constructor.
+	 *
+	 * @param permitsPerSecond int
+	 * @param maxPermits int (largest burst allowed after a quiet period)
+	 */
+	public RateLimiter(int permitsPerSecond, int maxPermits) {
+
+		this.permitsPerSecond = (permitsPerSecond <= 0) ? 1 : permitsPerSecond;
+		this.maxPermits = (maxPermits <= 0) ? 1 : maxPermits;
+		this.storedPermits = this.maxPermits;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Returns the number of permits handed out per second.
+	 *
+	 * @return int
+	 */
+	public int getPermitsPerSecond() {
+		return (int)permitsPerSecond;
+	}
+
+	/**
+	 * Sets the priority of eutils requests made by the calling thread.
+	 *
+	 * @param priority PRIORITY
+	 */
+	public static void setPriority(PRIORITY priority) {
+		threadPriority.set(priority);
+	}
+
+	/**
+	 * Returns the priority of eutils requests made by the calling thread.
+	 *
+	 * @return PRIORITY
+	 */
+	public static PRIORITY getPriority() {
+		return threadPriority.get();
+	}
+
+	/**
+	 * Waits for a permit at the priority of the calling thread.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		acquire(getPriority());
+	}
+
+	/**
+	 * Waits for a permit at the given priority.
+	 *
+	 * @param priority PRIORITY
+	 * @throws InterruptedException
+	 */
+	public void acquire(PRIORITY priority) throws InterruptedException {
+
+		long start = System.nanoTime();
+		Object waiter = new Object();
+		LinkedList<Object> waiters = (priority == PRIORITY.INTERACTIVE) ? interactiveWaiters : backgroundWaiters;
+
+		lock.lock();
+		try {
+			waiters.add(waiter);
+			try {
+				while (true) {
+					refill();
+					if (nextWaiter() == waiter) {
+						if (storedPermits >= 1) {
+							storedPermits -= 1;
+							waiters.removeFirst();
+							changed.signalAll();
+							break;
+						}
+						changed.awaitNanos((long)((1 - storedPermits) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) + 1);
+					}
+					else {
+						changed.await();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				waiters.remove(waiter);
+				changed.signalAll();
+				throw e;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+
+		// update metrics
+		long wait = System.nanoTime() - start;
+		int index = priority.ordinal();
+		acquired[index].incrementAndGet();
+		totalWait[index].addAndGet(wait);
+		long max = maxWait[index].get();
+		while (wait > max && !maxWait[index].compareAndSet(max, wait)) {
+			max = maxWait[index].get();
+		}
+		if (log.isDebugEnabled() && wait > TimeUnit.SECONDS.toNanos(1)) {
+			log.debug("RateLimiter.acquire(), " + priority.name() + " request waited " + TimeUnit.NANOSECONDS.toMillis(wait) + " ms");
+		}
+	}
+
+	/**
+	 * Returns the number of permits handed out at the given priority.
+	 *
+	 * @param priority PRIORITY
+	 * @return long
+	 */
+	public long getAcquired(PRIORITY priority) {
+		return acquired[priority.ordinal()].get();
+	}
+
+	/**
+	 * Returns the average time spent waiting for a permit at the given priority, in milliseconds.
+	 *
+	 * @param priority PRIORITY
+	 * @return double
+	 */
+	public double getAverageWait(PRIORITY priority) {
+		long count = acquired[priority.ordinal()].get();
+		return (count == 0) ? 0 : (totalWait[priority.ordinal()].get() / (double)count) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Returns the longest time spent waiting for a permit at the given priority, in milliseconds.
+	 *
+	 * @param priority PRIORITY
+	 * @return long
+	 */
+	public long getMaxWait(PRIORITY priority) {
+		return TimeUnit.NANOSECONDS.toMillis(maxWait[priority.ordinal()].get());
+	}
+
+	/**
+	 * Returns the number of callers currently waiting at the given priority.
+	 *
+	 * @param priority PRIORITY
+	 * @return int
+	 */
+	public int getWaiting(PRIORITY priority) {
+		lock.lock();
+		try {
+			return (priority == PRIORITY.INTERACTIVE) ? interactiveWaiters.size() : backgroundWaiters.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a readable summary of the limiter.
+	 *
+	 * @return String
+	 */
+	public String getStatistics() {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append("rate limit: " + (int)permitsPerSecond + " requests/second, burst: " + (int)maxPermits + "\n");
+		for (PRIORITY priority : PRIORITY.values()) {
+			builder.append(priority.name().toLowerCase() + ": requests: " + getAcquired(priority) +
+						   ", waiting: " + getWaiting(priority) +
+						   ", average wait: " + String.format("%.1f", getAverageWait(priority)) + " ms" +
+						   ", max wait: " + getMaxWait(priority) + " ms\n");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the caller entitled to the next permit (lock must be held).
+	 *
+	 * @return Object
+	 */
+	private Object nextWaiter() {
+		return (!interactiveWaiters.isEmpty()) ? interactiveWaiters.getFirst() : backgroundWaiters.peek();
+	}
+
+	/**
+	 * Adds the permits accumulated since the last refill (lock must be held).
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		storedPermits = Math.min(maxPermits, storedPermits + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+	}
+}
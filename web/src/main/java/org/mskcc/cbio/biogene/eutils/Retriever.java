@@ -34,16 +34,55 @@ package org.mskcc.cbio.biogene.eutils;
 // imports
 import org.apache.log4j.Logger;
 
-import java.net.URL;
-import java.net.URLConnection;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
 
 public class Retriever {
 	
     private static Logger log = Logger.getLogger(Retriever.class);
 
+	public static final String API_KEY_PROPERTY = "eutils.api.key";
+	public static final String REQUESTS_PER_SECOND_PROPERTY = "eutils.requests.per.second";
+	public static final String BURST_PROPERTY = "eutils.requests.burst";
+	// ncbi limits, without and with an api key
+	public static int DEFAULT_REQUESTS_PER_SECOND = 3;
+	public static int DEFAULT_API_KEY_REQUESTS_PER_SECOND = 10;
+	public static int DEFAULT_BURST = 1;
+
+	private static String apiKey = BioGeneProperties.getString(API_KEY_PROPERTY, null);
+	private static RateLimiter rateLimiter = createRateLimiter();
+	private static volatile Connector connector = new PooledConnector();
+
+	/**
+	 * Replaces the connection layer used to talk to eutils.
+	 *
+	 * @param newConnector Connector
+	 */
+	public static void setConnector(Connector newConnector) {
+		connector = newConnector;
+	}
+
+	/**
+	 * Returns the connection layer used to talk to eutils.
+	 *
+	 * @return Connector
+	 */
+	public static Connector getConnector() {
+		return connector;
+	}
+
+	/**
+	 * Returns the rate limiter all eutils requests pass through.
+	 *
+	 * @return RateLimiter
+	 */
+	public static RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
     /**
      * Connects to eftech service.
      *
@@ -53,23 +92,57 @@ public class Retriever {
      */
     public static String connect(String urlStr) throws Exception {
 
-		URL url = new URL(urlStr);
-		URLConnection conn = url.openConnection();
-		
-		InputStream in = conn.getInputStream();
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		int len;
-		byte[] buffer = new byte[4096];
-		while ((len = in.read(buffer)) > 0) {
-			out.write(buffer, 0, len);
-		}
-		in.close();
+		String content = execute(urlStr, new ResponseHandler<String>() {
+				public String handle(InputStream in, String charset) throws Exception {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					int len;
+					byte[] buffer = new byte[4096];
+					while ((len = in.read(buffer)) > 0) {
+						out.write(buffer, 0, len);
+					}
 
-		if (log.isDebugEnabled()) {
-			log.debug("Retriever.connect(), received " + out.size() + " bytes.");
-		}
+					if (log.isDebugEnabled()) {
+						log.debug("Retriever.connect(), received " + out.size() + " bytes.");
+					}
+					return (out.size() > 0) ? new String(out.toByteArray(), charset) : null;
+				}
+			});
 
 		// outta here
-		return (out.size() > 0) ? new String(out.toByteArray()) : null;
+		return content;
+	}
+
+	/**
+	 * Connects to eutils service and hands the response body to the given handler.
+	 *
+	 * @param urlStr String
+	 * @param handler ResponseHandler<T>
+	 * @return T
+	 * @throws Exception
+	 */
+	public static <T> T execute(String urlStr, ResponseHandler<T> handler) throws Exception {
+
+		if (apiKey != null) {
+			urlStr += ((urlStr.contains("?")) ? "&" : "?") + "api_key=" + URLEncoder.encode(apiKey, "UTF-8");
+		}
+		rateLimiter.acquire();
+		return connector.execute(urlStr, handler);
+	}
+
+	/**
+	 * Creates the rate limiter, allowing more requests if an api key is set.
+	 *
+	 * @return RateLimiter
+	 */
+	private static RateLimiter createRateLimiter() {
+
+		int defaultRate = (apiKey != null) ? DEFAULT_API_KEY_REQUESTS_PER_SECOND : DEFAULT_REQUESTS_PER_SECOND;
+		int requestsPerSecond = BioGeneProperties.getInt(REQUESTS_PER_SECOND_PROPERTY, defaultRate);
+		int burst = BioGeneProperties.getInt(BURST_PROPERTY, DEFAULT_BURST);
+		if (log.isInfoEnabled()) {
+			log.info("Retriever, eutils requests limited to " + requestsPerSecond + " per second, burst: " + burst +
+					 ((apiKey != null) ? ", using api key" : ""));
+		}
+		return new RateLimiter(requestsPerSecond, burst);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import java.util.ArrayList;
+
+/**
+ * Outcome of a single esearch call (or of a search mode cascade).
+ *
+ * Instances are not modified after construction, so one can be handed
+ * between threads.  The id list may be shared with the cache, do not modify it.
+ */
+public class SearchResult {
+
+	// members
+	private EUtils.RETURN_CODES code;
+	private ArrayList<String> IDs;
+	private int totalCount;
+
+	/**
+	 * Constructor for a search that did not return ids.
+	 *
+	 * @param code EUtils.RETURN_CODES
+	 */
+	public SearchResult(EUtils.RETURN_CODES code) {
+		this(code, new ArrayList<String>(), 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param code EUtils.RETURN_CODES
+	 * @param IDs ArrayList<String>
+	 * @param totalCount int
+	 */
+	public SearchResult(EUtils.RETURN_CODES code, ArrayList<String> IDs, int totalCount) {
+		this.code = code;
+		this.IDs = IDs;
+		this.totalCount = totalCount;
+	}
+
+	/**
+	 * Returns the return code of the search.
+	 *
+	 * @return EUtils.RETURN_CODES
+	 */
+	public EUtils.RETURN_CODES getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the ids found by the search, an empty list unless code is SUCCESS.
+	 *
+	 * @return ArrayList<String>
+	 */
+	public ArrayList<String> getIDs() {
+		return IDs;
+	}
+
+	/**
+	 * Returns the total number of ids matching the search, which can be
+	 * larger than the number of ids returned (see esearch retmax).
+	 *
+	 * @return int
+	 */
+	public int getTotalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Convenience method, returns true if code is SUCCESS.
+	 *
+	 * @return boolean
+	 */
+	public boolean isSuccess() {
+		return (code == EUtils.RETURN_CODES.SUCCESS);
+	}
+}
@@ -0,0 +1,185 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces concurrent eutils calls for the same key.
+ *
+ * The first caller to join a key becomes its leader and makes the call; callers joining
+ * while the call is in flight wait (at most eutils.coalesce.wait milliseconds) and share
+ * the leader's result instead of making their own.  A waiter that times out, or whose leader
+ * completed the call with null (as leaders do after a failure), gets null back and is expected
+ * to make the call itself.
+ */
+public class SingleFlight<V> {
+
+	// some statics
+    private static Logger log = Logger.getLogger(SingleFlight.class);
+
+	public static final String WAIT_PROPERTY = "eutils.coalesce.wait";
+	public static long DEFAULT_WAIT = 30000;
+
+	/**
+	 * A call in flight.
+	 */
+	public static class Call<V> {
+		private boolean leader;
+		private volatile V value;
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		Call(boolean leader) { this.leader = leader; }
+
+		/**
+		 * Returns true if the caller that joined must make the call and complete it.
+		 *
+		 * @return boolean
+		 */
+		public boolean isLeader() { return leader; }
+	}
+
+	// some members
+	private String name;
+	private long wait;
+	private ConcurrentHashMap<String, Call<V>> calls = new ConcurrentHashMap<String, Call<V>>();
+	private AtomicLong made = new AtomicLong();
+	private AtomicLong saved = new AtomicLong();
+	private AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name String used in statistics
+	 */
+	public SingleFlight(String name) {
+		this.name = name;
+		this.wait = BioGeneProperties.getLong(WAIT_PROPERTY, DEFAULT_WAIT);
+	}
+
+	/**
+	 * Joins the call for the given key, starting one if none is in flight.
+	 *
+	 * @param key String
+	 * @return Call<V>
+	 */
+	public Call<V> join(String key) {
+
+		Call<V> leading = new Call<V>(true);
+		Call<V> inFlight = calls.putIfAbsent(key, leading);
+		if (inFlight == null) {
+			made.incrementAndGet();
+			return leading;
+		}
+		return new Follower<V>(inFlight);
+	}
+
+	/**
+	 * Completes the given (leading) call, handing the value to its waiters.  Only the first completion counts.
+	 *
+	 * @param key String
+	 * @param call Call<V>
+	 * @param value V (may be null)
+	 */
+	public void complete(String key, Call<V> call, V value) {
+
+		if (!call.leader || !call.completed.compareAndSet(false, true)) return;
+		call.value = value;
+		calls.remove(key, call);
+		call.done.countDown();
+	}
+
+	/**
+	 * Waits for the leader of the given (joined) call and returns its value,
+	 * or null if the wait timed out or the leader found nothing.
+	 *
+	 * @param call Call<V>
+	 * @return V
+	 */
+	public V await(Call<V> call) {
+		return await(call, wait);
+	}
+
+	/**
+	 * Same as await(Call<V>), but waits at most the given time (or eutils.coalesce.wait if it is shorter).
+	 *
+	 * @param call Call<V>
+	 * @param wait long (milliseconds)
+	 * @return V
+	 */
+	public V await(Call<V> call, long wait) {
+
+		wait = Math.max(0, Math.min(wait, this.wait));
+		Call<V> leading = ((Follower<V>)call).leading;
+		try {
+			if (leading.done.await(wait, TimeUnit.MILLISECONDS)) {
+				if (leading.value != null) saved.incrementAndGet();
+				return leading.value;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		timeouts.incrementAndGet();
+		if (log.isInfoEnabled()) {
+			log.info("SingleFlight.await(), " + name + ", gave up waiting after " + wait + " ms");
+		}
+		return null;
+	}
+
+	/**
+	 * Returns calls made, calls saved by sharing a call in flight and waits that timed out.
+	 *
+	 * @return String
+	 */
+	public String getStatistics() {
+		return (name + " calls made: " + made.get() + ", calls saved: " + saved.get() +
+				", waits timed out: " + timeouts.get() + ", in flight: " + calls.size() + "\n");
+	}
+
+	/**
+	 * A caller waiting on a call in flight.
+	 */
+	private static class Follower<V> extends Call<V> {
+		private Call<V> leading;
+		Follower(Call<V> leading) { super(false); this.leading = leading; }
+	}
+}
@@ -34,8 +34,6 @@ package org.mskcc.cbio.biogene.eutils;
 // imports
 import org.apache.log4j.Logger;
 
-import flexjson.*;
-
 import javax.servlet.http.HttpServletResponse;
 
 import javax.xml.namespace.QName;
@@ -44,18 +42,79 @@ import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 
-import java.io.StringWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.OutputStreamWriter;
 import java.io.ByteArrayOutputStream;
 
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.MapMaker;
+
 import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 
 public class Writer {
 
 	public static final String XML_FORMAT = "xml";
 	public static final String JSON_FORMAT = "json";
+	public static final String NDJSON_FORMAT = "ndjson";
+	public static final String PRETTY_PRINT_PROPERTY = "writer.pretty.print";
+	public static final String FRAGMENT_CACHE_PROPERTY = "writer.fragment.cache";
+	public static final String MAX_AGE_PROPERTY = "writer.max.age";
+	public static int DEFAULT_MAX_AGE = 3600;
 	
     private static Logger log = Logger.getLogger(Writer.class);
+	private static String ENCODING = "UTF-8";
+	private static QName ROOT_ELEMENT = new QName("", "biogene_info_list");
+	private static QName GENE_INFO_ELEMENT = new QName("", "gene_info");
+	private static boolean prettyPrint = BioGeneProperties.getBoolean(PRETTY_PRINT_PROPERTY, true);
+	private static boolean fragmentCache = BioGeneProperties.getBoolean(FRAGMENT_CACHE_PROPERTY, true);
+	private static int maxAge = BioGeneProperties.getInt(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE);
+
+	// encoded gene info, kept for as long as the GeneInfo object itself (gene info objects returned by
+	// the cache are shared and never modified, so an object is encoded once for as long as it is cached);
+	// the cache only shares objects through its near cache, without it (l1.cache.gene.info.size=0)
+	// every lookup returns a new object and its fragment is encoded again
+	private static ConcurrentMap<GeneInfo, byte[]> xmlFragments = new MapMaker().weakKeys().makeMap();
+	private static ConcurrentMap<GeneInfo, byte[]> jsonFragments = new MapMaker().weakKeys().makeMap();
+	private static AtomicLong fragmentHits = new AtomicLong();
+	private static AtomicLong fragmentMisses = new AtomicLong();
+
+	// creating a context is expensive and it is thread-safe, so there is only one
+	private static JAXBContext jaxbContext = createJAXBContext();
+
+	// marshallers are cheap but not thread-safe, so each thread gets its own
+	private static ThreadLocal<Marshaller> marshaller = new ThreadLocal<Marshaller>() {
+		protected Marshaller initialValue() {
+			try {
+				Marshaller toReturn = jaxbContext.createMarshaller();
+				toReturn.setProperty(Marshaller.JAXB_ENCODING, ENCODING);
+				toReturn.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.valueOf(prettyPrint));
+				return toReturn;
+			}
+			catch (JAXBException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	// marshallers of single gene_info elements
+	private static ThreadLocal<Marshaller> fragmentMarshaller = new ThreadLocal<Marshaller>() {
+		protected Marshaller initialValue() {
+			try {
+				Marshaller toReturn = jaxbContext.createMarshaller();
+				toReturn.setProperty(Marshaller.JAXB_ENCODING, ENCODING);
+				toReturn.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+				return toReturn;
+			}
+			catch (JAXBException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
 
 	/**
 	 * Writes an error.
@@ -73,6 +132,11 @@ public class Writer {
 
     /**
      * Writes response.
+	 *
+	 * Content is written straight onto the response stream.  Whitespace is only added
+	 * to xml documents if writer.pretty.print is true (the default).  Unless writer.fragment.cache
+	 * is false, each gene is encoded once (json, or xml as indented in the document) and its bytes
+	 * are spliced into the response from then on.  Only SUCCESS responses may be cached by clients.
      *
 	 * @param response HttpServletResponse
 	 * @param geneInfoList GeneInfoList
@@ -80,60 +144,182 @@ public class Writer {
      */
     public static void write(HttpServletResponse response, GeneInfoList geneInfoList, String outputType) {
 
-		// create marshaller
+		response.setHeader("Cache-Control",
+						   getCacheControl(EUtils.RETURN_CODES.SUCCESS.toString().equals(geneInfoList.getReturnCode())));
 		try {
 			if (outputType.equals(XML_FORMAT)) {
-				JAXBContext jaxbContext = JAXBContext.newInstance("org.mskcc.cbio.biogene.schema");
-				Marshaller marshaller = jaxbContext.createMarshaller();
-				marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-				marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-
-				// marshall data
-				StringWriter writer = new StringWriter();
-				QName qName = new QName("", "biogene_info_list");
-				marshaller.marshal(new JAXBElement(qName, GeneInfoList.class, geneInfoList), writer);
-
-				// write out xml		
-				returnContent(response, writer.toString(), "text/xml");
+				response.setContentType("text/xml; charset=" + ENCODING);
+				OutputStream out = response.getOutputStream();
+				if (fragmentCache) {
+					Writer.writeXML(geneInfoList, out);
+				}
+				else {
+					marshaller.get().marshal(new JAXBElement<GeneInfoList>(ROOT_ELEMENT, GeneInfoList.class, geneInfoList), out);
+				}
+				out.flush();
 			}
 			else {
-				JSONSerializer serializer = new JSONSerializer();
-				/*
-				returnContent(response, serializer.exclude("*.class")
-							  .include("geneInfo", "geneInfo.geneRif")
-							  .serialize(geneInfoList), "text/json");
-				*/
-				returnContent(response, serializer.exclude("*.class").deepSerialize(geneInfoList), "text/json");
+				response.setContentType("text/json; charset=" + ENCODING);
+				if (fragmentCache) {
+					Writer.writeJSON(geneInfoList, response.getOutputStream());
+				}
+				else {
+					JSONWriter.write(geneInfoList, response.getOutputStream());
+				}
 			}
 		}
 		catch(JAXBException e) {
 			log.error("JAXB Exception", e);
 		}
+		catch (IOException e) {
+			log.error("IO Error", e);
+		}
 	}
 
 	/**
-	 * Return output to Client
+	 * Returns the Cache-Control header of a response, clients may keep
+	 * cacheable responses for writer.max.age seconds.
 	 *
-     * @param response  Servlet Response.
-     * @param outputString XML String
-	 * @param contentType String
+	 * @param cacheable boolean
+	 * @return String
 	 */
-    private static void returnContent(HttpServletResponse response, String outputString, String contentType) {
-	
+	public static String getCacheControl(boolean cacheable) {
+		return (cacheable && maxAge > 0) ? "public, max-age=" + maxAge : "no-cache";
+	}
+
+	/**
+	 * Returns the json encoding of the given GeneInfo (UTF-8).
+	 *
+	 * @param geneInfo GeneInfo
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	static byte[] getJSONFragment(GeneInfo geneInfo) throws IOException {
+
+		byte[] fragment = (fragmentCache) ? jsonFragments.get(geneInfo) : null;
+		if (fragment != null) {
+			fragmentHits.incrementAndGet();
+			return fragment;
+		}
+		fragmentMisses.incrementAndGet();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		java.io.Writer writer = new OutputStreamWriter(bytes, ENCODING);
+		JSONWriter.writeGeneInfo(geneInfo, writer);
+		writer.flush();
+		fragment = bytes.toByteArray();
+		if (fragmentCache) jsonFragments.put(geneInfo, fragment);
+		return fragment;
+	}
+
+	/**
+	 * Returns the gene_info element of the given GeneInfo (UTF-8).  With pretty printing, the
+	 * element is indented as a child of biogene_info_list, and ends with a line break.
+	 *
+	 * @param geneInfo GeneInfo
+	 * @return byte[]
+	 * @throws IOException
+	 * @throws JAXBException
+	 */
+	static byte[] getXMLFragment(GeneInfo geneInfo) throws IOException, JAXBException {
+
+		byte[] fragment = xmlFragments.get(geneInfo);
+		if (fragment != null) {
+			fragmentHits.incrementAndGet();
+			return fragment;
+		}
+		fragmentMisses.incrementAndGet();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (prettyPrint) {
+			// marshal a list of just this gene, and cut its element out (from the start of its line)
+			GeneInfoList geneInfoList = new GeneInfoList();
+			geneInfoList.setReturnCode(EUtils.RETURN_CODES.SUCCESS.toString());
+			geneInfoList.getGeneInfo().add(geneInfo);
+			marshaller.get().marshal(new JAXBElement<GeneInfoList>(ROOT_ELEMENT, GeneInfoList.class, geneInfoList), bytes);
+			String document = bytes.toString(ENCODING);
+			int start = document.lastIndexOf('\n', document.indexOf("<gene_info>")) + 1;
+			fragment = document.substring(start, document.lastIndexOf("</biogene_info_list>")).getBytes(ENCODING);
+		}
+		else {
+			fragmentMarshaller.get().marshal(new JAXBElement<GeneInfo>(GENE_INFO_ELEMENT, GeneInfo.class, geneInfo), bytes);
+			fragment = bytes.toByteArray();
+		}
+		xmlFragments.put(geneInfo, fragment);
+		return fragment;
+	}
+
+	/**
+	 * Returns the number of genes written from their cached encoding and the number encoded.
+	 *
+	 * @return String
+	 */
+	public static String getFragmentStatistics() {
+		return ("Response fragments: " + fragmentHits.get() + " hits, " + fragmentMisses.get() + " encoded, " +
+				xmlFragments.size() + " xml / " + jsonFragments.size() + " json cached\n");
+	}
+
+	/**
+	 * Writes the given GeneInfoList as an xml document (same as the marshaller,
+	 * indented if pretty printing) from the encoded genes.
+	 *
+	 * @param geneInfoList GeneInfoList
+	 * @param out OutputStream
+	 * @throws IOException
+	 * @throws JAXBException
+	 */
+	private static void writeXML(GeneInfoList geneInfoList, OutputStream out) throws IOException, JAXBException {
+
+		String indent = (prettyPrint) ? "    " : "";
+		String newline = (prettyPrint) ? "\n" : "";
+		StringBuilder envelope = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+		envelope.append(newline).append("<biogene_info_list>").append(newline);
+		if (geneInfoList.getReturnCode() != null) {
+			envelope.append(indent).append("<return_code>").append(geneInfoList.getReturnCode()).append("</return_code>").append(newline);
+		}
+		envelope.append(indent).append("<count>").append(geneInfoList.getCount()).append("</count>").append(newline);
+		envelope.append(indent).append("<retMax>").append(geneInfoList.getRetMax()).append("</retMax>").append(newline);
+		out.write(envelope.toString().getBytes(ENCODING));
+		for (GeneInfo geneInfo : geneInfoList.getGeneInfo()) {
+			out.write(Writer.getXMLFragment(geneInfo));
+		}
+		out.write(("</biogene_info_list>" + newline).getBytes(ENCODING));
+	}
+
+	/**
+	 * Writes the given GeneInfoList as json (same as JSONWriter) from the encoded genes.
+	 *
+	 * @param geneInfoList GeneInfoList
+	 * @param out OutputStream
+	 * @throws IOException
+	 */
+	private static void writeJSON(GeneInfoList geneInfoList, OutputStream out) throws IOException {
+
+		out.write(("{\"count\":" + geneInfoList.getCount() + ",\"geneInfo\":[").getBytes(ENCODING));
+		boolean first = true;
+		for (GeneInfo geneInfo : geneInfoList.getGeneInfo()) {
+			if (!first) out.write(',');
+			out.write(Writer.getJSONFragment(geneInfo));
+			first = false;
+		}
+		StringWriter envelope = new StringWriter();
+		envelope.write("],\"retMax\":" + geneInfoList.getRetMax() + ",\"returnCode\":");
+		JSONWriter.writeString(geneInfoList.getReturnCode(), envelope);
+		envelope.write('}');
+		out.write(envelope.toString().getBytes(ENCODING));
+		out.flush();
+	}
+
+	/**
+	 * Creates the JAXBContext for the biogene schema.
+	 *
+	 * @return JAXBContext
+	 */
+	private static JAXBContext createJAXBContext() {
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			out.write(outputString.getBytes());
-			response.setContentType(contentType);
-			if (log.isDebugEnabled()) {
-				log.debug("EFetch.returnXml(), Content Length: " + out.size());
-			}
-			response.setContentLength(out.size());
-			out.writeTo(response.getOutputStream());
-			out.flush();
-			out.close();
+			return JAXBContext.newInstance("org.mskcc.cbio.biogene.schema");
 		}
-		catch (IOException e) {
-			log.error("IO Error", e);
+		catch (JAXBException e) {
+			log.error("Writer, cannot create JAXBContext", e);
+			throw new ExceptionInInitializerError(e);
 		}
 	}
-}
\ No newline at end of file
+}
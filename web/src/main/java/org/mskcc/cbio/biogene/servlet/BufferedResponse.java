@@ -0,0 +1,216 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.servlet;
+
+// imports
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.ByteArrayOutputStream;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Response which keeps what is written to it (with its content type and headers) until sent.
+ *
+ * When sent, the content gets an ETag (a hash of the content, so it changes exactly when the
+ * content does), a request whose If-None-Match names it is answered with 304 Not Modified,
+ * and content is gzip compressed for clients accepting it (unless response.gzip is false).
+ */
+class BufferedResponse extends HttpServletResponseWrapper {
+
+	public static final String GZIP_PROPERTY = "response.gzip";
+	private static int GZIP_MIN_SIZE = 256;
+	private static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static boolean gzip = BioGeneProperties.getBoolean(GZIP_PROPERTY, true);
+
+	private String contentType;
+	private PrintWriter writer;
+	private Map<String, String> headers = new LinkedHashMap<String, String>();
+	private ByteArrayOutputStream content = new ByteArrayOutputStream();
+	private ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) { content.write(b); }
+			public void write(byte[] b, int off, int len) { content.write(b, off, len); }
+		};
+
+	/**
+	 * Constructor.
+	 *
+	 * @param response HttpServletResponse
+	 */
+	public BufferedResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	public ServletOutputStream getOutputStream() {
+		return out;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+		}
+		return writer;
+	}
+
+	public void flushBuffer() {}
+
+	/**
+	 * Sends the content onto the given response, as requested by request.
+	 *
+	 * @param request HttpServletRequest
+	 * @param response HttpServletResponse
+	 * @throws IOException
+	 */
+	public void send(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		if (writer != null) writer.flush();
+		byte[] bytes = content.toByteArray();
+
+		if (contentType != null) response.setContentType(contentType);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			response.setHeader(header.getKey(), header.getValue());
+		}
+		// weak, the same content compressed or not is the same entity
+		String eTag = "W/\"" + getHash(bytes) + "\"";
+		response.setHeader("ETag", eTag);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (matches(request.getHeader("If-None-Match"), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		if (gzip && bytes.length >= GZIP_MIN_SIZE && acceptsGzip(request.getHeader("Accept-Encoding"))) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+			GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+			gzipOut.write(bytes);
+			gzipOut.close();
+			bytes = compressed.toByteArray();
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		response.setContentLength(bytes.length);
+		ServletOutputStream responseOutputStream = response.getOutputStream();
+		responseOutputStream.write(bytes);
+		responseOutputStream.flush();
+	}
+
+	/**
+	 * Returns true if the given If-None-Match header names eTag (weak comparison).
+	 *
+	 * @param ifNoneMatch String
+	 * @param eTag String
+	 * @return boolean
+	 */
+	private static boolean matches(String ifNoneMatch, String eTag) {
+
+		if (ifNoneMatch == null) return false;
+		String opaqueTag = eTag.substring(2);
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+			if (candidate.equals("*") || candidate.equals(opaqueTag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the given Accept-Encoding header accepts gzip.
+	 *
+	 * @param acceptEncoding String
+	 * @return boolean
+	 */
+	private static boolean acceptsGzip(String acceptEncoding) {
+
+		if (acceptEncoding == null) return false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			if (!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+			for (int lc = 1; lc < parts.length; lc++) {
+				String parameter = parts[lc].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						return Float.parseFloat(parameter.substring(2)) > 0;
+					}
+					catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the (hex) md5 hash of the given content.
+	 *
+	 * @param bytes byte[]
+	 * @return String
+	 */
+	private static String getHash(byte[] bytes) {
+
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+			char[] toReturn = new char[digest.length * 2];
+			for (int lc = 0; lc < digest.length; lc++) {
+				toReturn[lc * 2] = HEX_DIGITS[(digest[lc] >> 4) & 0xF];
+				toReturn[lc * 2 + 1] = HEX_DIGITS[digest[lc] & 0xF];
+			}
+			return new String(toReturn);
+		}
+		catch (java.security.NoSuchAlgorithmException e) {
+			// every java platform has md5
+			throw new IllegalStateException(e);
+		}
+	}
+}
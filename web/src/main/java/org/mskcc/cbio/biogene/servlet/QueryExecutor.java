@@ -0,0 +1,265 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.servlet;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.eutils.EUtils;
+import org.mskcc.cbio.biogene.eutils.Writer;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Completes queries which could not be answered from the caches (see WebService.processQuery)
+ * on a bounded pool of threads, so container threads are not held while eutils is called.
+ *
+ * A query is written into a buffer and sent (see BufferedResponse) when it is done.  If the
+ * query takes longer than query.timeout milliseconds a FAILURE is sent instead, and if
+ * query.queue.size queries are already waiting the request is refused (503).  Either way
+ * only one of them ever touches the response.
+ *
+ * Streamed queries (bulk requests) write straight onto the response instead, and are not timed out
+ * here (bulk requests bound themselves by bulk.deadline, see EUtils.processBulkRequest).
+ */
+public class QueryExecutor {
+
+	/**
+	 * A query, writing its result to the given response.
+	 */
+	public interface Query {
+		void process(HttpServletResponse response) throws Exception;
+	}
+
+	// some statics
+    private static Logger log = Logger.getLogger(QueryExecutor.class);
+
+	public static final String THREADS_PROPERTY = "query.threads";
+	public static final String QUEUE_SIZE_PROPERTY = "query.queue.size";
+	public static final String TIMEOUT_PROPERTY = "query.timeout";
+	public static int DEFAULT_THREADS = 16;
+	public static int DEFAULT_QUEUE_SIZE = 100;
+	public static int DEFAULT_TIMEOUT = 120000;
+
+	private static ThreadPoolExecutor executor = createExecutor();
+
+	// statistics
+	private static AtomicLong completed = new AtomicLong();
+	private static AtomicLong rejected = new AtomicLong();
+	private static AtomicLong timedOut = new AtomicLong();
+
+	/**
+	 * Runs the given query for an asynchronous request, completing it when done.
+	 *
+	 * @param asyncContext AsyncContext
+	 * @param query Query
+	 * @param outputType String
+	 */
+	public static void execute(final AsyncContext asyncContext, final Query query, final String outputType) {
+
+		final HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+		final AtomicBoolean answered = new AtomicBoolean();
+		final AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+
+		asyncContext.setTimeout(BioGeneProperties.getInt(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT));
+		asyncContext.addListener(new AsyncListener() {
+				public void onComplete(AsyncEvent event) {}
+				public void onStartAsync(AsyncEvent event) {}
+				public void onTimeout(AsyncEvent event) {
+					if (answered.compareAndSet(false, true)) {
+						timedOut.incrementAndGet();
+						if (log.isInfoEnabled()) {
+							log.info("QueryExecutor.execute(), query timed out");
+						}
+						if (future.get() != null) future.get().cancel(true);
+						Writer.writeError(response, EUtils.RETURN_CODES.FAILURE, outputType);
+						asyncContext.complete();
+					}
+				}
+				public void onError(AsyncEvent event) {
+					if (answered.compareAndSet(false, true)) {
+						if (future.get() != null) future.get().cancel(true);
+						asyncContext.complete();
+					}
+				}
+			});
+
+		try {
+			future.set(executor.submit(new Runnable() {
+					public void run() {
+						BufferedResponse buffer = new BufferedResponse(response);
+						try {
+							query.process(buffer);
+						}
+						catch (Exception e) {
+							log.error("QueryExecutor.execute(), exception", e);
+							buffer = new BufferedResponse(response);
+							Writer.writeError(buffer, EUtils.RETURN_CODES.FAILURE, outputType);
+						}
+						if (answered.compareAndSet(false, true)) {
+							try {
+								buffer.send((HttpServletRequest)asyncContext.getRequest(), response);
+								completed.incrementAndGet();
+							}
+							catch (IOException e) {
+								log.error("QueryExecutor.execute(), IO Error", e);
+							}
+							finally {
+								asyncContext.complete();
+							}
+						}
+					}
+				}));
+		}
+		catch (RejectedExecutionException e) {
+			if (answered.compareAndSet(false, true)) {
+				rejected.incrementAndGet();
+				if (log.isInfoEnabled()) {
+					log.info("QueryExecutor.execute(), " + executor.getQueue().size() + " queries waiting, request refused");
+				}
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				Writer.writeError(response, EUtils.RETURN_CODES.FAILURE, outputType);
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * Runs the given query for an asynchronous request, letting it write onto the response as it goes.
+	 * The request is completed when the query is done (there is no timeout, the query bounds itself).
+	 *
+	 * @param asyncContext AsyncContext
+	 * @param query Query
+	 * @param outputType String
+	 */
+	public static void stream(final AsyncContext asyncContext, final Query query, final String outputType) {
+
+		final HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+		final AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+
+		asyncContext.setTimeout(0);
+		asyncContext.addListener(new AsyncListener() {
+				public void onComplete(AsyncEvent event) {}
+				public void onStartAsync(AsyncEvent event) {}
+				public void onTimeout(AsyncEvent event) {}
+				public void onError(AsyncEvent event) {
+					// the query completes the request once it stops
+					if (future.get() != null) future.get().cancel(true);
+				}
+			});
+
+		try {
+			future.set(executor.submit(new Runnable() {
+					public void run() {
+						try {
+							query.process(response);
+							completed.incrementAndGet();
+						}
+						catch (Exception e) {
+							log.error("QueryExecutor.stream(), exception", e);
+						}
+						finally {
+							asyncContext.complete();
+						}
+					}
+				}));
+		}
+		catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			if (log.isInfoEnabled()) {
+				log.info("QueryExecutor.stream(), " + executor.getQueue().size() + " queries waiting, request refused");
+			}
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			Writer.writeError(response, EUtils.RETURN_CODES.FAILURE, outputType);
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * Returns query statistics.
+	 *
+	 * @return String
+	 */
+	public static String getStatistics() {
+		return ("Queries: " + executor.getActiveCount() + " running, " +
+				executor.getQueue().size() + " waiting, " +
+				completed.get() + " completed, " +
+				timedOut.get() + " timed out, " +
+				rejected.get() + " refused\n");
+	}
+
+	/**
+	 * Shuts down the query threads.
+	 */
+	public static void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Creates the bounded pool of daemon threads used to run queries.
+	 *
+	 * @return ThreadPoolExecutor
+	 */
+	private static ThreadPoolExecutor createExecutor() {
+
+		int threads = BioGeneProperties.getInt(THREADS_PROPERTY, DEFAULT_THREADS);
+		if (threads <= 0) threads = DEFAULT_THREADS;
+		int queueSize = BioGeneProperties.getInt(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+		if (queueSize <= 0) queueSize = DEFAULT_QUEUE_SIZE;
+		return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+									  new ThreadFactory() {
+										  private AtomicInteger count = new AtomicInteger();
+										  public Thread newThread(Runnable runnable) {
+											  Thread thread = new Thread(runnable, "query-" + count.incrementAndGet());
+											  thread.setDaemon(true);
+											  return thread;
+										  }
+									  });
+	}
+}
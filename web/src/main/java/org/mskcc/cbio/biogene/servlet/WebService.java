@@ -34,18 +34,26 @@ package org.mskcc.cbio.biogene.servlet;
 // imports
 import org.mskcc.cbio.biogene.eutils.EUtils;
 import org.mskcc.cbio.biogene.eutils.Writer;
+import org.mskcc.cbio.biogene.eutils.ParallelSearch;
+import org.mskcc.cbio.biogene.eutils.Retriever;
 import org.mskcc.cbio.biogene.util.cache.EhCache;
 import org.mskcc.cbio.biogene.util.PubMedAbstract;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 import org.mskcc.cbio.biogene.tool.Console;
+import org.mskcc.cbio.biogene.task.PopulateJobs;
 import org.mskcc.cbio.biogene.task.PopulateCacheTask;
 import org.mskcc.cbio.biogene.task.PopulateUniProtMappingCacheTask;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import java.util.List;
+import java.util.ArrayList;
+
 import java.io.PrintWriter;
 import java.io.IOException;
 
@@ -57,6 +65,10 @@ public class WebService extends HttpServlet {
     public void destroy() {
         super.destroy();
         System.err.println("Shutting Down the BioGENE Server...");
+		PopulateJobs.shutdown();
+		QueryExecutor.shutdown();
+		ParallelSearch.shutdown();
+		EUtils.shutdown();
 		EhCache.shutDownCache();
     }
 
@@ -71,6 +83,8 @@ public class WebService extends HttpServlet {
 		try {
             System.out.println("Initializing Cache...");
 			Console.initializeCache();
+            System.out.println("Resuming Cache Population...");
+			Console.resumePopulateCache();
 		}
 		catch (Exception e) {
 			throw new ServletException(e);
@@ -105,7 +119,12 @@ public class WebService extends HttpServlet {
 			if (command.equals("getPubMedAbstract")) {
 				getPubMedAbstract(httpServletRequest, httpServletResponse);
 			}
-			processCommand(httpServletRequest, httpServletResponse);
+			else {
+				processCommand(httpServletRequest, httpServletResponse);
+			}
+		}
+		else if (httpServletRequest.getParameter("queries") != null) {
+			processBulkQuery(httpServletRequest, httpServletResponse);
 		}
 		else {
 			processQuery(httpServletRequest, httpServletResponse);
@@ -120,7 +139,9 @@ public class WebService extends HttpServlet {
 			writer.print("Error: you must specify a id parameter.\n");
 		}
 		else {
-			PubMedAbstract.fetchJSON(httpServletResponse, pubMedAbstractID);
+			BufferedResponse buffer = new BufferedResponse(httpServletResponse);
+			PubMedAbstract.fetchJSON(buffer, pubMedAbstractID);
+			buffer.send(httpServletRequest, httpServletResponse);
 		}
 	}
 
@@ -163,16 +184,49 @@ public class WebService extends HttpServlet {
 		else if (command.equals("u")) {
 			Console.populateUniProtCache();
 		}
+		else if (command.equals("m")) {
+			Console.migrateCache();
+		}
+		else if (command.equals("n")) {
+			Console.buildSnapshot();
+		}
+		else if (command.equals("f")) {
+			String organism = httpServletRequest.getParameter("org");
+			if (organism != null) {
+				Console.refreshCache(organism, httpServletRequest.getParameter("mindate"));
+			}
+		}
+		else if (command.equals("x")) {
+			EhCache.purgeNegativeCache();
+		}
+		else if (command.equals("r")) {
+			Console.resumePopulateCache();
+		}
+		else if (command.equals("j")) {
+			responseOutputStream.print(PopulateJobs.getStatus());
+		}
+		else if (command.equals("s")) {
+			responseOutputStream.print(QueryExecutor.getStatistics());
+			responseOutputStream.print(Retriever.getRateLimiter().getStatistics());
+			responseOutputStream.print(EUtils.getCoalescingStatistics());
+			responseOutputStream.print(EhCache.getCacheStatistics());
+			responseOutputStream.print(EhCache.getNegativeCacheStatistics());
+			responseOutputStream.print(Writer.getFragmentStatistics());
+		}
 		responseOutputStream.print("Processing command:  " + command + "\n");
 		responseOutputStream.flush();
 		responseOutputStream.close();
 	}
 
+	/**
+	 * Queries answered by the caches are written right away, others are completed
+	 * asynchronously by the QueryExecutor, freeing this thread while eutils is called.
+	 */
 	private void processQuery(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws Exception {
 
         ServletOutputStream responseOutputStream = httpServletResponse.getOutputStream();
-		String query = httpServletRequest.getParameter("query");
-		String organism = httpServletRequest.getParameter("org");
+		final String query = httpServletRequest.getParameter("query");
+		final String organism = httpServletRequest.getParameter("org");
 		String outputType = httpServletRequest.getParameter("format");
 		Integer retMax = null;
 		Integer retStart = null;
@@ -193,13 +247,36 @@ public class WebService extends HttpServlet {
 		if (!outputType.equals(Writer.JSON_FORMAT) && !outputType.equals(Writer.XML_FORMAT)) outputType = null;
 
 		if (query != null && organism != null && outputType != null) {
+			boolean answered = true;
 			try {
-				EUtils.processRequest(query, organism, retStart, retMax, outputType, httpServletResponse);
+				BufferedResponse buffer = new BufferedResponse(httpServletResponse);
+				answered = EUtils.processRequestFromCache(query, organism, retStart, retMax, outputType, buffer);
+				if (!answered && !httpServletRequest.isAsyncSupported()) {
+					EUtils.processRequest(query, organism, retStart, retMax, outputType, buffer);
+					answered = true;
+				}
+				if (answered) {
+					buffer.send(httpServletRequest, httpServletResponse);
+				}
+				else {
+					final Integer start = retStart;
+					final Integer max = retMax;
+					final String type = outputType;
+					AsyncContext asyncContext = httpServletRequest.startAsync();
+					QueryExecutor.execute(asyncContext, new QueryExecutor.Query() {
+							public void process(HttpServletResponse response) {
+								EUtils.processRequest(query, organism, start, max, type, response);
+							}
+						}, outputType);
+				}
 			} catch (Exception e) {
+				answered = true;
 				outputError(responseOutputStream, "internal error:  " + e.getMessage());
 			} finally {
-				responseOutputStream.flush();
-				responseOutputStream.close();
+				if (answered) {
+					responseOutputStream.flush();
+					responseOutputStream.close();
+				}
 			}
 		}
 		else {
@@ -215,6 +292,67 @@ public class WebService extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Bulk queries (queries=symbol,symbol,...) are streamed by the QueryExecutor
+	 * (or on this thread if the request cannot be made asynchronous).
+	 */
+	private void processBulkQuery(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws Exception {
+
+		final String organism = httpServletRequest.getParameter("org");
+		String outputType = httpServletRequest.getParameter("format");
+		Integer retMax = null;
+		try {
+			retMax = new Integer(httpServletRequest.getParameter("retmax"));
+			if (retMax <= 0) retMax = 1;
+		}
+		catch (NumberFormatException e) {
+			retMax = 1;
+		}
+
+		final List<String> queries = new ArrayList<String>();
+		for (String query : httpServletRequest.getParameter("queries").split("[,\\r\\n]+")) {
+			query = query.trim();
+			if (query.length() > 0 && !queries.contains(query)) queries.add(query);
+		}
+
+		outputType = (outputType == null) ? Writer.XML_FORMAT : outputType;
+		if (!outputType.equals(Writer.JSON_FORMAT) && !outputType.equals(Writer.XML_FORMAT) &&
+			!outputType.equals(Writer.NDJSON_FORMAT)) outputType = null;
+		int maxQueries = BioGeneProperties.getInt(EUtils.BULK_MAX_QUERIES_PROPERTY, EUtils.DEFAULT_BULK_MAX_QUERIES);
+
+		if (organism == null || outputType == null || queries.isEmpty() || queries.size() > maxQueries) {
+			ServletOutputStream responseOutputStream = httpServletResponse.getOutputStream();
+			if (organism == null) {
+				outputMissingParameterError(responseOutputStream, "org");
+			}
+			if (outputType == null) {
+				outputError(responseOutputStream, "Unrecognized output type");
+			}
+			if (queries.isEmpty()) {
+				outputMissingParameterError(responseOutputStream, "queries");
+			}
+			if (queries.size() > maxQueries) {
+				outputError(responseOutputStream, "at most " + maxQueries + " queries can be given");
+			}
+			return;
+		}
+
+		final Integer max = retMax;
+		final String type = outputType;
+		QueryExecutor.Query query = new QueryExecutor.Query() {
+				public void process(HttpServletResponse response) throws Exception {
+					EUtils.processBulkRequest(queries, organism, max, type, response);
+					response.getOutputStream().close();
+				}
+			};
+		if (httpServletRequest.isAsyncSupported()) {
+			QueryExecutor.stream(httpServletRequest.startAsync(), query, outputType);
+		}
+		else {
+			query.process(httpServletResponse);
+		}
+	}
+
     private void outputError(ServletOutputStream responseOutputStream, String msg) throws IOException {
         responseOutputStream.print("Error:  " + msg + "\n");
     }
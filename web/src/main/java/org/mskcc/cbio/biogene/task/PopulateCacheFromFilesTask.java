@@ -0,0 +1,457 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.task;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.cache.EhCache;
+import org.mskcc.cbio.biogene.util.cache.GeneIndex;
+
+import com.google.common.base.Joiner;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Task to populate the biogene server cache from locally downloaded ncbi gene files
+ * instead of eutils:
+ *
+ *   gene_info(.gz)       - symbol, locus tag, aliases, chromosome, map location, description, designations, mim
+ *   generifs_basic(.gz)  - gene rifs
+ *   mim2gene(_medgen)    - mim numbers of genes without a MIM cross reference in gene_info
+ *
+ * generifs_basic and mim2gene are read in parallel, then gene_info is streamed and the GeneInfo
+ * records are stored by a pool of threads.  Gene summaries are not part of these files, the summary
+ * of a gene already in the cache is kept.  For every gene, the id cache gets an entry for its
+ * preferred symbol under each name of its organism, as the [pref] search would return.
+ */
+public class PopulateCacheFromFilesTask extends Thread {
+
+	// some statics
+    private static Logger log = Logger.getLogger(PopulateCacheFromFilesTask.class);
+
+	private static final String EMPTY = "-";
+	private static final String FILE_DELIMITER = "\\|";
+	private static final String DELIMITER = ":";
+	private static final GeneInfo END_OF_INPUT = new GeneInfo();
+
+	/**
+	 * Organisms known by name: tax id, taxname, other names.
+	 */
+	private static final String[][] ORGANISMS = {
+		{ "9606", "Homo sapiens", "human" },
+		{ "10090", "Mus musculus", "mouse" },
+		{ "10116", "Rattus norvegicus", "rat" },
+		{ "7955", "Danio rerio", "zebrafish" },
+		{ "7227", "Drosophila melanogaster", "fruit fly" },
+		{ "559292", "Saccharomyces cerevisiae S288C", "yeast" },
+		{ "6239", "Caenorhabditis elegans", "nematode" },
+		{ "3702", "Arabidopsis thaliana", "arabidopsis" }
+	};
+
+	// some members
+	private File geneInfoFile;
+	private File geneRIFsFile;
+	private File mim2GeneFile;
+	private int numberOfThreads;
+	// tax id -> names, the first being the taxname
+	private Map<String, List<String>> organisms = new HashMap<String, List<String>>();
+	// organism name -> preferred symbol -> gene ids
+	private Map<String, Map<String, ArrayList<String>>> symbols = new HashMap<String, Map<String, ArrayList<String>>>();
+
+	private AtomicInteger numberRead = new AtomicInteger();
+	private AtomicInteger numberStored = new AtomicInteger();
+	private AtomicInteger numberFailed = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+	 * Organisms are given by tax id, taxname or one of the names used by the biogene-ios-client
+	 * (human, mouse, rat, zebrafish, fruit fly, yeast, nematode, arabidopsis), or as taxid=taxname.
+	 *
+	 * @param geneInfoFile File
+	 * @param geneRIFsFile File (may be null)
+	 * @param mim2GeneFile File (may be null)
+	 * @param organisms String[]
+	 * @param numberOfThreads int
+     */
+    public PopulateCacheFromFilesTask(File geneInfoFile, File geneRIFsFile, File mim2GeneFile, String[] organisms, int numberOfThreads) {
+
+		this.geneInfoFile = geneInfoFile;
+		this.geneRIFsFile = geneRIFsFile;
+		this.mim2GeneFile = mim2GeneFile;
+		this.numberOfThreads = (numberOfThreads <= 0) ? Runtime.getRuntime().availableProcessors() : numberOfThreads;
+		for (String organism : organisms) {
+			List<String> names = getOrganismNames(organism.trim());
+			if (names == null) {
+				throw new IllegalArgumentException("PopulateCacheFromFilesTask, unknown organism: " + organism +
+												   ", use taxid=taxname");
+			}
+			this.organisms.put(names.get(0), names.subList(1, names.size()));
+		}
+    }
+
+    /**
+     * Runs the Task.
+     */
+    public void run() {
+        try {
+            populateCache();
+        } catch (Exception e) {
+			log.error("PopulateCacheFromFilesTask.run(), error populating cache", e);
+        }
+    }
+
+	/**
+	 * Returns the number of genes stored.
+	 *
+	 * @return int
+	 */
+	public int getNumberStored() {
+		return numberStored.get();
+	}
+
+	/**
+	 * Populates cache from the gene files.
+	 */
+	private void populateCache() throws Exception {
+
+		long start = System.currentTimeMillis();
+		if (log.isInfoEnabled()) {
+			log.info("PopulateCacheFromFilesTask.populateCache(), gene_info: " + geneInfoFile + ", generifs: " + geneRIFsFile +
+					 ", mim2gene: " + mim2GeneFile + ", tax ids: " + organisms.keySet() + ", threads: " + numberOfThreads);
+		}
+
+		// read rifs & mims side by side
+		ExecutorService executor = Executors.newFixedThreadPool(2 + numberOfThreads);
+		try {
+			Future<Map<String, List<GeneRIF>>> geneRIFs = executor.submit(new Callable<Map<String, List<GeneRIF>>>() {
+					public Map<String, List<GeneRIF>> call() throws Exception {
+						return readGeneRIFs();
+					}
+				});
+			Future<Map<String, String>> mims = executor.submit(new Callable<Map<String, String>>() {
+					public Map<String, String> call() throws Exception {
+						return readMims();
+					}
+				});
+
+			// store genes as they are read
+			BlockingQueue<GeneInfo> queue = new ArrayBlockingQueue<GeneInfo>(1000);
+			List<Future<Object>> storers = new ArrayList<Future<Object>>();
+			for (int lc = 0; lc < numberOfThreads; lc++) {
+				storers.add(executor.submit(newStorer(queue)));
+			}
+			try {
+				readGeneInfo(queue, storers, geneRIFs.get(), mims.get());
+			}
+			finally {
+				for (int lc = 0; lc < numberOfThreads; lc++) {
+					put(queue, END_OF_INPUT, storers);
+				}
+			}
+			for (Future<Object> storer : storers) {
+				storer.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		// symbol -> id entries
+		int numberOfSymbols = 0;
+		for (String taxID : organisms.keySet()) {
+			List<String> names = organisms.get(taxID);
+			Map<String, ArrayList<String>> organismSymbols = symbols.get(taxID);
+			if (organismSymbols == null) continue;
+			for (Map.Entry<String, ArrayList<String>> entry : organismSymbols.entrySet()) {
+				for (String name : names) {
+					EhCache.storeIDInCache(entry.getKey(), name, entry.getValue());
+				}
+				numberOfSymbols++;
+			}
+			// every gene of the organism is now in the cache, unless some could not be stored
+			if (numberFailed.get() > 0) continue;
+			for (String name : names) {
+				GeneIndex.markComplete(name, names.get(0));
+			}
+		}
+
+		if (log.isInfoEnabled()) {
+			log.info("PopulateCacheFromFilesTask.populateCache(), complete, genes read: " + numberRead.get() +
+					 ", genes stored: " + numberStored.get() + ", genes failed: " + numberFailed.get() + ", symbols stored: " + numberOfSymbols +
+					 ", seconds: " + (System.currentTimeMillis() - start) / 1000);
+		}
+	}
+
+	/**
+	 * Reads gene_info, handing a GeneInfo per gene of the requested organisms to queue.
+	 */
+	private void readGeneInfo(BlockingQueue<GeneInfo> queue, List<Future<Object>> storers,
+							  Map<String, List<GeneRIF>> geneRIFs, Map<String, String> mims) throws Exception {
+
+		BufferedReader reader = openFile(geneInfoFile);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#")) continue;
+				String[] parts = line.split("\t", -1);
+				if (parts.length < 14) continue;
+				List<String> names = organisms.get(parts[0]);
+				if (names == null) continue;
+
+				GeneInfo geneInfo = new GeneInfo();
+				String geneID = parts[1];
+				geneInfo.setGeneId(geneID);
+				geneInfo.setGeneSymbol(getValue(parts[2]));
+				geneInfo.setGeneTag(getValue(parts[3]));
+				geneInfo.setGeneAliases(getValues(parts[4]));
+				geneInfo.setGeneMim(getMim(parts[5]));
+				if (geneInfo.getGeneMim() == null) geneInfo.setGeneMim(mims.get(geneID));
+				geneInfo.setGeneChromosome(getValue(parts[6]));
+				geneInfo.setGeneLocation(getValue(parts[7]));
+				geneInfo.setGeneDescription(getValue(parts[8]));
+				geneInfo.setGeneDesignations(getValues(parts[13]));
+				geneInfo.setGeneOrganism(names.get(0));
+				List<GeneRIF> rifs = geneRIFs.get(geneID);
+				if (rifs != null) geneInfo.getGeneRif().addAll(rifs);
+
+				// remember preferred symbol
+				if (geneInfo.getGeneSymbol() != null) {
+					Map<String, ArrayList<String>> organismSymbols = symbols.get(parts[0]);
+					if (organismSymbols == null) {
+						organismSymbols = new HashMap<String, ArrayList<String>>();
+						symbols.put(parts[0], organismSymbols);
+					}
+					String symbol = geneInfo.getGeneSymbol().toLowerCase();
+					ArrayList<String> IDs = organismSymbols.get(symbol);
+					if (IDs == null) {
+						IDs = new ArrayList<String>(1);
+						organismSymbols.put(symbol, IDs);
+					}
+					IDs.add(geneID);
+				}
+
+				numberRead.incrementAndGet();
+				put(queue, geneInfo, storers);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Hands the given GeneInfo to the storers, waiting while queue is full.
+	 * Fails (with the error of a storer if there is one) once no storer is left to drain queue.
+	 */
+	private static void put(BlockingQueue<GeneInfo> queue, GeneInfo geneInfo, List<Future<Object>> storers) throws Exception {
+
+		while (!queue.offer(geneInfo, 1, TimeUnit.SECONDS)) {
+			boolean running = false;
+			for (Future<Object> storer : storers) {
+				if (!storer.isDone()) running = true;
+			}
+			if (running) continue;
+			for (Future<Object> storer : storers) {
+				storer.get();
+			}
+			throw new IllegalStateException("PopulateCacheFromFilesTask, no storer left");
+		}
+	}
+
+	/**
+	 * Returns a task which stores the GeneInfo objects found in queue until END_OF_INPUT.
+	 * Genes which cannot be stored are logged and counted, the task keeps draining queue.
+	 */
+	private Callable<Object> newStorer(final BlockingQueue<GeneInfo> queue) {
+
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				while (true) {
+					GeneInfo geneInfo = queue.take();
+					if (geneInfo == END_OF_INPUT) return null;
+					try {
+						// keep the summary of what is already cached, it is not in the files
+						GeneInfo cached = EhCache.checkInfoCache(geneInfo.getGeneId());
+						if (cached != null) geneInfo.setGeneSummary(cached.getGeneSummary());
+						EhCache.storeInfoInCache(geneInfo);
+					}
+					catch (Exception e) {
+						log.error("PopulateCacheFromFilesTask.populateCache(), cannot store gene: " + geneInfo.getGeneId(), e);
+						numberFailed.incrementAndGet();
+						continue;
+					}
+					int stored = numberStored.incrementAndGet();
+					if (stored % 10000 == 0 && log.isInfoEnabled()) {
+						log.info("PopulateCacheFromFilesTask.populateCache(), genes stored: " + stored);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads generifs_basic: tax id, gene id, pubmed ids, timestamp, rif.
+	 */
+	private Map<String, List<GeneRIF>> readGeneRIFs() throws Exception {
+
+		Map<String, List<GeneRIF>> toReturn = new HashMap<String, List<GeneRIF>>();
+		if (geneRIFsFile == null) return toReturn;
+		int numberRead = 0;
+		BufferedReader reader = openFile(geneRIFsFile);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#")) continue;
+				String[] parts = line.split("\t", -1);
+				if (parts.length < 5 || !organisms.containsKey(parts[0])) continue;
+				String rif = parts[4].trim();
+				int comma = parts[2].indexOf(',');
+				String pmid = (comma >= 0) ? parts[2].substring(0, comma) : parts[2];
+				GeneRIF geneRIF = new GeneRIF();
+				try {
+					geneRIF.setPubmedId(Integer.parseInt(pmid.trim()));
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+				if (rif.length() == 0 || geneRIF.getPubmedId() <= 0) continue;
+				geneRIF.setRif(rif);
+				List<GeneRIF> geneRIFs = toReturn.get(parts[1]);
+				if (geneRIFs == null) {
+					geneRIFs = new ArrayList<GeneRIF>();
+					toReturn.put(parts[1], geneRIFs);
+				}
+				geneRIFs.add(geneRIF);
+				numberRead++;
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if (log.isInfoEnabled()) {
+			log.info("PopulateCacheFromFilesTask.readGeneRIFs(), rifs read: " + numberRead);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Reads mim2gene: mim number, gene id, type (only "gene" entries are used).
+	 */
+	private Map<String, String> readMims() throws Exception {
+
+		Map<String, String> toReturn = new HashMap<String, String>();
+		if (mim2GeneFile == null) return toReturn;
+		BufferedReader reader = openFile(mim2GeneFile);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#")) continue;
+				String[] parts = line.split("\t", -1);
+				if (parts.length < 3 || !parts[2].trim().equals("gene") || parts[1].equals(EMPTY)) continue;
+				if (!toReturn.containsKey(parts[1])) toReturn.put(parts[1], parts[0].trim());
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns tax id, taxname and other names of the given organism, null if it is unknown.
+	 */
+	private static List<String> getOrganismNames(String organism) {
+
+		List<String> toReturn = new ArrayList<String>();
+		int equals = organism.indexOf('=');
+		if (equals > 0) {
+			toReturn.add(organism.substring(0, equals).trim());
+			toReturn.add(organism.substring(equals + 1).trim());
+			return toReturn;
+		}
+		for (String[] knownOrganism : ORGANISMS) {
+			for (String name : knownOrganism) {
+				if (name.equalsIgnoreCase(organism)) {
+					Collections.addAll(toReturn, knownOrganism);
+					return toReturn;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static BufferedReader openFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		if (file.getName().endsWith(".gz")) in = new GZIPInputStream(in, 64 * 1024);
+		return new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+	}
+
+	private static String getValue(String value) {
+		value = value.trim();
+		return (value.length() == 0 || value.equals(EMPTY)) ? null : value;
+	}
+
+	private static String getValues(String values) {
+		String value = getValue(values);
+		return (value == null) ? null : Joiner.on(DELIMITER).join(value.split(FILE_DELIMITER));
+	}
+
+	private static String getMim(String dbXrefs) {
+		for (String dbXref : dbXrefs.split(FILE_DELIMITER)) {
+			if (dbXref.startsWith("MIM:")) return dbXref.substring(4);
+		}
+		return null;
+	}
+}
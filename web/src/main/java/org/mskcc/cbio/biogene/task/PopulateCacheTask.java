@@ -37,12 +37,36 @@ import org.apache.log4j.Logger;
 import org.mskcc.cbio.biogene.schema.*;
 import org.mskcc.cbio.biogene.eutils.*;
 import org.mskcc.cbio.biogene.util.cache.EhCache;
+import org.mskcc.cbio.biogene.util.cache.GeneIndex;
 
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.Properties;
 import java.util.ArrayList;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Task to populate the biogene server cache.
  *
+ * The work is done by a pipeline of stages connected by bounded queues, so that searching,
+ * fetching, parsing and storing overlap: this thread pages through the organism's ids with esearch,
+ * fetcher threads retrieve efetch xml a batch at a time (as many fetchers as the eutils rate limit
+ * allows requests per second, unless populate.fetch.threads is set), parser threads turn the xml into
+ * GeneInfo objects, and a writer thread stores them in the cache several batches at a time.
+ * A full queue holds up the stage feeding it.
+ *
+ * Tasks are started through PopulateJobs, which checkpoints their progress so that a task
+ * stopped early can be resumed where it left off.
+ *
  * @author Benjamin Gross
  */
 public class PopulateCacheTask extends Thread {
@@ -53,6 +77,15 @@ public class PopulateCacheTask extends Thread {
 	public static int DEFAULT_TOTAL_NUMBER_TO_FETCH = -1;
 	public static int DEFAULT_NUMBER_TO_FETCH_PER_REQUEST = 50;
 
+	public static final String FETCH_THREADS_PROPERTY = "populate.fetch.threads";
+	public static final String PARSE_THREADS_PROPERTY = "populate.parse.threads";
+	public static final String QUEUE_SIZE_PROPERTY = "populate.queue.size";
+	public static int DEFAULT_PARSE_THREADS = 2;
+	public static int DEFAULT_QUEUE_SIZE = 4;
+
+	private static int MAX_STORE_BATCHES = 16;
+	private static Batch END_OF_INPUT = new Batch(null);
+
 	private static int NUMBER_OF_RETRIES = 3;
 	private static int RETRY_DELAY = 1000 * 60 * 5; // five minutes
     private static Logger log = Logger.getLogger(PopulateCacheTask.class);
@@ -64,6 +97,41 @@ public class PopulateCacheTask extends Thread {
     private int totalNumberToFetch;
     private int eUtilDelay;
 
+	// as requested, for checkpoints
+	private int requestedNumberToFetchPerRequest;
+	private int requestedTotalNumberToFetch;
+	private int requestedEUtilDelay;
+	private boolean fetchingAll;
+	private long started = System.currentTimeMillis();
+
+	// number of ids from retStart on stored in the cache without gaps, time of last store
+	private volatile int storedThrough;
+	private volatile long lastSuccess;
+
+	// pipeline
+	private BlockingQueue<Batch> fetchQueue;
+	private BlockingQueue<Batch> parseQueue;
+	private BlockingQueue<Batch> storeQueue;
+	private AtomicBoolean missedGenes = new AtomicBoolean();
+	private volatile String taxName;
+
+	// per stage counters: items & time spent working (ns)
+	private AtomicLong pagesSearched = new AtomicLong(), searchTime = new AtomicLong();
+	private AtomicLong batchesFetched = new AtomicLong(), bytesFetched = new AtomicLong(), fetchTime = new AtomicLong();
+	private AtomicLong genesParsed = new AtomicLong(), parseTime = new AtomicLong();
+	private AtomicLong genesStored = new AtomicLong(), storeTime = new AtomicLong();
+
+	/**
+	 * Ids fetched in one efetch request, then their xml, then their GeneInfo objects.
+	 */
+	private static class Batch {
+		List<String> IDs;
+		String content;
+		List<GeneInfo> geneInfos;
+		int offset;
+		Batch(List<String> IDs) { this.IDs = IDs; }
+	}
+
     /**
      * Constructor.
      *
@@ -89,23 +157,93 @@ public class PopulateCacheTask extends Thread {
         this.numberToFetchPerRequest = (numberToFetchPerRequest <= 0) ? DEFAULT_NUMBER_TO_FETCH_PER_REQUEST : numberToFetchPerRequest;
         this.totalNumberToFetch = (totalNumberToFetch == 0) ? DEFAULT_TOTAL_NUMBER_TO_FETCH : totalNumberToFetch;
         this.eUtilDelay = (eUtilDelay <= 0) ? DEFAULT_EUTIL_DELAY : eUtilDelay;
+		this.requestedNumberToFetchPerRequest = this.numberToFetchPerRequest;
+		this.requestedTotalNumberToFetch = this.totalNumberToFetch;
+		this.requestedEUtilDelay = this.eUtilDelay;
+		// a complete fetch of the organism lets the gene index answer its searches
+		this.fetchingAll = (this.retStart == 0 && this.totalNumberToFetch < 0);
     }
 
+	/**
+	 * Constructor, resumes the task a checkpoint was written for (see getCheckpoint()).
+	 *
+	 * @param checkpoint Properties
+	 */
+	PopulateCacheTask(Properties checkpoint) {
+		this(checkpoint.getProperty("organism"),
+			 Integer.parseInt(checkpoint.getProperty("retstart")),
+			 Integer.parseInt(checkpoint.getProperty("fetch")),
+			 Integer.parseInt(checkpoint.getProperty("total")),
+			 Integer.parseInt(checkpoint.getProperty("delay")));
+		this.fetchingAll = Boolean.parseBoolean(checkpoint.getProperty("fetching.all"));
+		this.lastSuccess = Long.parseLong(checkpoint.getProperty("last.success", "0"));
+		this.started = Long.parseLong(checkpoint.getProperty("started", Long.toString(started)));
+	}
+
+	/**
+	 * Returns the organism being fetched.
+	 *
+	 * @return String
+	 */
+	public String getOrganism() {
+		return organism;
+	}
+
+	/**
+	 * Returns the parameters that resume this task from the first id not yet stored.
+	 *
+	 * @return Properties
+	 */
+	Properties getCheckpoint() {
+
+		int stored = storedThrough;
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("organism", organism);
+		checkpoint.setProperty("retstart", Integer.toString(retStart + stored));
+		checkpoint.setProperty("fetch", Integer.toString(requestedNumberToFetchPerRequest));
+		checkpoint.setProperty("total", Integer.toString((requestedTotalNumberToFetch < 0) ?
+														 requestedTotalNumberToFetch : Math.max(1, requestedTotalNumberToFetch - stored)));
+		checkpoint.setProperty("delay", Integer.toString(requestedEUtilDelay));
+		checkpoint.setProperty("fetching.all", Boolean.toString(fetchingAll && !missedGenes.get()));
+		checkpoint.setProperty("last.success", Long.toString(lastSuccess));
+		checkpoint.setProperty("started", Long.toString(started));
+		return checkpoint;
+	}
+
     /**
      * Runs the Task.
      */
     public void run() {
+		boolean completed = false;
         try {
-            populateCache();
+			// cache population yields to interactive requests
+			RateLimiter.setPriority(RateLimiter.PRIORITY.BACKGROUND);
+            completed = populateCache();
         } catch (Exception e) {
-            return;
-        }
+			log.error("PopulateCacheTask.run(), organism: " + organism + ", stopped at retstart: " + (retStart + storedThrough), e);
+        } finally {
+			PopulateJobs.finished(this, completed);
+		}
     }
 
+	/**
+	 * Returns the throughput of each stage of the pipeline.
+	 *
+	 * @return String
+	 */
+	public String getStatistics() {
+		return ("search: " + pagesSearched.get() + " pages" + getRate(pagesSearched, searchTime) +
+				"; fetch: " + batchesFetched.get() + " batches, " + bytesFetched.get() + " bytes" + getRate(batchesFetched, fetchTime) +
+				"; parse: " + genesParsed.get() + " genes" + getRate(genesParsed, parseTime) +
+				"; store: " + genesStored.get() + " genes" + getRate(genesStored, storeTime));
+	}
+
 	/**
 	 * Populates cache with entrez gene data for given organism.
+	 *
+	 * @return boolean false if the task gave up before fetching everything requested
 	 */
-	private void populateCache() throws Exception {
+	private boolean populateCache() throws Exception {
 
         long startTimeOfFetch = 0;
 		int eUtilDelayOrig = eUtilDelay;
@@ -116,6 +254,8 @@ public class PopulateCacheTask extends Thread {
 					 "; numberToFetchPerRequest: " + numberToFetchPerRequest + "; totalNumberToFetch: " + totalNumberToFetch);
 		}
 
+		boolean aborted = false;
+
 		// sanity checks
 		if (totalNumberToFetch >= 0 && totalNumberToFetch < numberToFetchPerRequest) {
 			numberToFetchPerRequest = totalNumberToFetch;
@@ -123,114 +263,292 @@ public class PopulateCacheTask extends Thread {
 
 		int numberProcessed = 0;
 		int numberOfRetries = 0;
-		do {
-			if (log.isInfoEnabled()) {
-				log.info("PopulateCacheTask.populateCache(), total to fetch: " + totalNumberToFetch);
-			}
 
-            // if necessary, delay before fetch
-            if (eUtilDelay > 0) {
-                boolean loggedMesg = false;
-                while (System.currentTimeMillis() - startTimeOfFetch < eUtilDelay) {
-                    if (!loggedMesg) {
+		// start the pipeline
+		int fetchThreads = BioGeneProperties.getInt(FETCH_THREADS_PROPERTY, Retriever.getRateLimiter().getPermitsPerSecond());
+		int parseThreads = BioGeneProperties.getInt(PARSE_THREADS_PROPERTY, DEFAULT_PARSE_THREADS);
+		int queueSize = BioGeneProperties.getInt(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+		if (fetchThreads <= 0) fetchThreads = 1;
+		if (parseThreads <= 0) parseThreads = DEFAULT_PARSE_THREADS;
+		if (queueSize <= 0) queueSize = DEFAULT_QUEUE_SIZE;
+		fetchQueue = new ArrayBlockingQueue<Batch>(queueSize);
+		parseQueue = new ArrayBlockingQueue<Batch>(queueSize);
+		storeQueue = new ArrayBlockingQueue<Batch>(queueSize);
+		ExecutorService executor = Executors.newFixedThreadPool(fetchThreads + parseThreads + 1);
+		List<Future<?>> fetchers = new ArrayList<Future<?>>();
+		List<Future<?>> parsers = new ArrayList<Future<?>>();
+		for (int lc = 0; lc < fetchThreads; lc++) fetchers.add(executor.submit(new Fetcher()));
+		for (int lc = 0; lc < parseThreads; lc++) parsers.add(executor.submit(new Parser()));
+		Future<?> writer = executor.submit(new Writer());
+		if (log.isInfoEnabled()) {
+			log.info("PopulateCacheTask.populateCache(), fetch threads: " + fetchThreads + ", parse threads: " + parseThreads + ", queue size: " + queueSize);
+		}
+		try {
+			// until a search succeeds the total is unknown, failed searches are retried regardless
+			do {
+				if (log.isInfoEnabled()) {
+					log.info("PopulateCacheTask.populateCache(), total to fetch: " + totalNumberToFetch);
+				}
+
+	            // if necessary, delay before fetch
+	            if (eUtilDelay > 0) {
+					long remaining = eUtilDelay - (System.currentTimeMillis() - startTimeOfFetch);
+					if (remaining > 0) {
 						if (log.isInfoEnabled()) {
-							log.info("PopulateCacheTask.populateCache(), sleeping...");
+							log.info("PopulateCacheTask.populateCache(), sleeping " + remaining + " ms...");
 						}
-                        loggedMesg = true;
-                    }
-                    sleep(100);
-                }
-                if (loggedMesg == true) {
-					if (log.isInfoEnabled()) {
-						log.info("PopulateCacheTask.populateCache(), waking up...");
+						sleep(remaining);
 					}
-                }
-            }
-
-            // set start time of fetch
-            if (eUtilDelay > 0) {
-                startTimeOfFetch = System.currentTimeMillis();
-            }
-
-			// get ids
-			ArrayList<String> IDs = new ArrayList<String>();
-			if (log.isInfoEnabled()) {
-				log.info("PopulateCacheTask.populateCache(), call grabbing " + numberToFetchPerRequest  + " IDs, starting at " + retStart + numberProcessed);
-			}
-			Integer[] idCount = new Integer[1];
-			EUtils.RETURN_CODES code = ESearch.search(organism, retStart + numberProcessed, numberToFetchPerRequest, IDs, idCount);
-			if (code != EUtils.RETURN_CODES.SUCCESS) {
+	            }
+
+	            // set start time of fetch
+	            if (eUtilDelay > 0) {
+	                startTimeOfFetch = System.currentTimeMillis();
+	            }
+
+				// get ids
 				if (log.isInfoEnabled()) {
-					log.info("PopulateCacheTask.populateCache(), error executing ESearch.search(), return code: " + code.toString());
+					log.info("PopulateCacheTask.populateCache(), call grabbing " + numberToFetchPerRequest  + " IDs, starting at " + retStart + numberProcessed);
 				}
-				if (++numberOfRetries <= NUMBER_OF_RETRIES) {
+				long searchStart = System.nanoTime();
+				SearchResult result = ESearch.search(organism, retStart + numberProcessed, numberToFetchPerRequest);
+				searchTime.addAndGet(System.nanoTime() - searchStart);
+				if (!result.isSuccess()) {
+					if (log.isInfoEnabled()) {
+						log.info("PopulateCacheTask.populateCache(), error executing ESearch.search(), return code: " + result.getCode().toString());
+					}
+					if (++numberOfRetries <= NUMBER_OF_RETRIES) {
+						if (log.isInfoEnabled()) {
+							log.info("PopulateCacheTask.populateCache(), retrying fetch in five minutes (numberOfRetries: " + numberOfRetries + ")");
+						}
+						// lets jack up delay to 5 minutes
+						startTimeOfFetch = System.currentTimeMillis();
+						eUtilDelay = RETRY_DELAY;
+						continue;
+					}
 					if (log.isInfoEnabled()) {
-						log.info("PopulateCacheTask.populateCache(), retrying fetch in five minutes (numberOfRetries: " + numberOfRetries + ")");
+						log.info("PopulateCacheTask.populateCache(), no more retries available, exiting task, total number processed: " + numberProcessed);
 					}
-					// lets jack up delay to 5 minutes
-					startTimeOfFetch = System.currentTimeMillis();
-					eUtilDelay = RETRY_DELAY;
-					continue;
+					aborted = true;
+					break;
 				}
-				if (log.isInfoEnabled()) {
-					log.info("PopulateCacheTask.populateCache(), no more retries available, exiting task, total number processed: " + numberProcessed);
+
+				// made it here, reset number of retries & eUtilDelay
+				ArrayList<String> IDs = result.getIDs();
+				pagesSearched.incrementAndGet();
+				numberOfRetries = 0;
+				eUtilDelay = eUtilDelayOrig;
+
+	            // check that desired number of ids to fetch
+	            // is <= number of ids available to retreive based on query (organism)
+	            if (!checkedTotalNumberToFetch) {
+	                if (totalNumberToFetch < 0) {
+	                    totalNumberToFetch = result.getTotalCount();
+	                }
+	                else if (result.getTotalCount() < totalNumberToFetch) {
+						if (log.isInfoEnabled()) {
+							log.info("PopulateCacheTask.populateCache(), number ids available: " + result.getTotalCount() +
+									 " is less than number id's requested: " + totalNumberToFetch + " .  Adjusting number requested.");
+						}
+	                    totalNumberToFetch = result.getTotalCount();
+	                }
+	                checkedTotalNumberToFetch = true;
+	            }
+
+	            // break if no ids to process
+				if (IDs.size() == 0) {
+					if (log.isInfoEnabled()) {
+						log.info("PopulateCacheTask.populateCache(), IDs.size() == 0, exiting task");
+					}
+					break;
 				}
-				return;
-			}
 
-			// made it here, reset number of retries & eUtilDelay
-			numberOfRetries = 0;
-			eUtilDelay = eUtilDelayOrig;
+				// hand ids to the fetchers, a batch at a time (waits while the fetchers are behind)
+				int batchSize = EFetch.getBatchSize();
+				for (int lc = 0; lc < IDs.size(); lc += batchSize) {
+					Batch batch = new Batch(new ArrayList<String>(IDs.subList(lc, Math.min(lc + batchSize, IDs.size()))));
+					batch.offset = numberProcessed + lc;
+					fetchQueue.put(batch);
+				}
 
-            // break if no ids to process
-			if (IDs.size() == 0) {
+				// update number processed
+				numberProcessed += IDs.size();
 				if (log.isInfoEnabled()) {
-					log.info("PopulateCacheTask.populateCache(), IDs.size() == 0, exiting task");
+					log.info("PopulateCacheTask.populateCache(), number processed: " + numberProcessed);
+				}
+
+				// reduce number of records to fetch per request if the # left to fetch < numberToFetchPerRequest
+				if ((totalNumberToFetch - numberProcessed) < numberToFetchPerRequest) {
+					numberToFetchPerRequest = totalNumberToFetch - numberProcessed;
 				}
-				return;
+
+			} while (!checkedTotalNumberToFetch || numberProcessed < totalNumberToFetch);
+		}
+		finally {
+			// drain the pipeline, one stage after the other
+			try {
+				finish(fetchQueue, fetchers);
+				finish(parseQueue, parsers);
+				List<Future<?>> writers = new ArrayList<Future<?>>();
+				writers.add(writer);
+				finish(storeQueue, writers);
+			}
+			finally {
+				executor.shutdownNow();
 			}
+		}
+
+		if (log.isInfoEnabled()) {
+			log.info("PopulateCacheTask.populateCache(), complete, total to fetch: "  + totalNumberToFetch + ", total number processed: " + numberProcessed);
+			log.info("PopulateCacheTask.populateCache(), " + getStatistics());
+		}
+		// not complete if the total was never known (no search succeeded)
+		if (!checkedTotalNumberToFetch) aborted = true;
+		if (fetchingAll && !aborted && !missedGenes.get() && taxName != null) {
+			GeneIndex.markComplete(organism, taxName);
+			// genes modified since the population started are picked up by the next refresh
+			RefreshCacheTask.setLastRefresh(organism, started);
+		}
+		return !aborted;
+	}
 
-			// use ids to fetch rifs
-            GeneInfoList geneInfoList = EFetch.fetch(IDs);
+	/**
+	 * Tells the workers of a stage there is no more input and waits for them to finish.
+	 *
+	 * @param queue BlockingQueue<Batch>
+	 * @param workers List<Future<?>>
+	 */
+	private void finish(BlockingQueue<Batch> queue, List<Future<?>> workers) throws Exception {
+		for (int lc = 0; lc < workers.size(); lc++) {
+			queue.put(END_OF_INPUT);
+		}
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+	}
 
-			// store in cache
-			if (geneInfoList.getReturnCode().equals(EUtils.RETURN_CODES.SUCCESS.toString())) {
-				for (GeneInfo geneInfo : geneInfoList.getGeneInfo()) {
-					EhCache.storeInfoInCache(geneInfo);
+	/**
+	 * Fetches efetch xml for batches of ids.
+	 */
+	private class Fetcher implements Runnable {
+		public void run() {
+			RateLimiter.setPriority(RateLimiter.PRIORITY.BACKGROUND);
+			try {
+				Batch batch;
+				while ((batch = fetchQueue.take()) != END_OF_INPUT) {
+					long start = System.nanoTime();
+					batch.content = EFetch.fetchXML(batch.IDs);
+					fetchTime.addAndGet(System.nanoTime() - start);
+					batchesFetched.incrementAndGet();
+					if (batch.content != null) bytesFetched.addAndGet(batch.content.length());
+					parseQueue.put(batch);
 				}
 			}
+			catch (InterruptedException e) {
+				missedGenes.set(true);
+			}
+		}
+	}
 
-            // check that desired number of ids to fetch
-            // is <= number of ids available to retreive based on query (organism)
-            if (!checkedTotalNumberToFetch) {
-                if (totalNumberToFetch < 0) {
-                    totalNumberToFetch = idCount[0];
-                }
-                else if (idCount[0] < totalNumberToFetch) {
-					if (log.isInfoEnabled()) {
-						log.info("PopulateCacheTask.populateCache(), number ids available: " + idCount[0] +
-								 " is less than number id's requested: " + totalNumberToFetch + " .  Adjusting number requested.");
+	/**
+	 * Turns efetch xml into GeneInfo objects, fetching ids missing from the xml on their own.
+	 */
+	private class Parser implements Runnable {
+		public void run() {
+			RateLimiter.setPriority(RateLimiter.PRIORITY.BACKGROUND);
+			try {
+				Batch batch;
+				while ((batch = parseQueue.take()) != END_OF_INPUT) {
+					long start = System.nanoTime();
+					List<String> failedIDs = new ArrayList<String>();
+					try {
+						batch.geneInfos = EFetch.parseBatch(batch.IDs, batch.content, failedIDs);
 					}
-                    totalNumberToFetch = idCount[0];
-                }
-                checkedTotalNumberToFetch = true;
-            }
-
-			// update number processed
-			numberProcessed += IDs.size();
-			if (log.isInfoEnabled()) {
-				log.info("PopulateCacheTask.populateCache(), number processed: " + numberProcessed);
+					catch (Exception e) {
+						log.error("PopulateCacheTask.Parser, cannot parse batch starting with id: " + batch.IDs.get(0), e);
+						batch.geneInfos = new ArrayList<GeneInfo>();
+					}
+					batch.content = null;
+					parseTime.addAndGet(System.nanoTime() - start);
+					genesParsed.addAndGet(batch.geneInfos.size());
+					if (!failedIDs.isEmpty() || batch.geneInfos.size() < batch.IDs.size()) {
+						missedGenes.set(true);
+					}
+					storeQueue.put(batch);
+				}
 			}
-
-			// reduce number of records to fetch per request if the # left to fetch < numberToFetchPerRequest
-			if ((totalNumberToFetch - numberProcessed) < numberToFetchPerRequest) {
-				numberToFetchPerRequest = totalNumberToFetch - numberProcessed;
+			catch (InterruptedException e) {
+				missedGenes.set(true);
 			}
+		}
+	}
 
-		} while (numberProcessed < totalNumberToFetch);
+	/**
+	 * Stores GeneInfo objects, combining the batches waiting to be stored into one cache call.
+	 */
+	private class Writer implements Runnable {
+		public void run() {
+			try {
+				boolean done = false;
+				List<Batch> batches = new ArrayList<Batch>();
+				// stored ranges past storedThrough: offset -> end
+				TreeMap<Integer, Integer> storedRanges = new TreeMap<Integer, Integer>();
+				long lastCheckpoint = System.currentTimeMillis();
+				long checkpointInterval = PopulateJobs.getCheckpointInterval();
+				while (!done) {
+					batches.clear();
+					batches.add(storeQueue.take());
+					storeQueue.drainTo(batches, MAX_STORE_BATCHES - 1);
+					List<GeneInfo> geneInfos = new ArrayList<GeneInfo>();
+					for (Batch batch : batches) {
+						if (batch == END_OF_INPUT) done = true;
+						else geneInfos.addAll(batch.geneInfos);
+					}
+					boolean stored = true;
+					if (!geneInfos.isEmpty()) {
+						long start = System.nanoTime();
+						try {
+							EhCache.storeInfoInCache(geneInfos);
+							genesStored.addAndGet(geneInfos.size());
+							lastSuccess = System.currentTimeMillis();
+						}
+						catch (Exception e) {
+							// keep draining the queue, the parsers would otherwise wait forever
+							log.error("PopulateCacheTask.Writer, cannot store " + geneInfos.size() + " genes", e);
+							missedGenes.set(true);
+							stored = false;
+						}
+						storeTime.addAndGet(System.nanoTime() - start);
+						if (taxName == null) taxName = geneInfos.get(0).getGeneOrganism();
+					}
 
-		if (log.isInfoEnabled()) {
-			log.info("PopulateCacheTask.populateCache(), complete, total to fetch: "  + totalNumberToFetch + ", total number processed: " + numberProcessed);
+					// batches are stored out of order, checkpoints only move past ids stored without gaps
+					if (!stored) continue;
+					for (Batch batch : batches) {
+						if (batch != END_OF_INPUT) storedRanges.put(batch.offset, batch.offset + batch.IDs.size());
+					}
+					int through = storedThrough;
+					while (storedRanges.containsKey(through)) {
+						through = storedRanges.remove(through);
+					}
+					storedThrough = through;
+					if (System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+						PopulateJobs.checkpoint(PopulateCacheTask.this, true);
+						lastCheckpoint = System.currentTimeMillis();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				missedGenes.set(true);
+			}
 		}
 	}
+
+	/**
+	 * Returns ", N/s" for the given counter and working time.
+	 */
+	private static String getRate(AtomicLong count, AtomicLong time) {
+		long nanos = time.get();
+		return (nanos == 0) ? "" : String.format(", %.1f/s", count.get() * 1e9 / nanos);
+	}
 }
@@ -0,0 +1,270 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.task;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+import org.mskcc.cbio.biogene.util.cache.EhCache;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Registry of running cache population jobs and their checkpoints.
+ *
+ * A job runs at most once per organism.  While it runs, a job periodically writes a checkpoint
+ * (organism, offset of the first id not yet stored, remaining total, delay and time of the last
+ * successful store) to ${cache.path}/jobs, after flushing the gene info cache so that everything
+ * before the offset is on disk.  The checkpoint is removed when the job completes; jobs that stop
+ * early (retries exhausted, errors, shutdown or a crash) are resumed from their checkpoint
+ * when the web service starts, or on request.
+ */
+public class PopulateJobs {
+
+	// some statics
+    private static Logger log = Logger.getLogger(PopulateJobs.class);
+
+	public static final String CHECKPOINT_INTERVAL_PROPERTY = "populate.checkpoint.interval";
+	public static int DEFAULT_CHECKPOINT_INTERVAL = 60; // seconds
+
+	private static final String JOBS_DIRECTORY = "jobs";
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final long SHUTDOWN_WAIT = 30 * 1000;
+
+	private static Map<String, PopulateCacheTask> running = new ConcurrentHashMap<String, PopulateCacheTask>();
+
+	/**
+	 * Starts the given job unless a job for the same organism is running.
+	 *
+	 * @param task PopulateCacheTask
+	 * @return boolean
+	 */
+	public static synchronized boolean start(PopulateCacheTask task) {
+
+		String key = getKey(task.getOrganism());
+		PopulateCacheTask current = running.get(key);
+		if (current != null && current.isAlive()) {
+			if (log.isInfoEnabled()) {
+				log.info("PopulateJobs.start(), a job for organism: " + task.getOrganism() + " is already running");
+			}
+			return false;
+		}
+		running.put(key, task);
+		checkpoint(task, false);
+		task.start();
+		return true;
+	}
+
+	/**
+	 * Resumes every checkpointed job that is not running.
+	 *
+	 * @return int number of jobs resumed
+	 */
+	public static int resume() {
+
+		File[] files = getJobsDirectory().listFiles();
+		if (files == null) return 0;
+
+		int resumed = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(CHECKPOINT_SUFFIX)) continue;
+			Properties checkpoint = new Properties();
+			try {
+				FileInputStream in = new FileInputStream(file);
+				try {
+					checkpoint.load(in);
+				}
+				finally {
+					in.close();
+				}
+				PopulateCacheTask task = new PopulateCacheTask(checkpoint);
+				if (log.isInfoEnabled()) {
+					log.info("PopulateJobs.resume(), resuming organism: " + task.getOrganism() + ", " + checkpoint);
+				}
+				if (start(task)) resumed++;
+			}
+			catch (Exception e) {
+				log.error("PopulateJobs.resume(), cannot resume job from: " + file, e);
+			}
+		}
+		return resumed;
+	}
+
+	/**
+	 * Stops running jobs, leaving checkpoints to resume them from.
+	 */
+	public static void shutdown() {
+
+		for (PopulateCacheTask task : running.values()) {
+			task.interrupt();
+		}
+		long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT;
+		for (PopulateCacheTask task : running.values()) {
+			try {
+				task.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the running and checkpointed jobs.
+	 *
+	 * @return String
+	 */
+	public static String getStatus() {
+
+		StringBuilder status = new StringBuilder();
+		for (PopulateCacheTask task : running.values()) {
+			if (task.isAlive()) {
+				status.append("running: ").append(task.getOrganism()).append(", ").append(task.getStatistics()).append("\n");
+			}
+		}
+		File[] files = getJobsDirectory().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.getName().endsWith(CHECKPOINT_SUFFIX)) continue;
+				Properties checkpoint = new Properties();
+				try {
+					FileInputStream in = new FileInputStream(file);
+					try {
+						checkpoint.load(in);
+					}
+					finally {
+						in.close();
+					}
+					status.append("checkpoint: ").append(checkpoint).append("\n");
+				}
+				catch (IOException e) {
+					status.append("checkpoint: ").append(file.getName()).append(", ").append(e.getMessage()).append("\n");
+				}
+			}
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Returns the interval at which running jobs write checkpoints.
+	 *
+	 * @return long milliseconds
+	 */
+	static long getCheckpointInterval() {
+		return BioGeneProperties.getInt(CHECKPOINT_INTERVAL_PROPERTY, DEFAULT_CHECKPOINT_INTERVAL) * 1000L;
+	}
+
+	/**
+	 * Writes the checkpoint of the given job.
+	 *
+	 * @param task PopulateCacheTask
+	 * @param flush boolean flush the gene info cache to disk first
+	 */
+	static void checkpoint(PopulateCacheTask task, boolean flush) {
+
+		File file = getCheckpointFile(task.getOrganism());
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			if (flush) EhCache.flushInfoCache();
+			file.getParentFile().mkdirs();
+			FileOutputStream out = new FileOutputStream(tmpFile);
+			try {
+				task.getCheckpoint().store(out, "biogene cache population job");
+				out.getFD().sync();
+			}
+			finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(file)) {
+				file.delete();
+				if (!tmpFile.renameTo(file)) {
+					throw new IOException("cannot rename " + tmpFile + " to " + file);
+				}
+			}
+		}
+		catch (Exception e) {
+			log.error("PopulateJobs.checkpoint(), cannot write checkpoint for organism: " + task.getOrganism(), e);
+		}
+	}
+
+	/**
+	 * Called by a job when it stops.  The checkpoint of a completed job is removed,
+	 * otherwise it is brought up to date.
+	 *
+	 * @param task PopulateCacheTask
+	 * @param completed boolean
+	 */
+	static void finished(PopulateCacheTask task, boolean completed) {
+
+		if (completed) {
+			getCheckpointFile(task.getOrganism()).delete();
+		}
+		else {
+			checkpoint(task, true);
+			if (log.isInfoEnabled()) {
+				log.info("PopulateJobs.finished(), organism: " + task.getOrganism() + " stopped, checkpoint: " + task.getCheckpoint());
+			}
+		}
+		synchronized (PopulateJobs.class) {
+			if (running.get(getKey(task.getOrganism())) == task) {
+				running.remove(getKey(task.getOrganism()));
+			}
+		}
+	}
+
+	private static String getKey(String organism) {
+		return organism.trim().toLowerCase();
+	}
+
+	static File getJobsDirectory() {
+		return new File(BioGeneProperties.getString("cache.path", System.getProperty("java.io.tmpdir")), JOBS_DIRECTORY);
+	}
+
+	private static File getCheckpointFile(String organism) {
+		try {
+			return new File(getJobsDirectory(), URLEncoder.encode(getKey(organism), "UTF-8") + CHECKPOINT_SUFFIX);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -33,15 +33,14 @@ package org.mskcc.cbio.biogene.task;
 
 // imports
 import org.mskcc.cbio.biogene.util.cache.EhCache;
+import org.mskcc.cbio.biogene.util.cache.UniProtMappingStore;
 import org.apache.log4j.Logger;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
 import java.util.Properties;
-import java.util.ArrayList;
 import java.io.File;
 
 /**
- * Task to populate the biogene server cache.
+ * Task to (re)build the uniprot mapping store from the entrez id / uniprot accession tsv.
  *
  * @author Benjamin Gross
  */
@@ -70,20 +69,15 @@ public class PopulateUniProtMappingCacheTask extends Thread {
 			log.info("PopulateUniProtMappingCacheTask()...");
 		}
 
-		LineIterator it = null;
         try {
-			it = FileUtils.lineIterator(uniProtMappingFile);
-			while (it.hasNext()) {
-				String[] parts = it.nextLine().split("\t");
-				EhCache.storeUniProtMappingInCache(parts[0], parts[1]);
-			}
+			UniProtMappingStore.build(uniProtMappingFile);
+			// genes held by the near cache carry the previous mappings
+			EhCache.clearNearCaches();
         }
 		catch (Exception e) {
+			log.error("PopulateUniProtMappingCacheTask(), cannot build uniprot mapping store", e);
 			return;
 		}
-		finally {
-			it.close();
-		}
 
 		if (log.isInfoEnabled()) {
 			log.info("PopulateUniProtMappingCacheTask() complete...");
@@ -0,0 +1,258 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.task;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.*;
+import org.mskcc.cbio.biogene.util.cache.EhCache;
+
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.text.SimpleDateFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Task to refresh the cached genes of organisms that changed since their last refresh.
+ *
+ * Only genes whose entrez modification date (mdat) falls on or after the last refresh are fetched;
+ * their GeneInfo objects are replaced in place, and the gene-ids-cache entries of their
+ * old and new symbols, aliases and full names are removed.  Genes modified in that time that are no longer
+ * alive (discontinued, or replaced by another gene, which is fetched as a modified gene) are dropped.  The date of the last successful refresh
+ * of each organism is kept in ${cache.path}/jobs.  A complete population of the organism
+ * (see PopulateCacheTask) counts as a refresh.
+ *
+ * @author Benjamin Gross
+ */
+public class RefreshCacheTask extends Thread {
+
+	// some statics
+	public static int DEFAULT_NUMBER_TO_FETCH_PER_REQUEST = 500;
+
+	private static int NUMBER_OF_RETRIES = 3;
+	private static int RETRY_DELAY = 1000 * 60; // one minute
+	private static final String DATE_FORMAT = "yyyy/MM/dd";
+	private static final String REFRESH_SUFFIX = ".refresh";
+    private static Logger log = Logger.getLogger(RefreshCacheTask.class);
+
+	// some members
+	private String[] organisms;
+	private String minDate;
+
+	/**
+	 * Constructor.
+	 *
+	 * minDate (yyyy/MM/dd) overrides the date of the last refresh, it is
+	 * required for organisms not refreshed or completely populated before.
+	 *
+	 * @param organisms String[]
+	 * @param minDate String (may be null)
+	 */
+	public RefreshCacheTask(String[] organisms, String minDate) {
+		this.organisms = organisms;
+		this.minDate = (minDate == null || minDate.trim().length() == 0) ? null : minDate.trim();
+	}
+
+    /**
+     * Runs the Task.
+     */
+	public void run() {
+		// refresh yields to interactive requests
+		RateLimiter.setPriority(RateLimiter.PRIORITY.BACKGROUND);
+		for (String organism : organisms) {
+			try {
+				refresh(organism);
+			}
+			catch (Exception e) {
+				log.error("RefreshCacheTask.run(), cannot refresh organism: " + organism, e);
+			}
+		}
+	}
+
+	/**
+	 * Refreshes the genes of the given organism modified since its last refresh.
+	 *
+	 * @param organism String
+	 */
+	private void refresh(String organism) throws Exception {
+
+		long started = System.currentTimeMillis();
+		String from = (minDate != null) ? minDate : getLastRefreshDate(organism);
+		if (from == null) {
+			log.error("RefreshCacheTask.refresh(), organism: " + organism + " has not been refreshed or populated before, a mindate is required");
+			return;
+		}
+		String to = new SimpleDateFormat(DATE_FORMAT).format(new Date(started));
+		if (log.isInfoEnabled()) {
+			log.info("RefreshCacheTask.refresh(), organism: " + organism + ", genes modified from: " + from + " to: " + to);
+		}
+
+		int numberProcessed = 0;
+		int numberRefreshed = 0;
+		int numberInvalidated = 0;
+		int numberOfRetries = 0;
+		boolean missedGenes = false;
+		while (true) {
+			SearchResult result = ESearch.search(organism, from, to, true, numberProcessed, DEFAULT_NUMBER_TO_FETCH_PER_REQUEST);
+			if (result.getCode() == EUtils.RETURN_CODES.ID_NOT_FOUND) break;
+			if (!result.isSuccess()) {
+				if (++numberOfRetries <= NUMBER_OF_RETRIES) {
+					if (log.isInfoEnabled()) {
+						log.info("RefreshCacheTask.refresh(), error executing ESearch.search(), retrying (numberOfRetries: " + numberOfRetries + ")");
+					}
+					sleep(RETRY_DELAY);
+					continue;
+				}
+				log.error("RefreshCacheTask.refresh(), no more retries available, organism: " + organism + ", number processed: " + numberProcessed);
+				return;
+			}
+			numberOfRetries = 0;
+
+			ArrayList<String> IDs = result.getIDs();
+			if (IDs.size() == 0) break;
+			ArrayList<String> failedIDs = new ArrayList<String>();
+			GeneInfoList geneInfoList = EFetch.fetch(IDs, failedIDs);
+			if (geneInfoList.getReturnCode().equals(EUtils.RETURN_CODES.SUCCESS.toString())) {
+				numberInvalidated += EhCache.refreshInfoInCache(geneInfoList.getGeneInfo());
+				numberRefreshed += geneInfoList.getGeneInfo().size();
+			}
+			if (!failedIDs.isEmpty() || geneInfoList.getGeneInfo().size() < IDs.size()) {
+				missedGenes = true;
+			}
+
+			numberProcessed += IDs.size();
+			if (numberProcessed >= result.getTotalCount()) break;
+		}
+
+		int numberDropped = 0;
+		numberOfRetries = 0;
+		while (true) {
+			SearchResult result = ESearch.search(organism, from, to, false, numberDropped, DEFAULT_NUMBER_TO_FETCH_PER_REQUEST);
+			if (result.getCode() == EUtils.RETURN_CODES.ID_NOT_FOUND) break;
+			if (!result.isSuccess()) {
+				if (++numberOfRetries <= NUMBER_OF_RETRIES) {
+					if (log.isInfoEnabled()) {
+						log.info("RefreshCacheTask.refresh(), error executing ESearch.search() for genes no longer alive, retrying (numberOfRetries: " + numberOfRetries + ")");
+					}
+					sleep(RETRY_DELAY);
+					continue;
+				}
+				log.error("RefreshCacheTask.refresh(), no more retries available, organism: " + organism + ", number dropped: " + numberDropped);
+				missedGenes = true;
+				break;
+			}
+			numberOfRetries = 0;
+
+			ArrayList<String> IDs = result.getIDs();
+			if (IDs.size() == 0) break;
+			numberInvalidated += EhCache.removeInfoFromCache(IDs);
+			numberDropped += IDs.size();
+			if (numberDropped >= result.getTotalCount()) break;
+		}
+
+		if (log.isInfoEnabled()) {
+			log.info("RefreshCacheTask.refresh(), organism: " + organism + ", modified: " + numberProcessed +
+					 ", refreshed: " + numberRefreshed + ", no longer alive: " + numberDropped +
+					 ", id cache entries removed: " + numberInvalidated);
+		}
+		// genes that could not be fetched are tried again by the next refresh
+		if (!missedGenes) {
+			setLastRefresh(organism, started);
+		}
+	}
+
+	/**
+	 * Records the time the last successful refresh (or complete population) of the organism started.
+	 *
+	 * @param organism String
+	 * @param time long
+	 */
+	static void setLastRefresh(String organism, long time) {
+
+		File file = getRefreshFile(organism);
+		Properties refresh = new Properties();
+		refresh.setProperty("organism", organism);
+		refresh.setProperty("time", Long.toString(time));
+		refresh.setProperty("date", new SimpleDateFormat(DATE_FORMAT).format(new Date(time)));
+		try {
+			file.getParentFile().mkdirs();
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				refresh.store(out, "biogene cache refresh");
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			log.error("RefreshCacheTask.setLastRefresh(), cannot write: " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the date (yyyy/MM/dd) the last successful refresh of the organism started, or null.
+	 *
+	 * @param organism String
+	 * @return String
+	 */
+	private static String getLastRefreshDate(String organism) throws IOException {
+
+		File file = getRefreshFile(organism);
+		if (!file.exists()) return null;
+		Properties refresh = new Properties();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			refresh.load(in);
+		}
+		finally {
+			in.close();
+		}
+		return refresh.getProperty("date");
+	}
+
+	private static File getRefreshFile(String organism) {
+		try {
+			return new File(PopulateJobs.getJobsDirectory(), URLEncoder.encode(organism.trim().toLowerCase(), "UTF-8") + REFRESH_SUFFIX);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.tool;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.EFetchParser;
+import org.mskcc.cbio.biogene.util.cache.EhCache;
+
+import java.util.List;
+import java.util.Random;
+import java.util.ArrayList;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+
+/**
+ * Measures EhCache.checkInfoCache() throughput with 1, 2, 4 and 8 concurrent readers
+ * on the genes found in one or more efetch xml documents.  The genes are stored in the
+ * gene info cache first, so run it while the web service is stopped.
+ *
+ * Usage: CacheReadBenchmark efetch.xml [efetch.xml ...]
+ */
+public class CacheReadBenchmark {
+
+	private static int READS_PER_THREAD = 100000;
+	private static int[] THREADS = { 1, 2, 4, 8 };
+
+    /**
+     * The big deal main.
+     *
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+		List<GeneInfo> geneInfos = new ArrayList<GeneInfo>();
+		for (String arg : args) {
+			InputStream in = new FileInputStream(new File(arg));
+			try {
+				List<GeneInfo> parsed = EFetchParser.parseAll(in, null);
+				if (parsed != null) geneInfos.addAll(parsed);
+			}
+			finally {
+				in.close();
+			}
+		}
+		if (geneInfos.isEmpty()) {
+			System.out.println("usage: CacheReadBenchmark efetch.xml [efetch.xml ...]");
+			System.exit(1);
+		}
+
+		EhCache.initCache();
+		try {
+			// genes without a uniprot mapping are the ones reads used to write back
+			final List<String> geneIDs = new ArrayList<String>();
+			for (GeneInfo geneInfo : geneInfos) {
+				geneInfo.setGeneUniprotMapping(null);
+				geneIDs.add(geneInfo.getGeneId());
+			}
+			EhCache.storeInfoInCache(geneInfos);
+			System.out.println("genes: " + geneIDs.size());
+
+			// first round is warm up
+			for (int round = 0; round < 2; round++) {
+				for (int threads : THREADS) {
+					ExecutorService executor = Executors.newFixedThreadPool(threads);
+					List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+					long start = System.nanoTime();
+					for (int lc = 0; lc < threads; lc++) {
+						final Random random = new Random(lc);
+						readers.add(executor.submit(new Callable<Integer>() {
+								public Integer call() {
+									int hits = 0;
+									for (int lc = 0; lc < READS_PER_THREAD; lc++) {
+										if (EhCache.checkInfoCache(geneIDs.get(random.nextInt(geneIDs.size()))) != null) hits++;
+									}
+									return hits;
+								}
+							}));
+					}
+					long hits = 0;
+					for (Future<Integer> reader : readers) hits += reader.get();
+					long time = System.nanoTime() - start;
+					executor.shutdown();
+					if (round == 1) {
+						long reads = (long)threads * READS_PER_THREAD;
+						System.out.println("threads: " + threads + ", reads: " + reads + ", hits: " + hits +
+										   ", " + (reads * 1000000000L / time) + " reads/s, " + (time * threads / reads) + " ns/read per thread");
+					}
+				}
+			}
+		}
+		finally {
+			EhCache.shutDownCache();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.tool;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.EFetchParser;
+import org.mskcc.cbio.biogene.util.cache.CacheCodec;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares the size and speed of java serialization and CacheCodec
+ * on the genes found in one or more efetch xml documents.
+ *
+ * Usage: CodecBenchmark efetch.xml [efetch.xml ...]
+ */
+public class CodecBenchmark {
+
+	private static int ITERATIONS = 20;
+
+    /**
+     * The big deal main.
+     *
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+		List<GeneInfo> geneInfos = new ArrayList<GeneInfo>();
+		for (String arg : args) {
+			InputStream in = new FileInputStream(new File(arg));
+			try {
+				List<GeneInfo> parsed = EFetchParser.parseAll(in, null);
+				if (parsed != null) geneInfos.addAll(parsed);
+			}
+			finally {
+				in.close();
+			}
+		}
+		if (geneInfos.isEmpty()) {
+			System.out.println("usage: CodecBenchmark efetch.xml [efetch.xml ...]");
+			System.exit(1);
+		}
+
+		// sizes
+		long serializedSize = 0;
+		long encodedSize = 0;
+		List<byte[]> serialized = new ArrayList<byte[]>();
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		for (GeneInfo geneInfo : geneInfos) {
+			serialized.add(serialize(geneInfo));
+			encoded.add(CacheCodec.encodeGeneInfo(geneInfo));
+			serializedSize += serialized.get(serialized.size() - 1).length;
+			encodedSize += encoded.get(encoded.size() - 1).length;
+		}
+		System.out.println("genes: " + geneInfos.size());
+		System.out.println("java serialization: " + serializedSize + " bytes");
+		System.out.println("cache codec: " + encodedSize + " bytes (" + (100 * encodedSize / serializedSize) + "%)");
+
+		// timings, first round is warm up
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int lc = 0; lc < ITERATIONS; lc++) {
+				for (GeneInfo geneInfo : geneInfos) serialize(geneInfo);
+			}
+			long serializeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int lc = 0; lc < ITERATIONS; lc++) {
+				for (byte[] bytes : serialized) deserialize(bytes);
+			}
+			long deserializeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int lc = 0; lc < ITERATIONS; lc++) {
+				for (GeneInfo geneInfo : geneInfos) CacheCodec.encodeGeneInfo(geneInfo);
+			}
+			long encodeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int lc = 0; lc < ITERATIONS; lc++) {
+				for (byte[] bytes : encoded) CacheCodec.decodeGeneInfo(bytes);
+			}
+			long decodeTime = System.nanoTime() - start;
+			if (round == 1) {
+				long operations = (long)ITERATIONS * geneInfos.size();
+				System.out.println("java serialization: put " + (serializeTime / operations) + " ns/gene, get " + (deserializeTime / operations) + " ns/gene");
+				System.out.println("cache codec: put " + (encodeTime / operations) + " ns/gene, get " + (decodeTime / operations) + " ns/gene");
+			}
+		}
+	}
+
+	private static byte[] serialize(GeneInfo geneInfo) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(geneInfo);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -33,7 +33,10 @@ package org.mskcc.cbio.biogene.tool;
 
 // imports
 import org.mskcc.cbio.biogene.eutils.EUtils;
+import org.mskcc.cbio.biogene.task.PopulateJobs;
+import org.mskcc.cbio.biogene.task.RefreshCacheTask;
 import org.mskcc.cbio.biogene.task.PopulateCacheTask;
+import org.mskcc.cbio.biogene.task.PopulateCacheFromFilesTask;
 import org.mskcc.cbio.biogene.task.PopulateUniProtMappingCacheTask;
 import org.mskcc.cbio.biogene.util.cache.EhCache;
 
@@ -41,6 +44,7 @@ import org.apache.log4j.Logger;
 
 import java.util.Properties;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.FileInputStream;
 
@@ -146,11 +150,70 @@ public class Console {
 					log.debug("Console.populateCache(), processing organism: " + organism);
 				}
                 PopulateCacheTask task = new PopulateCacheTask(organism, retStart, numberToFetchPerRequest, totalNumberToFetch, eUtilDelay);
-                task.start();
+                PopulateJobs.start(task);
             }
         }
 	}
 
+	/**
+	 * Resumes cache population jobs that stopped before completing.
+	 */
+	public static void resumePopulateCache() throws Exception {
+		int resumed = PopulateJobs.resume();
+		if (log.isInfoEnabled()) {
+			log.info("Console.resumePopulateCache(), resumed " + resumed + " jobs");
+		}
+	}
+
+	/**
+	 * Refreshes cached genes of the given organisms modified since their last refresh.
+	 *
+	 * @param organismStr String organism[:organism]
+	 * @param minDate String yyyy/MM/dd, overrides the date of the last refresh (may be null)
+	 */
+	public static RefreshCacheTask refreshCache(String organismStr, String minDate) throws Exception {
+		RefreshCacheTask task = new RefreshCacheTask(organismStr.split(":"), minDate);
+		task.start();
+		return task;
+	}
+
+	/**
+	 * Rewrites cache values stored by earlier versions in the current format.
+	 */
+	public static void migrateCache() throws Exception {
+		int migrated = EhCache.migrateCaches();
+		if (log.isInfoEnabled()) {
+			log.info("Console.migrateCache(), migrated " + migrated + " values");
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the gene info cache.
+	 */
+	public static void buildSnapshot() throws Exception {
+		EhCache.buildSnapshot();
+	}
+
+	/**
+	 * Populates cache from locally downloaded ncbi gene files.
+	 *
+	 * @param geneInfoPath String
+	 * @param geneRIFsPath String
+	 * @param mim2GenePath String
+	 * @param organisms String[]
+	 * @param numberOfThreads int
+	 */
+	public static void populateCacheFromFiles(String geneInfoPath, String geneRIFsPath, String mim2GenePath,
+											  String[] organisms, int numberOfThreads) throws Exception {
+
+		PopulateCacheFromFilesTask task = new PopulateCacheFromFilesTask(new File(geneInfoPath),
+																		 (geneRIFsPath.length() > 0) ? new File(geneRIFsPath) : null,
+																		 (mim2GenePath.length() > 0) ? new File(mim2GenePath) : null,
+																		 organisms, numberOfThreads);
+		task.start();
+		task.join();
+	}
+
 	public static void populateUniProtCache() throws Exception {
 		if (log.isDebugEnabled()) {
 			log.debug("Console.populateUniProtCache()...");
@@ -197,5 +260,38 @@ public class Console {
 		else if (command.equals("u")) {
 			Console.populateUniProtCache();
 		}
+		else if (command.equals("m")) {
+			Console.initializeCache();
+			Console.migrateCache();
+			EhCache.shutDownCache();
+		}
+		else if (command.equals("b")) {
+            if (args.length < 2 || args[1].split(",", -1).length < 4) {
+                System.out.println("command '" + command +
+                                   "' requires options: gene_info,generifs_basic,mim2gene,organism[:organism][,number_of_threads]");
+                System.exit(1);
+            }
+            String[] commandOptions = args[1].split(",", -1);
+			Console.initializeCache();
+			Console.populateCacheFromFiles(commandOptions[0], commandOptions[1], commandOptions[2],
+										   commandOptions[3].split(":"),
+										   (commandOptions.length > 4) ? new Integer(commandOptions[4]) : 0);
+			EhCache.shutDownCache();
+		}
+		else if (command.equals("f")) {
+            if (args.length < 2) {
+                System.out.println("command '" + command + "' requires options: organism[:organism][,mindate]");
+                System.exit(1);
+            }
+            String[] commandOptions = args[1].split(",");
+			Console.initializeCache();
+			Console.refreshCache(commandOptions[0], (commandOptions.length > 1) ? commandOptions[1] : null).join();
+			EhCache.shutDownCache();
+		}
+		else if (command.equals("n")) {
+			Console.initializeCache();
+			Console.buildSnapshot();
+			EhCache.shutDownCache();
+		}
     }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.tool;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.EUtils;
+import org.mskcc.cbio.biogene.eutils.Writer;
+import org.mskcc.cbio.biogene.eutils.EFetchParser;
+
+import flexjson.JSONSerializer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import javax.xml.namespace.QName;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBContext;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationHandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares the time Writer takes to write a response with the way responses were written
+ * before (a new JAXBContext per xml response, documents built as a String and copied with
+ * getBytes(), flexjson for json) on the genes found in one or more efetch xml documents.
+ * All genes are written as one response, which is thrown away.  Writer uses the
+ * writer.* settings of biogene.properties.
+ *
+ * Usage: WriterBenchmark efetch.xml [efetch.xml ...]
+ */
+public class WriterBenchmark {
+
+	private static int ITERATIONS = 50;
+
+    /**
+     * The big deal main.
+     *
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+		List<GeneInfo> geneInfos = new ArrayList<GeneInfo>();
+		for (String arg : args) {
+			InputStream in = new FileInputStream(new File(arg));
+			try {
+				List<GeneInfo> parsed = EFetchParser.parseAll(in, null);
+				if (parsed != null) geneInfos.addAll(parsed);
+			}
+			finally {
+				in.close();
+			}
+		}
+		if (geneInfos.isEmpty()) {
+			System.out.println("usage: WriterBenchmark efetch.xml [efetch.xml ...]");
+			System.exit(1);
+		}
+		GeneInfoList geneInfoList = new GeneInfoList();
+		geneInfoList.setReturnCode(EUtils.RETURN_CODES.SUCCESS.toString());
+		geneInfoList.setCount(geneInfos.size());
+		geneInfoList.setRetMax(geneInfos.size());
+		geneInfoList.getGeneInfo().addAll(geneInfos);
+		System.out.println("genes per response: " + geneInfos.size());
+
+		// first round is warm up
+		CountingOutputStream out = new CountingOutputStream();
+		HttpServletResponse response = createResponse(out);
+		for (int round = 0; round < 2; round++) {
+			for (String outputType : new String[] { Writer.XML_FORMAT, Writer.JSON_FORMAT }) {
+				out.count = 0;
+				long start = System.nanoTime();
+				for (int lc = 0; lc < ITERATIONS; lc++) writeBefore(response, geneInfoList, outputType);
+				long beforeTime = System.nanoTime() - start;
+				long beforeBytes = out.count / ITERATIONS;
+				out.count = 0;
+				start = System.nanoTime();
+				for (int lc = 0; lc < ITERATIONS; lc++) Writer.write(response, geneInfoList, outputType);
+				long afterTime = System.nanoTime() - start;
+				long afterBytes = out.count / ITERATIONS;
+				if (round == 1) {
+					System.out.println(outputType + " before: " + (beforeTime / ITERATIONS / 1000) + " us/response, " + beforeBytes + " bytes");
+					System.out.println(outputType + " writer: " + (afterTime / ITERATIONS / 1000) + " us/response, " + afterBytes + " bytes");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the response the way Writer did before it kept its JAXBContext and wrote to the response stream.
+	 */
+	private static void writeBefore(HttpServletResponse response, GeneInfoList geneInfoList, String outputType) throws Exception {
+
+		String content;
+		if (outputType.equals(Writer.XML_FORMAT)) {
+			JAXBContext jaxbContext = JAXBContext.newInstance("org.mskcc.cbio.biogene.schema");
+			Marshaller marshaller = jaxbContext.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+			StringWriter writer = new StringWriter();
+			marshaller.marshal(new JAXBElement<GeneInfoList>(new QName("", "biogene_info_list"), GeneInfoList.class, geneInfoList), writer);
+			content = writer.toString();
+		}
+		else {
+			content = new JSONSerializer().exclude("*.class").deepSerialize(geneInfoList);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(content.getBytes());
+		response.setContentLength(bytes.size());
+		bytes.writeTo(response.getOutputStream());
+	}
+
+	/**
+	 * Returns a response that writes to the given stream and ignores everything else.
+	 */
+	private static HttpServletResponse createResponse(final ServletOutputStream out) {
+		return (HttpServletResponse)Proxy.newProxyInstance(WriterBenchmark.class.getClassLoader(),
+														   new Class[] { HttpServletResponse.class },
+														   new InvocationHandler() {
+															   public Object invoke(Object proxy, Method method, Object[] args) {
+																   return (method.getName().equals("getOutputStream")) ? out : null;
+															   }
+														   });
+	}
+
+	private static class CountingOutputStream extends ServletOutputStream {
+
+		long count;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
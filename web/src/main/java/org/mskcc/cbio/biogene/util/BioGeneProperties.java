@@ -0,0 +1,140 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util;
+
+// imports
+import org.apache.log4j.Logger;
+
+import java.util.Properties;
+import java.io.InputStream;
+
+/**
+ * Provides access to the settings found in biogene.properties.
+ *
+ * Settings that are missing or cannot be parsed fall back
+ * to the default supplied by the caller.
+ */
+public class BioGeneProperties {
+
+	// some statics
+    private static Logger log = Logger.getLogger(BioGeneProperties.class);
+	private static String PROPERTIES_RESOURCE = "/biogene.properties";
+	private static Properties properties = loadProperties();
+
+	/**
+	 * Returns the value of the given property.
+	 *
+	 * @param name String
+	 * @param defaultValue String
+	 * @return String
+	 */
+	public static String getString(String name, String defaultValue) {
+		String value = properties.getProperty(name);
+		return (value == null || value.trim().length() == 0) ? defaultValue : value.trim();
+	}
+
+	/**
+	 * Returns the value of the given property as an int.
+	 *
+	 * @param name String
+	 * @param defaultValue int
+	 * @return int
+	 */
+	public static int getInt(String name, int defaultValue) {
+		String value = getString(name, null);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			log.warn("BioGeneProperties.getInt(), cannot parse " + name + ": " + value + ", using default: " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the value of the given property as a long.
+	 *
+	 * @param name String
+	 * @param defaultValue long
+	 * @return long
+	 */
+	public static long getLong(String name, long defaultValue) {
+		String value = getString(name, null);
+		if (value == null) return defaultValue;
+		try {
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e) {
+			log.warn("BioGeneProperties.getLong(), cannot parse " + name + ": " + value + ", using default: " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the value of the given property as a boolean.
+	 *
+	 * @param name String
+	 * @param defaultValue boolean
+	 * @return boolean
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Loads biogene.properties from the classpath.
+	 *
+	 * @return Properties
+	 */
+	private static Properties loadProperties() {
+
+		Properties toReturn = new Properties();
+		InputStream in = BioGeneProperties.class.getResourceAsStream(PROPERTIES_RESOURCE);
+		if (in == null) {
+			log.warn("BioGeneProperties, " + PROPERTIES_RESOURCE + " not found, using defaults.");
+			return toReturn;
+		}
+		try {
+			toReturn.load(in);
+		}
+		catch (Exception e) {
+			log.error("BioGeneProperties, error loading " + PROPERTIES_RESOURCE, e);
+		}
+		finally {
+			try { in.close(); } catch (Exception e) {}
+		}
+
+		// outta here
+		return toReturn;
+	}
+}
@@ -39,13 +39,20 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 
-import com.google.common.base.Joiner;
-
 import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Collection;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Global Cache.
@@ -62,11 +69,42 @@ public class EhCache {
      */
     public static final String BIOGENE_ID_CACHE = "biogene_cache_gene_ids";
     public static final String BIOGENE_INFO_CACHE = "biogene_cache_gene_info";
-    public static final String BIOGENE_UNIPROT_MAPPING_CACHE = "biogene_cache_uniprot_mapping";
+    public static final String BIOGENE_NEGATIVE_CACHE = "biogene_cache_negative";
+
+	public static final String NEGATIVE_CACHE_SIZE_PROPERTY = "negative.cache.size";
+	public static final String NEGATIVE_CACHE_TTL_PROPERTY = "negative.cache.ttl";
+	public static int DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
+	public static int DEFAULT_NEGATIVE_CACHE_TTL = 600; // seconds
+
+	private static final String NEGATIVE_QUERY_PREFIX = "query:";
+	private static final String NEGATIVE_GENE_PREFIX = "gene:";
+
+	// organism spellings (lower case) gene-ids-cache has entries for, so the entries of a query
+	// can be removed without scanning the cache.  Kept in gene-ids-cache under a key no query has.
+	private static final String ORGANISMS_KEY = "\u0000organisms";
+	private static Set<String> idCacheOrganisms = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// gene-info-cache value of a gene that is no longer alive, hides the gene in the snapshot
+	private static final byte[] DISCONTINUED = new byte[0];
+	private static AtomicLong negativeHits = new AtomicLong();
+	private static AtomicLong negativeMisses = new AtomicLong();
+
+	// in-process near caches of decoded values, in front of the ehcache stores (null if disabled)
+	public static final String L1_GENE_IDS_SIZE_PROPERTY = "l1.cache.gene.ids.size";
+	public static final String L1_GENE_INFO_SIZE_PROPERTY = "l1.cache.gene.info.size";
+	public static int DEFAULT_L1_SIZE = 10000;
+	private static volatile TinyLfuCache<String, ArrayList<String>> geneIDsL1;
+	private static volatile TinyLfuCache<String, GeneInfo> geneInfoL1;
+	// bumped by every write, so that a value read before a write is not left in a near cache
+	private static AtomicLong geneIDsGeneration = new AtomicLong();
+	private static AtomicLong geneInfoGeneration = new AtomicLong();
+	private static AtomicLong geneIDsL2Hits = new AtomicLong();
+	private static AtomicLong geneIDsMisses = new AtomicLong();
+	private static AtomicLong geneInfoL2Hits = new AtomicLong();
+	private static AtomicLong geneInfoSnapshotHits = new AtomicLong();
+	private static AtomicLong geneInfoMisses = new AtomicLong();
 
 	private static CacheManager geneIDsCacheManager;
 	private static CacheManager geneInfoCacheManager;
-	private static CacheManager uniProtMappingCacheManager;
 
     /**
      * Initializes the EhCache with ehcache.xml.
@@ -81,7 +119,30 @@ public class EhCache {
 		shutDownCache();
 		geneIDsCacheManager = new CacheManager(EhCache.class.getResourceAsStream("/ehcache-gene-ids.xml"));
 		geneInfoCacheManager = new CacheManager(EhCache.class.getResourceAsStream("/ehcache-gene-info.xml"));
-		uniProtMappingCacheManager = new CacheManager(EhCache.class.getResourceAsStream("/ehcache-uniprot-mapping.xml"));
+		idCacheOrganisms.clear();
+		Element organisms = geneIDsCacheManager.getCache(BIOGENE_ID_CACHE).get(ORGANISMS_KEY);
+		if (organisms != null) idCacheOrganisms.addAll(toStrings(organisms.getObjectValue()));
+		// lookups that found nothing, kept in memory for a short while
+		int ttl = BioGeneProperties.getInt(NEGATIVE_CACHE_TTL_PROPERTY, DEFAULT_NEGATIVE_CACHE_TTL);
+		geneIDsCacheManager.addCache(new Cache(BIOGENE_NEGATIVE_CACHE,
+											   BioGeneProperties.getInt(NEGATIVE_CACHE_SIZE_PROPERTY, DEFAULT_NEGATIVE_CACHE_SIZE),
+											   false, false, ttl, 0));
+		int l1Size = BioGeneProperties.getInt(L1_GENE_IDS_SIZE_PROPERTY, DEFAULT_L1_SIZE);
+		geneIDsL1 = (l1Size > 0) ? new TinyLfuCache<String, ArrayList<String>>(l1Size) : null;
+		l1Size = BioGeneProperties.getInt(L1_GENE_INFO_SIZE_PROPERTY, DEFAULT_L1_SIZE);
+		geneInfoL1 = (l1Size > 0) ? new TinyLfuCache<String, GeneInfo>(l1Size) : null;
+		UniProtMappingStore.load();
+		GeneInfoSnapshot.load();
+
+		// index whatever is already in the gene info cache
+		final Cache geneInfoCache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
+		Thread indexer = new Thread("gene-index") {
+				public void run() {
+					GeneIndex.rebuild(geneInfoCache);
+				}
+			};
+		indexer.setDaemon(true);
+		indexer.start();
     }
 
     /**
@@ -90,7 +151,6 @@ public class EhCache {
     public static void shutDownCache() {
 		if (geneIDsCacheManager != null) geneIDsCacheManager.shutdown();
 		if (geneInfoCacheManager != null) geneInfoCacheManager.shutdown();
-		if (uniProtMappingCacheManager != null) uniProtMappingCacheManager.shutdown();
     }
 
     /**
@@ -104,7 +164,12 @@ public class EhCache {
 		}
 		geneIDsCacheManager.getCache(BIOGENE_ID_CACHE).removeAll();
 		geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE).removeAll();
-		uniProtMappingCacheManager.getCache(BIOGENE_UNIPROT_MAPPING_CACHE).removeAll();
+		geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE).removeAll();
+		idCacheOrganisms.clear();
+		clearNearCaches();
+		UniProtMappingStore.clear();
+		GeneInfoSnapshot.clear();
+		GeneIndex.clear();
     }
 
 	/**
@@ -115,17 +180,31 @@ public class EhCache {
 	 */
 	public static ArrayList<String> checkIDCache(String query, String organism) {
 
-		String key = (organism.length() > 0) ? (query.toLowerCase() + "-" + organism.toLowerCase()) : query;
+		String key = getIDCacheKey(query, organism);
 		if (log.isInfoEnabled()) {
 			log.info("EhCache, checking " + BIOGENE_ID_CACHE + " cache for key: " + key);
 		}
+		TinyLfuCache<String, ArrayList<String>> l1 = geneIDsL1;
+		ArrayList<String> cached = (l1 != null) ? l1.get(key) : null;
+		if (cached != null) {
+			if (log.isInfoEnabled()) {
+				log.info("--> L1 Hit!");
+			}
+			return cached;
+		}
+		long generation = geneIDsGeneration.get();
 		Cache cache = geneIDsCacheManager.getCache(BIOGENE_ID_CACHE);
 		Element element = cache.get(key);
 		if (element != null) {
 			if (log.isInfoEnabled()) {
 				log.info("--> Hit!");
 			}
-			ArrayList<String> toReturn = (ArrayList<String>)element.getValue();
+			geneIDsL2Hits.incrementAndGet();
+			ArrayList<String> toReturn = toStrings(element.getObjectValue());
+			if (l1 != null) {
+				l1.put(key, toReturn);
+				if (geneIDsGeneration.get() != generation) l1.remove(key);
+			}
 			if (log.isInfoEnabled()) {
 				log.info("--> Size: " + toReturn.size());
 			}
@@ -137,10 +216,22 @@ public class EhCache {
 			return toReturn;
 		}
 		else {
+			geneIDsMisses.incrementAndGet();
 			return null;
 		}
 	}
 
+	/**
+	 * Returns the gene-ids-cache key of the given query & organism.
+	 *
+	 * @param query String
+	 * @param organism String ("" for advanced queries)
+	 * @return String
+	 */
+	public static String getIDCacheKey(String query, String organism) {
+		return (organism.length() > 0) ? (query.toLowerCase() + "-" + organism.toLowerCase()) : query;
+	}
+
 	/**
 	 * Given query & organism, stores ArrayList<String> ids in cache.
 	 *
@@ -151,17 +242,120 @@ public class EhCache {
 	public static void storeIDInCache(String query, String organism, ArrayList<String> ids) {
 
 		Cache cache = geneIDsCacheManager.getCache(BIOGENE_ID_CACHE);
-		String key = (organism.length() > 0) ? (query.toLowerCase() + "-" + organism.toLowerCase()) : query;
+		String key = getIDCacheKey(query, organism);
 		if (log.isInfoEnabled()) {
 			log.info("EhCache, storing object in " + BIOGENE_ID_CACHE + " cache, key: " + key);
 		}
-		Element element = new Element(key, ids);
+		Element element = new Element(key, CacheCodec.encodeStrings(ids));
 		cache.put(element);
+		geneIDsGeneration.incrementAndGet();
+		if (geneIDsL1 != null) geneIDsL1.remove(key);
+		addIDCacheOrganism(organism);
+	}
+
+	/**
+	 * Records that gene-ids-cache (or the negative cache) has entries for the given organism spelling.
+	 *
+	 * @param organism String
+	 */
+	private static void addIDCacheOrganism(String organism) {
+
+		String name = organism.toLowerCase();
+		if (name.length() == 0 || idCacheOrganisms.contains(name)) return;
+		synchronized (idCacheOrganisms) {
+			if (!idCacheOrganisms.add(name)) return;
+			geneIDsCacheManager.getCache(BIOGENE_ID_CACHE).put(new Element(ORGANISMS_KEY,
+																		  CacheCodec.encodeStrings(new ArrayList<String>(idCacheOrganisms))));
+		}
+	}
+
+	/**
+	 * Returns true if the given query & organism recently found no ids.
+	 *
+	 * @param query String
+	 * @param organism String
+	 * @return boolean
+	 */
+	public static boolean checkNegativeIDCache(String query, String organism) {
+		return checkNegativeCache(NEGATIVE_QUERY_PREFIX + getIDCacheKey(query, organism));
+	}
+
+	/**
+	 * Records that the given query & organism found no ids.
+	 *
+	 * @param query String
+	 * @param organism String
+	 */
+	public static void storeNegativeIDInCache(String query, String organism) {
+		storeNegativeInCache(NEGATIVE_QUERY_PREFIX + getIDCacheKey(query, organism));
+		addIDCacheOrganism(organism);
+	}
+
+	/**
+	 * Returns true if gene info for the given id recently could not be parsed.
+	 *
+	 * @param geneID String
+	 * @return boolean
+	 */
+	public static boolean checkNegativeInfoCache(String geneID) {
+		return checkNegativeCache(NEGATIVE_GENE_PREFIX + geneID);
+	}
+
+	/**
+	 * Records that gene info for the given id could not be parsed.
+	 *
+	 * @param geneID String
+	 */
+	public static void storeNegativeInfoInCache(String geneID) {
+		storeNegativeInCache(NEGATIVE_GENE_PREFIX + geneID);
+	}
+
+	/**
+	 * Empties the negative cache.
+	 */
+	public static void purgeNegativeCache() {
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, purging " + BIOGENE_NEGATIVE_CACHE + " cache");
+		}
+		geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE).removeAll();
+	}
+
+	/**
+	 * Returns negative cache size, hits & misses.
+	 *
+	 * @return String
+	 */
+	public static String getNegativeCacheStatistics() {
+		return ("negative cache size: " + geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE).getSize() +
+				", hits: " + negativeHits.get() + ", misses: " + negativeMisses.get() + "\n");
+	}
+
+	private static boolean checkNegativeCache(String key) {
+		if (geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE).get(key) != null) {
+			if (log.isInfoEnabled()) {
+				log.info("EhCache, " + BIOGENE_NEGATIVE_CACHE + " hit for key: " + key);
+			}
+			negativeHits.incrementAndGet();
+			return true;
+		}
+		negativeMisses.incrementAndGet();
+		return false;
+	}
+
+	private static void storeNegativeInCache(String key) {
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, storing object in " + BIOGENE_NEGATIVE_CACHE + " cache, key: " + key);
+		}
+		geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE).put(new Element(key, Boolean.TRUE));
 	}
 
 	/**
 	 * Checks cache.
 	 *
+	 * The GeneInfo object returned carries the uniprot mapping of the gene even if
+	 * the cached value does not.  It may be shared with other callers (see the L1 near cache)
+	 * and must not be modified.
+	 *
 	 * @param geneID String
 	 * @return GeneInfo
 	 */
@@ -170,27 +364,102 @@ public class EhCache {
 		if (log.isInfoEnabled()) {
 			log.info("EhCache, checking " + BIOGENE_INFO_CACHE + " cache for key: " + geneID);
 		}
+		TinyLfuCache<String, GeneInfo> l1 = geneInfoL1;
+		GeneInfo geneInfo = (l1 != null) ? l1.get(geneID) : null;
+		if (geneInfo != null) {
+			if (log.isInfoEnabled()) {
+				log.info("--> L1 Hit!");
+			}
+			return geneInfo;
+		}
+		long generation = geneInfoGeneration.get();
 		Cache cache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
-		Element element = cache.get(geneID);
+		return toCachedGeneInfo(geneID, cache.get(geneID), generation, l1);
+	}
+
+	/**
+	 * Checks cache for the GeneInfo objects of the given gene ids, looking
+	 * up those not in memory with a single cache read.
+	 *
+	 * Ids not found are not in the returned map.  As with checkInfoCache(String),
+	 * returned objects may be shared and must not be modified.
+	 *
+	 * @param geneIDs Collection<String>
+	 * @return Map<String, GeneInfo>
+	 */
+	public static Map<String, GeneInfo> checkInfoCache(Collection<String> geneIDs) {
+
+		Map<String, GeneInfo> toReturn = new HashMap<String, GeneInfo>();
+		TinyLfuCache<String, GeneInfo> l1 = geneInfoL1;
+		List<String> remaining = new ArrayList<String>();
+		for (String geneID : geneIDs) {
+			GeneInfo geneInfo = (l1 != null) ? l1.get(geneID) : null;
+			if (geneInfo != null) toReturn.put(geneID, geneInfo);
+			else remaining.add(geneID);
+		}
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, checking " + BIOGENE_INFO_CACHE + " cache for " + geneIDs.size() + " key(s), " +
+					 (geneIDs.size() - remaining.size()) + " L1 hit(s)");
+		}
+		if (remaining.isEmpty()) return toReturn;
+
+		long generation = geneInfoGeneration.get();
+		Cache cache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
+		Map<Object, Element> elements = cache.getAll(remaining);
+		for (String geneID : remaining) {
+			GeneInfo geneInfo = toCachedGeneInfo(geneID, elements.get(geneID), generation, l1);
+			if (geneInfo != null) toReturn.put(geneID, geneInfo);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the GeneInfo object read from gene-info-cache (element), or the snapshot when
+	 * element is null, adding it to the near cache.
+	 *
+	 * @param geneID String
+	 * @param element Element
+	 * @param generation long (geneInfoGeneration before element was read)
+	 * @param l1 TinyLfuCache<String, GeneInfo>
+	 * @return GeneInfo
+	 */
+	private static GeneInfo toCachedGeneInfo(String geneID, Element element, long generation, TinyLfuCache<String, GeneInfo> l1) {
+
+		GeneInfo geneInfo;
+		if (element != null && isDiscontinued(element.getObjectValue())) {
+			geneInfoMisses.incrementAndGet();
+			return null;
+		}
 		if (element != null) {
 			if (log.isInfoEnabled()) {
 				log.info("--> Hit!");
 			}
-			GeneInfo geneInfo = (GeneInfo)element.getValue();
-			if (geneInfo.getGeneUniprotMapping() == null) {
-				if (log.isInfoEnabled()) log.info("--> Attempting to add UniProtMapping...");
-				// add uniprot mapping to GeneInfo
-				Vector<String> uniProtMapping = checkUniProtMappingCache(geneID);
-				if (uniProtMapping != null) geneInfo.setGeneUniprotMapping(Joiner.on(":").join(uniProtMapping));
-				// update GeneInfo object in cache
-				element = new Element(geneID, geneInfo);
-				cache.put(element);
-			}
-			return geneInfo;
+			geneInfoL2Hits.incrementAndGet();
+			// values are decoded into a new object on every read (legacy values are copied),
+			// so the uniprot mapping is set on the new object and the cache is never written
+			Object value = element.getObjectValue();
+			geneInfo = (value instanceof byte[]) ?
+				toGeneInfo(value) : CacheCodec.decodeGeneInfo(CacheCodec.encodeGeneInfo((GeneInfo)value));
 		}
 		else {
-			return null;
+			// fall back to the snapshot
+			geneInfo = GeneInfoSnapshot.getGeneInfo(geneID);
+			if (geneInfo == null) {
+				geneInfoMisses.incrementAndGet();
+				return null;
+			}
+			if (log.isInfoEnabled()) {
+				log.info("--> Snapshot hit!");
+			}
+			geneInfoSnapshotHits.incrementAndGet();
+		}
+		// always the current mapping (values written by earlier versions carry the mapping of their day)
+		geneInfo.setGeneUniprotMapping(UniProtMappingStore.getMapping(geneID));
+		if (l1 != null) {
+			l1.put(geneID, geneInfo);
+			if (geneInfoGeneration.get() != generation) l1.remove(geneID);
 		}
+		return geneInfo;
 	}
 
 	/**
@@ -204,36 +473,273 @@ public class EhCache {
 		if (log.isInfoEnabled()) {
 			log.info("EhCache, storing object in " + BIOGENE_INFO_CACHE + " cache, key: " + geneInfo.getGeneId());
 		}
-		Element element = new Element(geneInfo.getGeneId(), geneInfo);
+		Element element = new Element(geneInfo.getGeneId(), CacheCodec.encodeGeneInfo(geneInfo, false));
 		cache.put(element);
+		geneInfoGeneration.incrementAndGet();
+		if (geneInfoL1 != null) geneInfoL1.remove(geneInfo.getGeneId());
+		GeneIndex.add(geneInfo);
 	}
 
 	/**
-	 * Checks UniProt cache.
+	 * Stores GeneInfo objects in cache in one call.  Uses GeneInfo.getGeneId() as key.
 	 *
-	 * @param geneID String
-	 * @return Vector<String>
+	 * @param geneInfos Collection<GeneInfo>
 	 */
-	public static Vector<String> checkUniProtMappingCache(String geneID) {
+	public static void storeInfoInCache(Collection<GeneInfo> geneInfos) {
 
-		Cache cache = uniProtMappingCacheManager.getCache(BIOGENE_UNIPROT_MAPPING_CACHE);
-		Element element = cache.get(geneID);
-		return (element != null) ? (Vector<String>)element.getValue() : null;
+		Cache cache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, storing " + geneInfos.size() + " objects in " + BIOGENE_INFO_CACHE + " cache");
+		}
+		List<Element> elements = new ArrayList<Element>(geneInfos.size());
+		for (GeneInfo geneInfo : geneInfos) {
+			elements.add(new Element(geneInfo.getGeneId(), CacheCodec.encodeGeneInfo(geneInfo, false)));
+		}
+		cache.putAll(elements);
+		geneInfoGeneration.incrementAndGet();
+		for (GeneInfo geneInfo : geneInfos) {
+			if (geneInfoL1 != null) geneInfoL1.remove(geneInfo.getGeneId());
+			GeneIndex.add(geneInfo);
+		}
 	}
 
 	/**
-	 * Stores UniProt mapping in cache.
+	 * Replaces the cached GeneInfo objects of genes that changed, then removes the
+	 * gene-ids-cache entries of every symbol, alias or full name the genes had (in the cache,
+	 * or else the snapshot) or now have.
 	 *
-	 * @param geneID String
-	 * @param uniProtID String
+	 * @param geneInfos Collection<GeneInfo>
+	 * @return int number of gene-ids-cache entries removed
 	 */
-	public static void storeUniProtMappingInCache(String geneID, String uniProtID) {
+	public static int refreshInfoInCache(Collection<GeneInfo> geneInfos) {
 
-		Cache cache = uniProtMappingCacheManager.getCache(BIOGENE_UNIPROT_MAPPING_CACHE);
-		Vector<String> uniProtIDs = (cache.isKeyInCache(geneID)) ?
-			uniProtIDs = checkUniProtMappingCache(geneID) : new Vector<String>();
-		if (!uniProtIDs.contains(uniProtID)) uniProtIDs.add(uniProtID);
-		Element element = new Element(geneID, uniProtIDs);
-		cache.put(element);
+		Cache cache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
+		Set<String> queries = new HashSet<String>();
+		for (GeneInfo geneInfo : geneInfos) {
+			Element element = cache.get(geneInfo.getGeneId());
+			if (element != null) addQueries(queries, toGeneInfo(element.getObjectValue()));
+			else addQueries(queries, GeneInfoSnapshot.getGeneInfo(geneInfo.getGeneId()));
+			addQueries(queries, geneInfo);
+		}
+		storeInfoInCache(geneInfos);
+		return invalidateIDCache(queries);
+	}
+
+	/**
+	 * Drops the cached GeneInfo objects of genes that are no longer alive (discontinued, or replaced
+	 * by another gene), then removes the gene-ids-cache entries of every symbol, alias or full name they had.
+	 * Genes also found in the snapshot are marked as discontinued rather than removed, so they are not read from it.
+	 *
+	 * @param geneIDs Collection<String>
+	 * @return int number of gene-ids-cache entries removed
+	 */
+	public static int removeInfoFromCache(Collection<String> geneIDs) {
+
+		Cache cache = geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE);
+		Set<String> queries = new HashSet<String>();
+		for (String geneID : geneIDs) {
+			Element element = cache.get(geneID);
+			if (element != null) addQueries(queries, toGeneInfo(element.getObjectValue()));
+			GeneInfo snapshotGeneInfo = GeneInfoSnapshot.getGeneInfo(geneID);
+			if (snapshotGeneInfo != null) {
+				addQueries(queries, snapshotGeneInfo);
+				cache.put(new Element(geneID, DISCONTINUED));
+			}
+			else if (element != null) {
+				cache.remove(geneID);
+			}
+			else {
+				continue;
+			}
+			if (log.isInfoEnabled()) {
+				log.info("EhCache, removing gene no longer alive from " + BIOGENE_INFO_CACHE + " cache, key: " + geneID);
+			}
+			geneInfoGeneration.incrementAndGet();
+			if (geneInfoL1 != null) geneInfoL1.remove(geneID);
+			GeneIndex.remove(geneID);
+		}
+		return invalidateIDCache(queries);
+	}
+
+	/**
+	 * Removes the gene-ids-cache (and negative cache) entries of the given queries, for every
+	 * organism spelling entries were stored under.
+	 *
+	 * @param queries Set<String> lower case
+	 * @return int number of entries removed
+	 */
+	public static int invalidateIDCache(Set<String> queries) {
+
+		if (queries.isEmpty()) return 0;
+		Cache cache = geneIDsCacheManager.getCache(BIOGENE_ID_CACHE);
+		Cache negativeCache = geneIDsCacheManager.getCache(BIOGENE_NEGATIVE_CACHE);
+		int removed = 0;
+		for (String query : queries) {
+			for (String organism : idCacheOrganisms) {
+				String key = getIDCacheKey(query, organism);
+				if (cache.remove(key)) removed++;
+				negativeCache.remove(NEGATIVE_QUERY_PREFIX + key);
+				geneIDsGeneration.incrementAndGet();
+				// the near cache may hold entries evicted from the store
+				if (geneIDsL1 != null) geneIDsL1.remove(key);
+			}
+		}
+		if (log.isInfoEnabled()) {
+			log.info("EhCache.invalidateIDCache(), " + queries.size() + " queries, " + idCacheOrganisms.size() +
+					 " organism spellings, removed " + removed + " entries from " + BIOGENE_ID_CACHE);
+		}
+		return removed;
+	}
+
+	/**
+	 * Empties the L1 near caches (the ehcache stores are left alone).
+	 */
+	public static void clearNearCaches() {
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, clearing near caches");
+		}
+		geneIDsGeneration.incrementAndGet();
+		geneInfoGeneration.incrementAndGet();
+		if (geneIDsL1 != null) geneIDsL1.clear();
+		if (geneInfoL1 != null) geneInfoL1.clear();
+	}
+
+	/**
+	 * Returns hits of each tier (L1 near cache, ehcache store, snapshot) and misses of
+	 * the gene ids & gene info caches.
+	 *
+	 * @return String
+	 */
+	public static String getCacheStatistics() {
+		TinyLfuCache<String, ArrayList<String>> idsL1 = geneIDsL1;
+		TinyLfuCache<String, GeneInfo> infoL1 = geneInfoL1;
+		long idsL1Hits = (idsL1 != null) ? idsL1.getHits() : 0;
+		long infoL1Hits = (infoL1 != null) ? infoL1.getHits() : 0;
+		long idsLookups = idsL1Hits + geneIDsL2Hits.get() + geneIDsMisses.get();
+		long infoLookups = infoL1Hits + geneInfoL2Hits.get() + geneInfoSnapshotHits.get() + geneInfoMisses.get();
+		return (BIOGENE_ID_CACHE + ": lookups: " + idsLookups +
+				", l1 hits: " + idsL1Hits + getRatio(idsL1Hits, idsLookups) +
+				", l1 size: " + ((idsL1 != null) ? idsL1.getSize() : 0) +
+				", store hits: " + geneIDsL2Hits.get() + getRatio(geneIDsL2Hits.get(), idsLookups) +
+				", misses: " + geneIDsMisses.get() + getRatio(geneIDsMisses.get(), idsLookups) + "\n" +
+				BIOGENE_INFO_CACHE + ": lookups: " + infoLookups +
+				", l1 hits: " + infoL1Hits + getRatio(infoL1Hits, infoLookups) +
+				", l1 size: " + ((infoL1 != null) ? infoL1.getSize() : 0) +
+				", store hits: " + geneInfoL2Hits.get() + getRatio(geneInfoL2Hits.get(), infoLookups) +
+				", snapshot hits: " + geneInfoSnapshotHits.get() + getRatio(geneInfoSnapshotHits.get(), infoLookups) +
+				", misses: " + geneInfoMisses.get() + getRatio(geneInfoMisses.get(), infoLookups) + "\n");
+	}
+
+	private static String getRatio(long count, long total) {
+		return (total == 0) ? "" : String.format(" (%.1f%%)", 100.0 * count / total);
+	}
+
+	/**
+	 * Adds the symbol, aliases & full name of the given gene (lower case) to queries.
+	 */
+	private static void addQueries(Set<String> queries, GeneInfo geneInfo) {
+		if (geneInfo == null) return;
+		if (geneInfo.getGeneSymbol() != null) queries.add(geneInfo.getGeneSymbol().toLowerCase());
+		if (geneInfo.getGeneDescription() != null) queries.add(geneInfo.getGeneDescription().toLowerCase());
+		if (geneInfo.getGeneAliases() != null) {
+			for (String alias : geneInfo.getGeneAliases().split(":")) {
+				if (alias.trim().length() > 0) queries.add(alias.trim().toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * Writes the gene info cache to disk.
+	 */
+	public static void flushInfoCache() {
+		geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE).flush();
+	}
+
+	/**
+	 * Writes a snapshot of the gene info cache (see GeneInfoSnapshot).
+	 *
+	 * @throws IOException
+	 */
+	public static void buildSnapshot() throws IOException {
+		if (log.isInfoEnabled()) {
+			log.info("EhCache, writing snapshot of " + BIOGENE_INFO_CACHE);
+		}
+		GeneInfoSnapshot.build(geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE));
+	}
+
+	/**
+	 * Rewrites values stored with java serialization by earlier versions
+	 * in the compact CacheCodec format, and gene info values which still carry
+	 * a uniprot mapping without it.  Other values are left alone.
+	 *
+	 * @return int number of values rewritten
+	 */
+	public static int migrateCaches() {
+
+		int migrated = 0;
+		migrated += migrateCache(geneIDsCacheManager.getCache(BIOGENE_ID_CACHE));
+		migrated += migrateCache(geneInfoCacheManager.getCache(BIOGENE_INFO_CACHE));
+		return migrated;
+	}
+
+	/**
+	 * Rewrites the java serialized values of the given cache.
+	 *
+	 * @param cache Cache
+	 * @return int
+	 */
+	private static int migrateCache(Cache cache) {
+
+		int migrated = 0;
+		for (Object key : cache.getKeys()) {
+			Element element = cache.get(key);
+			if (element == null || isDiscontinued(element.getObjectValue())) continue;
+			Object value = element.getObjectValue();
+			if (value instanceof byte[]) {
+				if (!cache.getName().equals(BIOGENE_INFO_CACHE)) continue;
+				value = CacheCodec.decodeGeneInfo((byte[])value);
+				if (((GeneInfo)value).getGeneUniprotMapping() == null) continue;
+			}
+			byte[] encoded = (value instanceof GeneInfo) ?
+				CacheCodec.encodeGeneInfo((GeneInfo)value, false) : CacheCodec.encodeStrings(toStrings(value));
+			cache.put(new Element(key, encoded));
+			migrated++;
+		}
+		if (log.isInfoEnabled()) {
+			log.info("EhCache.migrateCache(), " + cache.getName() + ", migrated " + migrated + " of " + cache.getSize() + " values");
+		}
+		cache.flush();
+		return migrated;
+	}
+
+	/**
+	 * Returns the GeneInfo held in a cache element value, null if the gene is no longer alive.
+	 *
+	 * @param value Object
+	 * @return GeneInfo
+	 */
+	static GeneInfo toGeneInfo(Object value) {
+		if (isDiscontinued(value)) return null;
+		return (value instanceof byte[]) ? CacheCodec.decodeGeneInfo((byte[])value) : (GeneInfo)value;
+	}
+
+	/**
+	 * Returns true if the given gene-info-cache value marks a gene that is no longer alive.
+	 *
+	 * @param value Object
+	 * @return boolean
+	 */
+	private static boolean isDiscontinued(Object value) {
+		return (value instanceof byte[] && ((byte[])value).length == DISCONTINUED.length);
+	}
+
+	/**
+	 * Returns the list of strings held in a cache element value.
+	 *
+	 * @param value Object
+	 * @return ArrayList<String>
+	 */
+	static ArrayList<String> toStrings(Object value) {
+		return (value instanceof byte[]) ? CacheCodec.decodeStrings((byte[])value) : new ArrayList<String>((List<String>)value);
 	}
 }
@@ -34,10 +34,10 @@ package org.mskcc.cbio.biogene.util;
 import flexjson.*;
 import org.apache.log4j.Logger;
 
-import java.net.URL;
+import org.mskcc.cbio.biogene.eutils.Writer;
+import org.mskcc.cbio.biogene.eutils.Retriever;
+
 import java.io.PrintWriter;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
@@ -71,16 +71,12 @@ public class PubMedAbstract {
 			httpServletResponse.setContentType("text/xml; charset=UTF-8");
 			writer = httpServletResponse.getWriter();
 
-			String URLToAbstract = URL + pubMedAbstractID;
-			URL pubMedAbstractURL = new URL(URLToAbstract);
-			BufferedReader in = new BufferedReader(new InputStreamReader(pubMedAbstractURL.openStream(), "UTF-8"));
-			String inputLine;
-			while ((inputLine = in.readLine()) != null) {
-				writer.print(inputLine);
-			}
-			in.close();
+			String content = fetch(pubMedAbstractID);
+			httpServletResponse.setHeader("Cache-Control", Writer.getCacheControl(content.length() > 0));
+			writer.print(content);
 		}
 		catch (Exception e) {
+			httpServletResponse.setHeader("Cache-Control", Writer.getCacheControl(false));
 			if (writer != null) {
 				writer.print("Error: internal error: " + e.getMessage() + "\n");
 			}
@@ -109,23 +105,14 @@ public class PubMedAbstract {
 			httpServletResponse.setContentType("application/json; charset=utf-8");
 			writer = httpServletResponse.getWriter();
 
-			String URLToAbstract = URL + pubMedAbstractID;
-			URL pubMedAbstractURL = new URL(URLToAbstract);
-
-			// read contents into a string
-			String inputLine;
-			StringBuilder builder = new StringBuilder();
-			BufferedReader in = new BufferedReader(new InputStreamReader(pubMedAbstractURL.openStream(), "UTF-8"));
-			while ((inputLine = in.readLine()) != null) {
-				builder.append(inputLine);
-			}
-			in.close();
-
 			// convert and write JSON to writer
 			JSONSerializer serializer = new JSONSerializer();
-			writer.write(serializer.serialize(builder.toString()));
+			String content = fetch(pubMedAbstractID);
+			httpServletResponse.setHeader("Cache-Control", Writer.getCacheControl(content.length() > 0));
+			writer.write(serializer.serialize(content));
 		}
 		catch (Exception e) {
+			httpServletResponse.setHeader("Cache-Control", Writer.getCacheControl(false));
 			if (writer != null) {
 				writer.print("Error: internal error: " + e.getMessage() + "\n");
 			}
@@ -136,4 +123,17 @@ public class PubMedAbstract {
 			writer.close();
 		}
 	}
+
+	/**
+	 * Fetches the abstract xml through the (rate limited) eutils connection, with line breaks removed.
+	 *
+	 * @param pubMedAbstractID String
+	 * @return String
+	 * @throws Exception
+	 */
+	private static String fetch(String pubMedAbstractID) throws Exception {
+
+		String content = Retriever.connect(URL + pubMedAbstractID);
+		return (content == null) ? "" : content.replace("\r", "").replace("\n", "");
+	}
 }
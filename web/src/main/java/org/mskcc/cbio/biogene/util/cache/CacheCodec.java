@@ -0,0 +1,313 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary encoding of the values kept in the caches.
+ *
+ * Every value starts with a one byte type and a one byte format version.
+ * Strings are written as a varint of (UTF-8 length + 1), with 0 standing for null,
+ * followed by the UTF-8 bytes.  Lists of gene ids which are all plain numbers are
+ * written as varints instead of strings.
+ */
+public class CacheCodec {
+
+	// some statics
+	public static final byte VERSION = 1;
+
+	private static final byte GENE_INFO = 1;
+	private static final byte STRING_LIST = 2;
+	private static final byte NUMBER_LIST = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Encodes the given GeneInfo.
+	 *
+	 * @param geneInfo GeneInfo
+	 * @return byte[]
+	 */
+	public static byte[] encodeGeneInfo(GeneInfo geneInfo) {
+		return encodeGeneInfo(geneInfo, true);
+	}
+
+	/**
+	 * Encodes the given GeneInfo, leaving its uniprot mapping out unless uniprotMapping is set
+	 * (gene-info-cache values do not keep mappings, they are added from UniProtMappingStore when read).
+	 *
+	 * @param geneInfo GeneInfo
+	 * @param uniprotMapping boolean
+	 * @return byte[]
+	 */
+	public static byte[] encodeGeneInfo(GeneInfo geneInfo, boolean uniprotMapping) {
+
+		Output out = new Output(1024);
+		out.writeByte(GENE_INFO);
+		out.writeByte(VERSION);
+		out.writeString(geneInfo.getGeneId());
+		out.writeString(geneInfo.getGeneSymbol());
+		out.writeString(geneInfo.getGeneTag());
+		out.writeString(geneInfo.getGeneOrganism());
+		out.writeString(geneInfo.getGeneLocation());
+		out.writeString(geneInfo.getGeneChromosome());
+		out.writeString(geneInfo.getGeneDescription());
+		out.writeString(geneInfo.getGeneAliases());
+		out.writeString(geneInfo.getGeneDesignations());
+		out.writeString(geneInfo.getGeneSummary());
+		out.writeString(geneInfo.getGeneMim());
+		out.writeString((uniprotMapping) ? geneInfo.getGeneUniprotMapping() : null);
+		List<GeneRIF> geneRIFs = geneInfo.getGeneRif();
+		out.writeVarint(geneRIFs.size());
+		for (GeneRIF geneRIF : geneRIFs) {
+			out.writeString(geneRIF.getRif());
+			out.writeVarint(geneRIF.getPubmedId() & 0xffffffffL);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a GeneInfo encoded by encodeGeneInfo().
+	 *
+	 * @param bytes byte[]
+	 * @return GeneInfo
+	 * @throws IllegalArgumentException if bytes is not an encoded GeneInfo
+	 */
+	public static GeneInfo decodeGeneInfo(byte[] bytes) {
+
+		Input in = new Input(bytes);
+		checkHeader(in, GENE_INFO);
+		GeneInfo geneInfo = new GeneInfo();
+		geneInfo.setGeneId(in.readString());
+		geneInfo.setGeneSymbol(in.readString());
+		geneInfo.setGeneTag(in.readString());
+		geneInfo.setGeneOrganism(in.readString());
+		geneInfo.setGeneLocation(in.readString());
+		geneInfo.setGeneChromosome(in.readString());
+		geneInfo.setGeneDescription(in.readString());
+		geneInfo.setGeneAliases(in.readString());
+		geneInfo.setGeneDesignations(in.readString());
+		geneInfo.setGeneSummary(in.readString());
+		geneInfo.setGeneMim(in.readString());
+		geneInfo.setGeneUniprotMapping(in.readString());
+		int numberOfRIFs = (int)in.readVarint();
+		List<GeneRIF> geneRIFs = geneInfo.getGeneRif();
+		for (int lc = 0; lc < numberOfRIFs; lc++) {
+			GeneRIF geneRIF = new GeneRIF();
+			geneRIF.setRif(in.readString());
+			geneRIF.setPubmedId((int)in.readVarint());
+			geneRIFs.add(geneRIF);
+		}
+		return geneInfo;
+	}
+
+	/**
+	 * Encodes the given list of strings.
+	 *
+	 * @param strings List<String>
+	 * @return byte[]
+	 */
+	public static byte[] encodeStrings(List<String> strings) {
+
+		boolean numbers = true;
+		for (String string : strings) {
+			if (!isNumber(string)) {
+				numbers = false;
+				break;
+			}
+		}
+
+		Output out = new Output(16 + strings.size() * 8);
+		out.writeByte((numbers) ? NUMBER_LIST : STRING_LIST);
+		out.writeByte(VERSION);
+		out.writeVarint(strings.size());
+		for (String string : strings) {
+			if (numbers) out.writeVarint(Long.parseLong(string));
+			else out.writeString(string);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a list of strings encoded by encodeStrings().
+	 *
+	 * @param bytes byte[]
+	 * @return ArrayList<String>
+	 * @throws IllegalArgumentException if bytes is not an encoded list
+	 */
+	public static ArrayList<String> decodeStrings(byte[] bytes) {
+
+		Input in = new Input(bytes);
+		boolean numbers = (bytes.length > 0 && bytes[0] == NUMBER_LIST);
+		checkHeader(in, (numbers) ? NUMBER_LIST : STRING_LIST);
+		int size = (int)in.readVarint();
+		ArrayList<String> toReturn = new ArrayList<String>(size);
+		for (int lc = 0; lc < size; lc++) {
+			toReturn.add((numbers) ? Long.toString(in.readVarint()) : in.readString());
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Parses a non-negative gene id, returning -1 if it is not one.
+	 *
+	 * @param geneID String
+	 * @return int
+	 */
+	static int parseGeneID(String geneID) {
+
+		int length = geneID.length();
+		if (length == 0 || length > 9) return -1;
+		int value = 0;
+		for (int lc = 0; lc < length; lc++) {
+			char c = geneID.charAt(lc);
+			if (c < '0' || c > '9') return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void checkHeader(Input in, byte type) {
+		byte actualType = in.readByte();
+		byte version = in.readByte();
+		if (actualType != type || version != VERSION) {
+			throw new IllegalArgumentException("CacheCodec, unsupported value, type: " + actualType + ", version: " + version);
+		}
+	}
+
+	/**
+	 * Returns true if the string is a number without sign or leading zeros
+	 * (so that it survives a round trip through a long).
+	 */
+	private static boolean isNumber(String string) {
+		if (string == null || string.length() == 0 || string.length() > 18) return false;
+		if (string.length() > 1 && string.charAt(0) == '0') return false;
+		for (int lc = 0; lc < string.length(); lc++) {
+			char c = string.charAt(lc);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Growable output buffer.
+	 */
+	private static class Output {
+
+		private byte[] buffer;
+		private int position;
+
+		Output(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		void writeByte(int b) {
+			ensureCapacity(1);
+			buffer[position++] = (byte)b;
+		}
+
+		void writeVarint(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte)value;
+		}
+
+		void writeString(String string) {
+			if (string == null) {
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = string.getBytes(UTF8);
+			writeVarint(bytes.length + 1);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void ensureCapacity(int length) {
+			if (position + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+			}
+		}
+	}
+
+	/**
+	 * Input over an encoded value.
+	 */
+	private static class Input {
+
+		private byte[] buffer;
+		private int position;
+
+		Input(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		byte readByte() {
+			if (position >= buffer.length) throw new IllegalArgumentException("CacheCodec, truncated value");
+			return buffer[position++];
+		}
+
+		long readVarint() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IllegalArgumentException("CacheCodec, malformed varint");
+		}
+
+		String readString() {
+			long length = readVarint() - 1;
+			if (length < 0) return null;
+			if (length > buffer.length - position) throw new IllegalArgumentException("CacheCodec, truncated value");
+			String string = new String(buffer, position, (int)length, UTF8);
+			position += (int)length;
+			return string;
+		}
+	}
+}
@@ -0,0 +1,453 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import org.apache.log4j.Logger;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.EUtils;
+import org.mskcc.cbio.biogene.eutils.ESearch;
+import org.mskcc.cbio.biogene.eutils.SearchResult;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory index over the symbols, aliases and full names of the GeneInfo objects in the gene info cache.
+ *
+ * The index answers the PREF, SYMBOL, FULL_NAME, SYMBOL_WILDCARD_RIGHT and SYMBOL_WILDCARD search modes
+ * without going to esearch.  Lookups are case-insensitive.  Because an index over a partially populated
+ * cache would silently return too few ids, only organisms known to be fully cached are answered: those
+ * completely fetched by PopulateCacheTask since startup and those listed in gene.index.organisms.
+ * All other organisms, advanced queries and the free text modes are left to esearch.
+ */
+public class GeneIndex {
+
+	// some statics
+    private static Logger log = Logger.getLogger(GeneIndex.class);
+
+	public static final String ENABLED_PROPERTY = "gene.index.enabled";
+	public static final String ORGANISMS_PROPERTY = "gene.index.organisms";
+
+	private static final String DELIMITER = ":";
+	// length of the substrings indexed for SYMBOL_WILDCARD searches
+	private static final int GRAM = 3;
+
+	// organism (taxname) -> index
+	private static ConcurrentHashMap<String, OrganismIndex> indices = new ConcurrentHashMap<String, OrganismIndex>();
+	// gene id -> what was indexed for it
+	private static ConcurrentHashMap<String, IndexedGene> indexedGenes = new ConcurrentHashMap<String, IndexedGene>();
+	// organism (as given to PopulateCacheTask) -> taxname
+	private static ConcurrentHashMap<String, String> completeOrganisms = new ConcurrentHashMap<String, String>();
+	// organisms configured as complete
+	private static Set<String> configuredOrganisms = getConfiguredOrganisms();
+	// number of rebuilds in progress
+	private static AtomicInteger rebuilding = new AtomicInteger();
+
+	private static Comparator<String> GENE_ID_ORDER = new Comparator<String>() {
+		public int compare(String id1, String id2) {
+			if (id1.length() != id2.length()) return (id1.length() < id2.length()) ? -1 : 1;
+			return id1.compareTo(id2);
+		}
+	};
+
+	/**
+	 * Per organism lookup tables, all keyed by lowercase name.
+	 */
+	private static class OrganismIndex {
+		// preferred symbol -> gene ids
+		ConcurrentSkipListMap<String, Set<String>> preferred = new ConcurrentSkipListMap<String, Set<String>>();
+		// symbol & aliases -> gene ids
+		ConcurrentSkipListMap<String, Set<String>> symbols = new ConcurrentSkipListMap<String, Set<String>>();
+		// every substring of length GRAM of every symbol & alias (shorter ones as a whole)
+		// -> symbols & aliases containing it -> gene ids (the id sets of the symbols map)
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Set<String>>> grams = new ConcurrentHashMap<String, ConcurrentHashMap<String, Set<String>>>();
+		// full name -> gene ids
+		ConcurrentHashMap<String, Set<String>> fullNames = new ConcurrentHashMap<String, Set<String>>();
+	}
+
+	/**
+	 * Keys a gene was indexed under, so they can be removed when the gene is updated.
+	 */
+	private static class IndexedGene {
+		String organism;
+		String preferred;
+		String fullName;
+		Set<String> symbols = new HashSet<String>();
+	}
+
+	/**
+	 * Returns true if the index is used.
+	 *
+	 * @return boolean
+	 */
+	public static boolean isEnabled() {
+		return BioGeneProperties.getBoolean(ENABLED_PROPERTY, true);
+	}
+
+	/**
+	 * Runs the given search mode against the index.
+	 *
+	 * Returns null if the index cannot answer for this mode, query & organism, in which case
+	 * esearch should be used.  Otherwise a SUCCESS result with the matching gene ids (in gene id order)
+	 * or an ID_NOT_FOUND result is returned.
+	 *
+	 * @param mode ESearch.SEARCH_MODE
+	 * @param query String
+	 * @param organism String
+	 * @return SearchResult
+	 */
+	public static SearchResult search(ESearch.SEARCH_MODE mode, String query, String organism) {
+
+		if (!isEnabled() || !isLocalMode(mode) || EUtils.advancedQuery(query)) return null;
+		String taxName = getTaxName(organism);
+		if (taxName == null) return null;
+
+		String key = query.trim().toLowerCase();
+		if (key.length() == 0) return null;
+
+		// while rebuilding, preferred symbols can still be answered by the snapshot
+		// (leaving out genes renamed or dropped since it was written)
+		if (rebuilding.get() > 0) {
+			List<String> snapshotIDs = (mode == ESearch.SEARCH_MODE.PREF) ? GeneInfoSnapshot.getGeneIDs(taxName, key) : null;
+			if (snapshotIDs == null) return null;
+			if (!snapshotIDs.isEmpty()) {
+				Map<String, GeneInfo> current = EhCache.checkInfoCache(snapshotIDs);
+				List<String> currentIDs = new ArrayList<String>();
+				for (String geneID : snapshotIDs) {
+					GeneInfo geneInfo = current.get(geneID);
+					if (geneInfo != null && key.equalsIgnoreCase(geneInfo.getGeneSymbol())) currentIDs.add(geneID);
+				}
+				snapshotIDs = currentIDs;
+			}
+			return (snapshotIDs.isEmpty()) ? new SearchResult(EUtils.RETURN_CODES.ID_NOT_FOUND) :
+				new SearchResult(EUtils.RETURN_CODES.SUCCESS, new ArrayList<String>(snapshotIDs), snapshotIDs.size());
+		}
+
+		OrganismIndex index = indices.get(taxName);
+		Set<String> IDs = new TreeSet<String>(GENE_ID_ORDER);
+		if (index != null) {
+			switch (mode) {
+			case PREF:
+				addAll(IDs, index.preferred.get(key));
+				break;
+			case SYMBOL:
+				addPrefixed(IDs, index.preferred, key);
+				addAll(IDs, index.symbols.get(key));
+				break;
+			case FULL_NAME:
+				addAll(IDs, index.fullNames.get(key));
+				break;
+			case SYMBOL_WILDCARD_RIGHT:
+				addPrefixed(IDs, index.symbols, key);
+				break;
+			case SYMBOL_WILDCARD:
+				addContaining(IDs, index, key);
+				break;
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("GeneIndex.search(), mode: " + mode.name() + ", query: " + query + ", organism: " + organism + ", hits: " + IDs.size());
+		}
+		return (IDs.isEmpty()) ? new SearchResult(EUtils.RETURN_CODES.ID_NOT_FOUND) :
+			new SearchResult(EUtils.RETURN_CODES.SUCCESS, new ArrayList<String>(IDs), IDs.size());
+	}
+
+	/**
+	 * Adds (or updates) the given gene in the index.
+	 *
+	 * @param geneInfo GeneInfo
+	 */
+	public static synchronized void add(GeneInfo geneInfo) {
+
+		if (geneInfo == null || geneInfo.getGeneId() == null || geneInfo.getGeneOrganism() == null) return;
+
+		String geneID = geneInfo.getGeneId();
+		remove(geneID);
+
+		IndexedGene indexedGene = new IndexedGene();
+		indexedGene.organism = geneInfo.getGeneOrganism().toLowerCase();
+		indexedGene.preferred = toKey(geneInfo.getGeneSymbol());
+		indexedGene.fullName = toKey(geneInfo.getGeneDescription());
+		if (indexedGene.preferred != null) indexedGene.symbols.add(indexedGene.preferred);
+		if (geneInfo.getGeneAliases() != null) {
+			for (String alias : geneInfo.getGeneAliases().split(DELIMITER)) {
+				String key = toKey(alias);
+				if (key != null) indexedGene.symbols.add(key);
+			}
+		}
+
+		OrganismIndex index = indices.get(indexedGene.organism);
+		if (index == null) {
+			index = new OrganismIndex();
+			indices.put(indexedGene.organism, index);
+		}
+		if (indexedGene.preferred != null) put(index.preferred, indexedGene.preferred, geneID);
+		if (indexedGene.fullName != null) put(index.fullNames, indexedGene.fullName, geneID);
+		for (String symbol : indexedGene.symbols) {
+			boolean newSymbol = !index.symbols.containsKey(symbol);
+			put(index.symbols, symbol, geneID);
+			if (newSymbol) {
+				for (String gram : getGrams(symbol)) {
+					ConcurrentHashMap<String, Set<String>> symbols = index.grams.get(gram);
+					if (symbols == null) {
+						symbols = new ConcurrentHashMap<String, Set<String>>();
+						index.grams.put(gram, symbols);
+					}
+					symbols.put(symbol, index.symbols.get(symbol));
+				}
+			}
+		}
+		indexedGenes.put(geneID, indexedGene);
+	}
+
+	/**
+	 * Records that every gene of the given organism has been stored in the cache.
+	 *
+	 * @param organism String (as given to esearch)
+	 * @param taxName String (as found in GeneInfo.getGeneOrganism())
+	 */
+	public static void markComplete(String organism, String taxName) {
+
+		if (log.isInfoEnabled()) {
+			log.info("GeneIndex.markComplete(), organism: " + organism + ", taxname: " + taxName);
+		}
+		completeOrganisms.put(organism.toLowerCase(), taxName.toLowerCase());
+		completeOrganisms.put(taxName.toLowerCase(), taxName.toLowerCase());
+	}
+
+	/**
+	 * Empties the index.
+	 */
+	public static synchronized void clear() {
+		indices.clear();
+		indexedGenes.clear();
+		completeOrganisms.clear();
+	}
+
+	/**
+	 * Rebuilds the index from the given gene info cache.  Searches are
+	 * left to esearch until the rebuild is complete.
+	 *
+	 * @param cache Cache
+	 */
+	static void rebuild(Cache cache) {
+
+		rebuilding.incrementAndGet();
+		try {
+			if (log.isInfoEnabled()) {
+				log.info("GeneIndex.rebuild(), indexing " + cache.getSize() + " genes");
+			}
+			synchronized (GeneIndex.class) {
+				indices.clear();
+				indexedGenes.clear();
+			}
+			for (Object key : cache.getKeys()) {
+				Element element = cache.get(key);
+				if (element != null) add(EhCache.toGeneInfo(element.getObjectValue()));
+			}
+			if (log.isInfoEnabled()) {
+				log.info("GeneIndex.rebuild(), complete, " + indexedGenes.size() + " genes indexed");
+			}
+		}
+		catch (Exception e) {
+			log.error("GeneIndex.rebuild(), error rebuilding index", e);
+		}
+		finally {
+			rebuilding.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes the given gene from the index.
+	 *
+	 * @param geneID String
+	 */
+	public static synchronized void remove(String geneID) {
+
+		IndexedGene indexedGene = indexedGenes.remove(geneID);
+		if (indexedGene == null) return;
+		OrganismIndex index = indices.get(indexedGene.organism);
+		if (index == null) return;
+		if (indexedGene.preferred != null) delete(index.preferred, indexedGene.preferred, geneID);
+		if (indexedGene.fullName != null) delete(index.fullNames, indexedGene.fullName, geneID);
+		for (String symbol : indexedGene.symbols) {
+			delete(index.symbols, symbol, geneID);
+			if (!index.symbols.containsKey(symbol)) {
+				for (String gram : getGrams(symbol)) {
+					Map<String, Set<String>> symbols = index.grams.get(gram);
+					if (symbols == null) continue;
+					symbols.remove(symbol);
+					if (symbols.isEmpty()) index.grams.remove(gram);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the indexed taxname of the given organism if it is completely cached, null otherwise.
+	 *
+	 * @param organism String
+	 * @return String
+	 */
+	private static String getTaxName(String organism) {
+
+		if (organism == null) return null;
+		String key = organism.trim().toLowerCase();
+		String taxName = completeOrganisms.get(key);
+		if (taxName == null && configuredOrganisms.contains(key)) taxName = key;
+		return taxName;
+	}
+
+	/**
+	 * Returns true if the given mode is answered by the index.
+	 *
+	 * @param mode ESearch.SEARCH_MODE
+	 * @return boolean
+	 */
+	private static boolean isLocalMode(ESearch.SEARCH_MODE mode) {
+		return (mode == ESearch.SEARCH_MODE.PREF ||
+				mode == ESearch.SEARCH_MODE.SYMBOL ||
+				mode == ESearch.SEARCH_MODE.FULL_NAME ||
+				mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD_RIGHT ||
+				mode == ESearch.SEARCH_MODE.SYMBOL_WILDCARD);
+	}
+
+	/**
+	 * Reads the organisms listed in gene.index.organisms.
+	 *
+	 * @return Set<String>
+	 */
+	private static Set<String> getConfiguredOrganisms() {
+
+		Set<String> toReturn = new HashSet<String>();
+		String organisms = BioGeneProperties.getString(ORGANISMS_PROPERTY, "");
+		for (String organism : organisms.split(DELIMITER)) {
+			if (organism.trim().length() > 0) toReturn.add(organism.trim().toLowerCase());
+		}
+		return toReturn;
+	}
+
+	private static String toKey(String name) {
+		if (name == null) return null;
+		String key = name.trim().toLowerCase();
+		return (key.length() > 0) ? key : null;
+	}
+
+	private static void put(Map<String, Set<String>> map, String key, String geneID) {
+		Set<String> IDs = map.get(key);
+		if (IDs == null) {
+			IDs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			map.put(key, IDs);
+		}
+		IDs.add(geneID);
+	}
+
+	private static void delete(Map<String, Set<String>> map, String key, String geneID) {
+		Set<String> IDs = map.get(key);
+		if (IDs == null) return;
+		IDs.remove(geneID);
+		if (IDs.isEmpty()) map.remove(key);
+	}
+
+	private static void addAll(Set<String> IDs, Set<String> toAdd) {
+		if (toAdd != null) IDs.addAll(toAdd);
+	}
+
+	/**
+	 * Returns the substrings of length GRAM of the given symbol, or the symbol itself if it is shorter.
+	 *
+	 * @param symbol String
+	 * @return Set<String>
+	 */
+	private static Set<String> getGrams(String symbol) {
+
+		Set<String> toReturn = new HashSet<String>();
+		if (symbol.length() < GRAM) toReturn.add(symbol);
+		for (int lc = 0; lc + GRAM <= symbol.length(); lc++) {
+			toReturn.add(symbol.substring(lc, lc + GRAM));
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Adds the ids of the symbols & aliases containing the given key.  Only the symbols sharing the
+	 * key's least common gram are checked.  Keys shorter than GRAM are looked for in the grams
+	 * themselves, every symbol of a gram containing the key contains it as well.
+	 *
+	 * @param IDs Set<String>
+	 * @param index OrganismIndex
+	 * @param key String
+	 */
+	private static void addContaining(Set<String> IDs, OrganismIndex index, String key) {
+
+		if (key.length() < GRAM) {
+			for (Map.Entry<String, ConcurrentHashMap<String, Set<String>>> gram : index.grams.entrySet()) {
+				if (!gram.getKey().contains(key)) continue;
+				for (Set<String> symbolIDs : gram.getValue().values()) IDs.addAll(symbolIDs);
+			}
+			return;
+		}
+
+		Map<String, Set<String>> candidates = null;
+		for (int lc = 0; lc + GRAM <= key.length(); lc++) {
+			Map<String, Set<String>> symbols = index.grams.get(key.substring(lc, lc + GRAM));
+			if (symbols == null) return;
+			if (candidates == null || symbols.size() < candidates.size()) candidates = symbols;
+		}
+		for (Map.Entry<String, Set<String>> candidate : candidates.entrySet()) {
+			if (candidate.getKey().contains(key)) IDs.addAll(candidate.getValue());
+		}
+	}
+
+	private static void addPrefixed(Set<String> IDs, ConcurrentSkipListMap<String, Set<String>> map, String prefix) {
+		for (Map.Entry<String, Set<String>> entry : map.tailMap(prefix).entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) break;
+			IDs.addAll(entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,380 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import org.apache.log4j.Logger;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Immutable, memory-mapped snapshot of the gene info cache.
+ *
+ * The snapshot is written to ${cache.path}/gene-info.snapshot by cmd=n (or the console n command) as:
+ *
+ *   int magic, int version, int number of genes, int number of symbols,
+ *   int offset of the gene id index, int offset of the symbol index,
+ *   CacheCodec encoded GeneInfo records,
+ *   gene id index: int[number of genes] sorted gene ids, int[number of genes + 1] record offsets,
+ *   symbol index: int[number of symbols + 1] key offsets, int[number of symbols] gene ids, key bytes
+ *
+ * Symbol keys are "organism<tab>preferred symbol", lowercase, sorted by their UTF-8 bytes.
+ * Records are only decoded when they are looked up, so a freshly started server can use the
+ * snapshot immediately, and servers on the same host share its pages.
+ */
+public class GeneInfoSnapshot {
+
+	// some statics
+    private static Logger log = Logger.getLogger(GeneInfoSnapshot.class);
+
+	public static final String FILE_NAME = "gene-info.snapshot";
+
+	private static final int MAGIC = 0x47494e53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private static volatile GeneInfoSnapshot current;
+
+	private static Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] key1, byte[] key2) {
+			int length = Math.min(key1.length, key2.length);
+			for (int lc = 0; lc < length; lc++) {
+				int diff = (key1[lc] & 0xff) - (key2[lc] & 0xff);
+				if (diff != 0) return diff;
+			}
+			return key1.length - key2.length;
+		}
+	};
+
+	// some members
+	private MappedByteBuffer buffer;
+	private int numberOfGenes;
+	private int numberOfSymbols;
+	private int geneIDsStart;
+	private int recordOffsetsStart;
+	private int keyOffsetsStart;
+	private int symbolGeneIDsStart;
+	private int keysStart;
+
+	/**
+	 * Constructor, maps the given snapshot file.
+	 *
+	 * @param file File
+	 * @throws IOException
+	 */
+	private GeneInfoSnapshot(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) throw new IOException("GeneInfoSnapshot, file too large: " + file);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close();
+		}
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("GeneInfoSnapshot, unsupported file: " + file);
+		}
+		numberOfGenes = buffer.getInt(8);
+		numberOfSymbols = buffer.getInt(12);
+		geneIDsStart = buffer.getInt(16);
+		recordOffsetsStart = geneIDsStart + 4 * numberOfGenes;
+		keyOffsetsStart = buffer.getInt(20);
+		symbolGeneIDsStart = keyOffsetsStart + 4 * (numberOfSymbols + 1);
+		keysStart = symbolGeneIDsStart + 4 * numberOfSymbols;
+		if (keysStart > buffer.capacity() || keysStart + buffer.getInt(keyOffsetsStart + 4 * numberOfSymbols) != buffer.capacity()) {
+			throw new IOException("GeneInfoSnapshot, truncated file: " + file);
+		}
+	}
+
+	/**
+	 * Returns the GeneInfo of the given gene from the snapshot, or null if it is not there.
+	 * A new GeneInfo is decoded on every call.
+	 *
+	 * @param geneID String
+	 * @return GeneInfo
+	 */
+	public static GeneInfo getGeneInfo(String geneID) {
+
+		GeneInfoSnapshot snapshot = current;
+		if (snapshot == null || geneID == null) return null;
+		int id = CacheCodec.parseGeneID(geneID);
+		if (id < 0) return null;
+
+		int low = 0;
+		int high = snapshot.numberOfGenes - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midID = snapshot.buffer.getInt(snapshot.geneIDsStart + 4 * mid);
+			if (midID < id) low = mid + 1;
+			else if (midID > id) high = mid - 1;
+			else {
+				int start = snapshot.buffer.getInt(snapshot.recordOffsetsStart + 4 * mid);
+				int end = snapshot.buffer.getInt(snapshot.recordOffsetsStart + 4 * (mid + 1));
+				byte[] record = new byte[end - start];
+				snapshot.get(start, record);
+				return CacheCodec.decodeGeneInfo(record);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the ids of the genes of the given organism (taxname) whose preferred symbol is
+	 * the given symbol (ignoring case), in gene id order.  Returns null if there is no snapshot.
+	 *
+	 * @param organism String
+	 * @param symbol String
+	 * @return List<String>
+	 */
+	public static List<String> getGeneIDs(String organism, String symbol) {
+
+		GeneInfoSnapshot snapshot = current;
+		if (snapshot == null) return null;
+		byte[] key = toKey(organism, symbol);
+
+		// find first matching key
+		int low = 0;
+		int high = snapshot.numberOfSymbols;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (snapshot.compareKey(mid, key) < 0) low = mid + 1;
+			else high = mid;
+		}
+		List<String> toReturn = new ArrayList<String>();
+		for (int lc = low; lc < snapshot.numberOfSymbols && snapshot.compareKey(lc, key) == 0; lc++) {
+			toReturn.add(Integer.toString(snapshot.buffer.getInt(snapshot.symbolGeneIDsStart + 4 * lc)));
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the number of genes in the snapshot.
+	 *
+	 * @return int
+	 */
+	public static int getSize() {
+		GeneInfoSnapshot snapshot = current;
+		return (snapshot == null) ? 0 : snapshot.numberOfGenes;
+	}
+
+	/**
+	 * Maps the snapshot file, if there is one.
+	 */
+	public static void load() {
+
+		File file = getSnapshotFile();
+		if (!file.exists()) {
+			if (log.isInfoEnabled()) {
+				log.info("GeneInfoSnapshot.load(), no snapshot found at: " + file);
+			}
+			return;
+		}
+		try {
+			current = new GeneInfoSnapshot(file);
+			if (log.isInfoEnabled()) {
+				log.info("GeneInfoSnapshot.load(), " + current.numberOfGenes + " genes in: " + file);
+			}
+		}
+		catch (IOException e) {
+			log.error("GeneInfoSnapshot.load(), cannot load: " + file, e);
+		}
+	}
+
+	/**
+	 * Drops the current snapshot and removes its file.
+	 */
+	public static synchronized void clear() {
+		current = null;
+		File file = getSnapshotFile();
+		if (file.exists() && !file.delete()) {
+			log.warn("GeneInfoSnapshot.clear(), cannot delete: " + file);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the given gene info cache and swaps it in.
+	 *
+	 * @param cache Cache
+	 * @throws IOException
+	 */
+	static synchronized void build(Cache cache) throws IOException {
+
+		// gene ids in order
+		List<Integer> geneIDs = new ArrayList<Integer>();
+		for (Object key : cache.getKeys()) {
+			int id = CacheCodec.parseGeneID(key.toString());
+			if (id >= 0) geneIDs.add(id);
+		}
+		Collections.sort(geneIDs);
+
+		File file = getSnapshotFile();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		file.getParentFile().mkdirs();
+
+		int numberOfGenes = 0;
+		int[] ids = new int[geneIDs.size()];
+		long[] recordOffsets = new long[geneIDs.size() + 1];
+		List<byte[]> keys = new ArrayList<byte[]>();
+		final List<Integer> keyGeneIDs = new ArrayList<Integer>();
+
+		// header & records
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+		try {
+			out.write(new byte[HEADER_SIZE]);
+			for (Integer id : geneIDs) {
+				Element element = cache.get(id.toString());
+				if (element == null) continue;
+				Object value = element.getObjectValue();
+				GeneInfo geneInfo = EhCache.toGeneInfo(value);
+				if (geneInfo == null) continue;
+				byte[] record = (value instanceof byte[]) ? (byte[])value : CacheCodec.encodeGeneInfo(geneInfo, false);
+				ids[numberOfGenes] = id;
+				recordOffsets[numberOfGenes++] = out.size();
+				out.write(record);
+				if (geneInfo.getGeneOrganism() != null && geneInfo.getGeneSymbol() != null) {
+					keys.add(toKey(geneInfo.getGeneOrganism(), geneInfo.getGeneSymbol()));
+					keyGeneIDs.add(id);
+				}
+				if (out.size() < 0) throw new IOException("GeneInfoSnapshot.build(), snapshot too large");
+			}
+			recordOffsets[numberOfGenes] = out.size();
+
+			// gene id index
+			int geneIDsStart = out.size();
+			for (int lc = 0; lc < numberOfGenes; lc++) out.writeInt(ids[lc]);
+			for (int lc = 0; lc <= numberOfGenes; lc++) out.writeInt((int)recordOffsets[lc]);
+
+			// symbol index, sorted by key then gene id
+			final List<byte[]> sortKeys = keys;
+			Integer[] order = new Integer[keys.size()];
+			for (int lc = 0; lc < order.length; lc++) order[lc] = lc;
+			Arrays.sort(order, new Comparator<Integer>() {
+					public int compare(Integer i1, Integer i2) {
+						int diff = BYTE_ORDER.compare(sortKeys.get(i1), sortKeys.get(i2));
+						return (diff != 0) ? diff : keyGeneIDs.get(i1).compareTo(keyGeneIDs.get(i2));
+					}
+				});
+			int keyOffsetsStart = out.size();
+			int keyOffset = 0;
+			for (Integer index : order) {
+				out.writeInt(keyOffset);
+				keyOffset += keys.get(index).length;
+			}
+			out.writeInt(keyOffset);
+			for (Integer index : order) out.writeInt(keyGeneIDs.get(index));
+			for (Integer index : order) out.write(keys.get(index));
+			if (out.size() < 0) throw new IOException("GeneInfoSnapshot.build(), snapshot too large");
+			out.close();
+
+			// fill in header
+			RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+			try {
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(numberOfGenes);
+				raf.writeInt(keys.size());
+				raf.writeInt(geneIDsStart);
+				raf.writeInt(keyOffsetsStart);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(file)) {
+			// some platforms will not rename over an existing file
+			file.delete();
+			if (!tmpFile.renameTo(file)) throw new IOException("GeneInfoSnapshot.build(), cannot move " + tmpFile + " to " + file);
+		}
+		current = new GeneInfoSnapshot(file);
+		if (log.isInfoEnabled()) {
+			log.info("GeneInfoSnapshot.build(), " + numberOfGenes + " genes written to: " + file);
+		}
+	}
+
+	/**
+	 * Compares the symbol key at the given index with the given key.
+	 */
+	private int compareKey(int index, byte[] key) {
+
+		int start = buffer.getInt(keyOffsetsStart + 4 * index);
+		int length = buffer.getInt(keyOffsetsStart + 4 * (index + 1)) - start;
+		int common = Math.min(length, key.length);
+		for (int lc = 0; lc < common; lc++) {
+			int diff = (buffer.get(keysStart + start + lc) & 0xff) - (key[lc] & 0xff);
+			if (diff != 0) return diff;
+		}
+		return length - key.length;
+	}
+
+	private void get(int position, byte[] bytes) {
+		for (int lc = 0; lc < bytes.length; lc++) {
+			bytes[lc] = buffer.get(position + lc);
+		}
+	}
+
+	private static byte[] toKey(String organism, String symbol) {
+		try {
+			return (organism.trim().toLowerCase() + "\t" + symbol.trim().toLowerCase()).getBytes("UTF-8");
+		}
+		catch (java.io.UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static File getSnapshotFile() {
+		return new File(BioGeneProperties.getString("cache.path", System.getProperty("java.io.tmpdir")), FILE_NAME);
+	}
+}
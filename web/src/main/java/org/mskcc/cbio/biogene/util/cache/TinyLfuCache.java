@@ -0,0 +1,349 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded in-memory cache with W-TinyLFU eviction.
+ *
+ * New entries go to a small LRU window (1% of the entries); entries leaving the window
+ * compete with the least recently used entry of the main space (a segmented LRU with
+ * probation and protected segments) and are only admitted if they have been asked for
+ * more often, as estimated by a count-min sketch of 4 bit counters which are halved
+ * every 10 * maximumSize accesses.  Popular entries therefore survive scans of entries
+ * that are asked for once.
+ *
+ * Lookups read a ConcurrentHashMap and never block: the eviction policy is updated
+ * under a lock, and when the lock is busy a lookup is simply not recorded.
+ */
+public class TinyLfuCache<K, V> {
+
+	/**
+	 * An entry, linked into the queue of its segment.
+	 */
+	private static class Node<K, V> {
+		K key;
+		volatile V value;
+		int segment;
+		Node<K, V> prev, next;
+	}
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	// some members
+	private int maximumSize;
+	private int[] maximumSegmentSizes;
+	private int[] segmentSizes = new int[3];
+	private Node<K, V>[] heads;
+	private ConcurrentHashMap<K, Node<K, V>> data;
+	private ReentrantLock lock = new ReentrantLock();
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	// frequency sketch
+	private long[] table;
+	private int tableMask;
+	private int additions;
+	private int sampleSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maximumSize int (> 0)
+	 */
+	@SuppressWarnings("unchecked")
+	public TinyLfuCache(int maximumSize) {
+
+		this.maximumSize = maximumSize;
+		int window = Math.max(1, maximumSize / 100);
+		int main = Math.max(1, maximumSize - window);
+		// window, main (probation + protected), protected
+		this.maximumSegmentSizes = new int[] { window, main, (int)(main * 0.8) };
+		this.data = new ConcurrentHashMap<K, Node<K, V>>(Math.min(maximumSize, 1 << 16));
+		this.heads = new Node[3];
+		for (int lc = 0; lc < heads.length; lc++) {
+			heads[lc] = new Node<K, V>();
+			heads[lc].prev = heads[lc].next = heads[lc];
+		}
+
+		// 16 counters per long, at least one counter per entry
+		int tableSize = Integer.highestOneBit(Math.max(1, maximumSize / 16 * 4 - 1)) << 1;
+		this.table = new long[Math.max(8, tableSize)];
+		this.tableMask = table.length - 1;
+		this.sampleSize = 10 * Math.max(maximumSize, 16);
+	}
+
+	/**
+	 * Returns the value of the given key, or null.
+	 *
+	 * @param key K
+	 * @return V
+	 */
+	public V get(K key) {
+
+		Node<K, V> node = data.get(key);
+		if (node == null) {
+			misses.incrementAndGet();
+			if (lock.tryLock()) {
+				try {
+					increment(key);
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+			return null;
+		}
+		hits.incrementAndGet();
+		V value = node.value;
+		if (lock.tryLock()) {
+			try {
+				increment(key);
+				if (node.prev != null) onHit(node);
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Stores a value, possibly evicting another (or not admitting this one).
+	 *
+	 * @param key K
+	 * @param value V
+	 */
+	public void put(K key, V value) {
+
+		lock.lock();
+		try {
+			Node<K, V> node = data.get(key);
+			if (node != null) {
+				node.value = value;
+				onHit(node);
+				return;
+			}
+			node = new Node<K, V>();
+			node.key = key;
+			node.value = value;
+			data.put(key, node);
+			link(node, WINDOW);
+			if (segmentSizes[WINDOW] > maximumSegmentSizes[WINDOW]) {
+				admit(heads[WINDOW].prev);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the given key.
+	 *
+	 * @param key K
+	 */
+	public void remove(K key) {
+
+		lock.lock();
+		try {
+			Node<K, V> node = data.remove(key);
+			if (node != null) unlink(node);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every entry.  Frequencies are kept.
+	 */
+	public void clear() {
+
+		lock.lock();
+		try {
+			data.clear();
+			for (int lc = 0; lc < heads.length; lc++) {
+				heads[lc].prev = heads[lc].next = heads[lc];
+				segmentSizes[lc] = 0;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the keys of the entries.
+	 *
+	 * @return List<K>
+	 */
+	public List<K> getKeys() {
+		return new ArrayList<K>(data.keySet());
+	}
+
+	public int getSize() { return data.size(); }
+	public int getMaximumSize() { return maximumSize; }
+	public long getHits() { return hits.get(); }
+	public long getMisses() { return misses.get(); }
+
+	/**
+	 * Moves an entry that was asked for again.
+	 */
+	private void onHit(Node<K, V> node) {
+
+		if (node.segment == PROBATION) {
+			// promote, demoting the least recently used protected entry if needed
+			unlink(node);
+			link(node, PROTECTED);
+			if (segmentSizes[PROTECTED] > maximumSegmentSizes[PROTECTED]) {
+				Node<K, V> demoted = heads[PROTECTED].prev;
+				unlink(demoted);
+				link(demoted, PROBATION);
+			}
+		}
+		else {
+			int segment = node.segment;
+			unlink(node);
+			link(node, segment);
+		}
+	}
+
+	/**
+	 * Moves the given entry out of the window, into the main space if it is asked for
+	 * more often than the entry it would evict.
+	 */
+	private void admit(Node<K, V> candidate) {
+
+		unlink(candidate);
+		if (segmentSizes[PROBATION] + segmentSizes[PROTECTED] < maximumSegmentSizes[PROBATION]) {
+			link(candidate, PROBATION);
+			return;
+		}
+		Node<K, V> victim = heads[PROBATION].prev;
+		if (victim == heads[PROBATION]) victim = heads[PROTECTED].prev;
+		if (frequency(candidate.key) > frequency(victim.key)) {
+			unlink(victim);
+			data.remove(victim.key);
+			link(candidate, PROBATION);
+		}
+		else {
+			data.remove(candidate.key);
+		}
+	}
+
+	private void link(Node<K, V> node, int segment) {
+		Node<K, V> head = heads[segment];
+		node.segment = segment;
+		node.next = head.next;
+		node.prev = head;
+		head.next.prev = node;
+		head.next = node;
+		segmentSizes[segment]++;
+	}
+
+	private void unlink(Node<K, V> node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = node.next = null;
+		segmentSizes[node.segment]--;
+	}
+
+	/**
+	 * Counts an access of the given key in the sketch, halving all counters
+	 * once sampleSize accesses have been counted.
+	 */
+	private void increment(Object key) {
+
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int lc = 0; lc < 4; lc++) {
+			added |= incrementAt(indexOf(hash, lc), offsetOf(hash, lc));
+		}
+		if (added && ++additions == sampleSize) {
+			for (int lc = 0; lc < table.length; lc++) {
+				table[lc] = (table[lc] >>> 1) & 0x7777777777777777L;
+			}
+			additions /= 2;
+		}
+	}
+
+	/**
+	 * Returns the estimated number of accesses of the given key (0 - 15).
+	 */
+	private int frequency(Object key) {
+
+		int hash = spread(key.hashCode());
+		int frequency = Integer.MAX_VALUE;
+		for (int lc = 0; lc < 4; lc++) {
+			int count = (int)((table[indexOf(hash, lc)] >>> (offsetOf(hash, lc) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	private boolean incrementAt(int index, int offset) {
+		long mask = 0xfL << (offset << 2);
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << (offset << 2);
+			return true;
+		}
+		return false;
+	}
+
+	private int indexOf(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return ((int)h) & tableMask;
+	}
+
+	private int offsetOf(int hash, int row) {
+		return ((hash >>> (row << 3)) & 3) + (row << 2);
+	}
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+}
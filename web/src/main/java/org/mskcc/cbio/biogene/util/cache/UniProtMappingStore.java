@@ -0,0 +1,339 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import org.apache.log4j.Logger;
+
+import org.mskcc.cbio.biogene.util.BioGeneProperties;
+
+import java.util.Arrays;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.BufferedOutputStream;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only entrez gene id to uniprot accession store, kept in a memory-mapped file.
+ *
+ * The store is built in one pass from the entrez id / uniprot accession tsv and
+ * written to ${cache.path}/uniprot-mapping.bin as:
+ *
+ *   int magic, int version, int number of genes, int data length,
+ *   int[number of genes] sorted gene ids,
+ *   int[number of genes + 1] offsets into data,
+ *   byte[data length] accessions of each gene, separated by ':'
+ *
+ * Lookups binary search the mapped gene ids and only allocate the returned string.
+ * A rebuilt store replaces the current one atomically.
+ */
+public class UniProtMappingStore {
+
+	// some statics
+    private static Logger log = Logger.getLogger(UniProtMappingStore.class);
+
+	public static final String FILE_NAME = "uniprot-mapping.bin";
+
+	private static final int MAGIC = 0x55504d53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final byte DELIMITER = ':';
+
+	private static volatile UniProtMappingStore current;
+
+	// some members
+	private MappedByteBuffer buffer;
+	private int numberOfGenes;
+	private int offsetsStart;
+	private int dataStart;
+
+	/**
+	 * Constructor, maps the given store file.
+	 *
+	 * @param file File
+	 * @throws IOException
+	 */
+	private UniProtMappingStore(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close();
+		}
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("UniProtMappingStore, unsupported file: " + file);
+		}
+		numberOfGenes = buffer.getInt(8);
+		offsetsStart = HEADER_SIZE + 4 * numberOfGenes;
+		dataStart = offsetsStart + 4 * (numberOfGenes + 1);
+		if (dataStart + buffer.getInt(12) != buffer.capacity()) {
+			throw new IOException("UniProtMappingStore, truncated file: " + file);
+		}
+	}
+
+	/**
+	 * Returns the uniprot accessions of the given gene, separated by ':', or null if there are none.
+	 *
+	 * @param geneID String
+	 * @return String
+	 */
+	public static String getMapping(String geneID) {
+
+		UniProtMappingStore store = current;
+		if (store == null || geneID == null) return null;
+		int id = CacheCodec.parseGeneID(geneID);
+		return (id < 0) ? null : store.get(id);
+	}
+
+	/**
+	 * Returns the number of genes with a mapping.
+	 *
+	 * @return int
+	 */
+	public static int getSize() {
+		UniProtMappingStore store = current;
+		return (store == null) ? 0 : store.numberOfGenes;
+	}
+
+	/**
+	 * Maps the store file left by a previous build, if there is one.
+	 */
+	public static void load() {
+
+		File file = getStoreFile();
+		if (!file.exists()) {
+			if (log.isInfoEnabled()) {
+				log.info("UniProtMappingStore.load(), no store found at: " + file);
+			}
+			return;
+		}
+		try {
+			current = new UniProtMappingStore(file);
+			if (log.isInfoEnabled()) {
+				log.info("UniProtMappingStore.load(), loaded mappings for " + current.numberOfGenes + " genes from: " + file);
+			}
+		}
+		catch (IOException e) {
+			log.error("UniProtMappingStore.load(), cannot load: " + file, e);
+		}
+	}
+
+	/**
+	 * Drops the current store and removes its file.
+	 */
+	public static synchronized void clear() {
+		current = null;
+		File file = getStoreFile();
+		if (file.exists() && !file.delete()) {
+			log.warn("UniProtMappingStore.clear(), cannot delete: " + file);
+		}
+	}
+
+	/**
+	 * Builds a new store from the given tsv (entrez gene id, tab, uniprot accession per line)
+	 * and swaps it in.  Lines without a numeric gene id or an accession are skipped,
+	 * as are accessions repeated for a gene.
+	 *
+	 * @param tsv File
+	 * @throws IOException
+	 */
+	public static synchronized void build(File tsv) throws IOException {
+
+		// read rows: gene id & accession
+		int numberOfRows = 0;
+		int skipped = 0;
+		int[] rowGeneIDs = new int[1024];
+		int[] rowStarts = new int[1025];
+		byte[] accessions = new byte[16 * 1024];
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tsv), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				int geneID = (tab > 0) ? CacheCodec.parseGeneID(line.substring(0, tab)) : -1;
+				String accession = (tab > 0) ? line.substring(tab + 1).trim() : "";
+				int end = accession.indexOf('\t');
+				if (end >= 0) accession = accession.substring(0, end);
+				if (geneID < 0 || accession.length() == 0 || accession.indexOf(DELIMITER) >= 0) {
+					skipped++;
+					continue;
+				}
+				byte[] bytes = accession.getBytes("UTF-8");
+				if (bytes.length != accession.length()) {
+					// accessions are plain ascii
+					skipped++;
+					continue;
+				}
+				if (numberOfRows == rowGeneIDs.length) {
+					rowGeneIDs = Arrays.copyOf(rowGeneIDs, numberOfRows * 2);
+					rowStarts = Arrays.copyOf(rowStarts, numberOfRows * 2 + 1);
+				}
+				int start = rowStarts[numberOfRows];
+				if (start + bytes.length > accessions.length) {
+					accessions = Arrays.copyOf(accessions, Math.max(accessions.length * 2, start + bytes.length));
+				}
+				System.arraycopy(bytes, 0, accessions, start, bytes.length);
+				rowGeneIDs[numberOfRows] = geneID;
+				rowStarts[++numberOfRows] = start + bytes.length;
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		// order rows by gene id, keeping file order within a gene
+		long[] order = new long[numberOfRows];
+		for (int lc = 0; lc < numberOfRows; lc++) {
+			order[lc] = ((long)rowGeneIDs[lc] << 32) | lc;
+		}
+		Arrays.sort(order);
+
+		// write the store next to its final location, then move it into place
+		File file = getStoreFile();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		file.getParentFile().mkdirs();
+		int numberOfGenes = 0;
+		int[] geneIDs = new int[numberOfRows];
+		int[] offsets = new int[numberOfRows + 1];
+		byte[] data = new byte[accessions.length + numberOfRows];
+		int dataLength = 0;
+		for (int lc = 0; lc < numberOfRows; ) {
+			int geneID = (int)(order[lc] >>> 32);
+			int geneStart = dataLength;
+			for (; lc < numberOfRows && (int)(order[lc] >>> 32) == geneID; lc++) {
+				int row = (int)order[lc];
+				int start = rowStarts[row];
+				int length = rowStarts[row + 1] - start;
+				if (contains(data, geneStart, dataLength, accessions, start, length)) continue;
+				if (dataLength > geneStart) data[dataLength++] = DELIMITER;
+				System.arraycopy(accessions, start, data, dataLength, length);
+				dataLength += length;
+			}
+			geneIDs[numberOfGenes] = geneID;
+			offsets[numberOfGenes++] = geneStart;
+		}
+		offsets[numberOfGenes] = dataLength;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numberOfGenes);
+			out.writeInt(dataLength);
+			for (int lc = 0; lc < numberOfGenes; lc++) out.writeInt(geneIDs[lc]);
+			for (int lc = 0; lc <= numberOfGenes; lc++) out.writeInt(offsets[lc]);
+			out.write(data, 0, dataLength);
+		}
+		finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(file)) {
+			// some platforms will not rename over an existing file
+			file.delete();
+			if (!tmpFile.renameTo(file)) throw new IOException("UniProtMappingStore.build(), cannot move " + tmpFile + " to " + file);
+		}
+
+		current = new UniProtMappingStore(file);
+		if (log.isInfoEnabled()) {
+			log.info("UniProtMappingStore.build(), " + numberOfRows + " rows read, " + skipped + " skipped, " +
+					 numberOfGenes + " genes stored in: " + file);
+		}
+	}
+
+	/**
+	 * Looks up the accessions of the given gene.
+	 *
+	 * @param geneID int
+	 * @return String
+	 */
+	private String get(int geneID) {
+
+		int low = 0;
+		int high = numberOfGenes - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midID = buffer.getInt(HEADER_SIZE + 4 * mid);
+			if (midID < geneID) low = mid + 1;
+			else if (midID > geneID) high = mid - 1;
+			else {
+				int start = buffer.getInt(offsetsStart + 4 * mid);
+				int end = buffer.getInt(offsetsStart + 4 * (mid + 1));
+				char[] chars = new char[end - start];
+				for (int lc = 0; lc < chars.length; lc++) {
+					chars[lc] = (char)(buffer.get(dataStart + start + lc) & 0xff);
+				}
+				return new String(chars);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the store file.
+	 *
+	 * @return File
+	 */
+	private static File getStoreFile() {
+		return new File(BioGeneProperties.getString("cache.path", System.getProperty("java.io.tmpdir")), FILE_NAME);
+	}
+
+	/**
+	 * Returns true if data[from, to) already holds the given accession as one of its ':' separated entries.
+	 */
+	private static boolean contains(byte[] data, int from, int to, byte[] accessions, int start, int length) {
+
+		int entryStart = from;
+		for (int lc = from; lc <= to; lc++) {
+			if (lc == to || data[lc] == DELIMITER) {
+				if (lc - entryStart == length) {
+					boolean equal = true;
+					for (int i = 0; i < length && equal; i++) {
+						equal = (data[entryStart + i] == accessions[start + i]);
+					}
+					if (equal) return true;
+				}
+				entryStart = lc + 1;
+			}
+		}
+		return false;
+	}
+}
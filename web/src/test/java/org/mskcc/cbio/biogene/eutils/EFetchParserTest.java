@@ -0,0 +1,167 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares EFetchParser with the JDOM parser it replaced on saved efetch responses
+ * (src/test/resources/efetch).
+ */
+public class EFetchParserTest {
+
+	private static Pattern RECORD = Pattern.compile("<Entrezgene>.*?</Entrezgene>", Pattern.DOTALL);
+	private static Pattern GENE_ID = Pattern.compile("<Gene-track_geneid>(\\d+)</Gene-track_geneid>");
+
+	@Test
+	public void singleRecordsMatchJDOMParser() throws Exception {
+
+		for (String fixture : new String[] { "tp53.xml", "brca1.xml" }) {
+			String content = read(fixture);
+			// neither parser sets the gene id of a single record, EFetch sets the requested one
+			GeneInfo expected = JDOMEFetchParser.parse(content);
+			assertNotNull(fixture, expected);
+			assertEquals(fixture, toJSON(expected), toJSON(EFetchParser.parse(content)));
+			assertEquals(fixture, toJSON(expected), toJSON(EFetchParser.parse(stream(content))));
+		}
+	}
+
+	@Test
+	public void batchMatchesJDOMParserRecordByRecord() throws Exception {
+
+		String content = read("batch.xml");
+		List<String> expected = new ArrayList<String>();
+		List<String> expectedFailures = new ArrayList<String>();
+		Matcher record = RECORD.matcher(content);
+		while (record.find()) {
+			GeneInfo geneInfo = parseWithJDOM(toDocument(record.group()));
+			if (geneInfo != null) expected.add(toJSON(geneInfo));
+			else expectedFailures.add(getGeneID(record.group()));
+		}
+		assertEquals(19, expected.size() + expectedFailures.size());
+		assertFalse("the batch should contain malformed records", expectedFailures.isEmpty());
+
+		List<String> failedIDs = new ArrayList<String>();
+		assertEquals(expected, toJSON(EFetchParser.parseAll(content, failedIDs)));
+		assertEquals(expectedFailures, failedIDs);
+
+		failedIDs.clear();
+		assertEquals(expected, toJSON(EFetchParser.parseAll(stream(content), failedIDs)));
+		assertEquals(expectedFailures, failedIDs);
+	}
+
+	@Test
+	public void malformedRecordFailsLikeJDOMParser() throws Exception {
+
+		String content = read("malformed.xml");
+		assertNull(parseWithJDOM(content));
+		assertNull(EFetchParser.parse(content));
+		List<String> failedIDs = new ArrayList<String>();
+		assertTrue(EFetchParser.parseAll(content, failedIDs).isEmpty());
+		assertEquals(getGeneID(content), failedIDs.get(0));
+	}
+
+	@Test
+	public void truncatedDocumentKeepsCompleteRecords() throws Exception {
+
+		// the JDOM parser rejects the whole document, records before the cut are kept now
+		String content = read("truncated.xml");
+		assertNull(parseWithJDOM(content));
+		Matcher record = RECORD.matcher(content);
+		assertTrue(record.find());
+		List<GeneInfo> parsed = EFetchParser.parseAll(content, new ArrayList<String>());
+		assertEquals(1, parsed.size());
+		assertEquals(toJSON(parseWithJDOM(toDocument(record.group()))), toJSON(parsed.get(0)));
+	}
+
+	/**
+	 * parseAll sets the gene id from the record, as EFetch did for the JDOM parser.
+	 */
+	private static GeneInfo parseWithJDOM(String content) {
+		GeneInfo geneInfo = JDOMEFetchParser.parse(content);
+		if (geneInfo != null) geneInfo.setGeneId(getGeneID(content));
+		return geneInfo;
+	}
+
+	private static String getGeneID(String content) {
+		Matcher geneID = GENE_ID.matcher(content);
+		return (geneID.find()) ? geneID.group(1) : null;
+	}
+
+	private static String toDocument(String record) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<Entrezgene-Set>\n" + record + "\n</Entrezgene-Set>\n";
+	}
+
+	private static List<String> toJSON(List<GeneInfo> geneInfos) throws IOException {
+		List<String> toReturn = new ArrayList<String>();
+		for (GeneInfo geneInfo : geneInfos) toReturn.add(toJSON(geneInfo));
+		return toReturn;
+	}
+
+	private static String toJSON(GeneInfo geneInfo) throws IOException {
+		if (geneInfo == null) return null;
+		StringWriter writer = new StringWriter();
+		JSONWriter.writeGeneInfo(geneInfo, writer);
+		return writer.toString();
+	}
+
+	private static InputStream stream(String content) throws IOException {
+		return new ByteArrayInputStream(content.getBytes("UTF-8"));
+	}
+
+	private static String read(String fixture) throws IOException {
+		InputStream in = EFetchParserTest.class.getResourceAsStream("/efetch/" + fixture);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) bytes.write(buffer, 0, read);
+			return new String(bytes.toByteArray(), "UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
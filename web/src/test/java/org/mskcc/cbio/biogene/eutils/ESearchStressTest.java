@@ -0,0 +1,207 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs many esearch calls at once against a stub connector and checks that every
+ * call gets back its own return code, ids and count (SearchResult replaced statics
+ * shared by all requests).
+ */
+public class ESearchStressTest {
+
+	private static int THREADS = 16;
+	private static int SEARCHES_PER_THREAD = 250;
+	private static String ORGANISM = "homo sapiens";
+	private static Pattern QUERY = Pattern.compile("Q(\\d+)");
+
+	private Connector savedConnector;
+
+	@Before
+	public void installStub() {
+		savedConnector = Retriever.getConnector();
+		Retriever.setConnector(new StubConnector());
+	}
+
+	@After
+	public void restoreConnector() {
+		Retriever.setConnector(savedConnector);
+	}
+
+	@Test
+	public void concurrentSearchesKeepTheirOwnResults() throws Exception {
+
+		assertNoMismatches(new Search() {
+				public SearchResult search(String query) {
+					return ESearch.search(ESearch.SEARCH_MODE.FULL_NAME, query, ORGANISM, 0, 100);
+				}
+			});
+	}
+
+	@Test
+	public void concurrentCascadesKeepTheirOwnResults() throws Exception {
+
+		final List<ESearch.SEARCH_MODE> modes = Arrays.asList(ESearch.SEARCH_MODE.PREF, ESearch.SEARCH_MODE.SYMBOL,
+															  ESearch.SEARCH_MODE.FULL_NAME, ESearch.SEARCH_MODE.FREE_TEXT);
+		assertNoMismatches(new Search() {
+				public SearchResult search(String query) {
+					return ParallelSearch.search(modes, query, ORGANISM, 100);
+				}
+			});
+	}
+
+	@Test
+	public void cascadeWithFailedModeIsNotReportedAsNotFound() throws Exception {
+
+		// the [pref] search fails, every other mode finds nothing
+		Retriever.setConnector(new Connector() {
+				public <T> T execute(String url, ResponseHandler<T> handler) throws Exception {
+					String content = (url.contains("[pref]")) ? "<html><body>service unavailable</body></html>" :
+						"<eSearchResult><Count>0</Count><IdList></IdList></eSearchResult>";
+					return handler.handle(new ByteArrayInputStream(content.getBytes("UTF-8")), "UTF-8");
+				}
+			});
+		List<ESearch.SEARCH_MODE> modes = Arrays.asList(ESearch.SEARCH_MODE.PREF, ESearch.SEARCH_MODE.FULL_NAME);
+		assertEquals(EUtils.RETURN_CODES.FAILURE, ParallelSearch.search(modes, "Q1", ORGANISM, 100).getCode());
+		modes = Arrays.asList(ESearch.SEARCH_MODE.FULL_NAME, ESearch.SEARCH_MODE.FREE_TEXT);
+		assertEquals(EUtils.RETURN_CODES.ID_NOT_FOUND, ParallelSearch.search(modes, "Q1", ORGANISM, 100).getCode());
+	}
+
+	private interface Search {
+		SearchResult search(String query);
+	}
+
+	/**
+	 * Runs the given search for random queries on many threads, compares every result with
+	 * what the stub returns for its query.
+	 */
+	private static void assertNoMismatches(final Search search) throws Exception {
+
+		final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int lc = 0; lc < THREADS; lc++) {
+				futures.add(threads.submit(new Callable<Void>() {
+						public Void call() {
+							Random random = new Random();
+							for (int lc = 0; lc < SEARCHES_PER_THREAD; lc++) {
+								int n = random.nextInt(1000);
+								SearchResult result = search.search("Q" + n);
+								if (result.getCode() != getCode(n) || !result.getIDs().equals(getIDs(n)) ||
+									result.getTotalCount() != getTotalCount(n)) {
+									mismatches.add("Q" + n + ": " + result.getCode() + " " + result.getIDs() + " " + result.getTotalCount());
+								}
+							}
+							return null;
+						}
+					}));
+			}
+			for (Future<?> future : futures) future.get();
+		}
+		finally {
+			threads.shutdownNow();
+		}
+		assertTrue(mismatches.size() + " mismatch(es), first: " + (mismatches.isEmpty() ? "" : mismatches.get(0)),
+				   mismatches.isEmpty());
+	}
+
+	// Q<n>: found by the full name mode if n % 3 == 0, found nowhere if n % 3 == 1, else esearch fails
+
+	private static EUtils.RETURN_CODES getCode(int n) {
+		switch (n % 3) {
+		    case 0: return EUtils.RETURN_CODES.SUCCESS;
+		    case 1: return EUtils.RETURN_CODES.ID_NOT_FOUND;
+		    default: return EUtils.RETURN_CODES.FAILURE;
+		}
+	}
+
+	private static List<String> getIDs(int n) {
+		List<String> toReturn = new ArrayList<String>();
+		if (n % 3 == 0) {
+			for (int lc = 0; lc <= n % 7; lc++) toReturn.add(Integer.toString(n * 10 + lc));
+		}
+		return toReturn;
+	}
+
+	private static int getTotalCount(int n) {
+		// larger than the number of ids returned, as if retmax was hit
+		return (n % 3 == 0) ? getIDs(n).size() + n : 0;
+	}
+
+	/**
+	 * Answers esearch urls from the query number, after a random delay to interleave calls.
+	 */
+	private static class StubConnector implements Connector {
+
+		private Random random = new Random();
+
+		public <T> T execute(String url, ResponseHandler<T> handler) throws Exception {
+
+			Matcher query = QUERY.matcher(url);
+			assertTrue(url, query.find());
+			int n = Integer.parseInt(query.group(1));
+			Thread.sleep(random.nextInt(3));
+
+			String content;
+			if (n % 3 == 2) {
+				content = "<html><body>service unavailable</body></html>";
+			}
+			else if (n % 3 == 0 && url.contains("[gene+full+name]")) {
+				StringBuilder ids = new StringBuilder();
+				for (String id : getIDs(n)) ids.append("<Id>").append(id).append("</Id>");
+				content = "<eSearchResult><Count>" + getTotalCount(n) + "</Count><IdList>" + ids + "</IdList></eSearchResult>";
+			}
+			else {
+				content = "<eSearchResult><Count>0</Count><IdList></IdList></eSearchResult>";
+			}
+			return handler.handle(new ByteArrayInputStream(content.getBytes("UTF-8")), "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,132 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import flexjson.JSONSerializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Compares JSONWriter with the flexjson serialization it replaced (the format clients parse)
+ * on the genes of saved efetch responses (src/test/resources/efetch) and on hand-made genes.
+ */
+public class JSONWriterTest {
+
+	@Test
+	public void fixturesMatchFlexjson() throws Exception {
+
+		for (String fixture : new String[] { "tp53.xml", "brca1.xml", "batch.xml" }) {
+			List<GeneInfo> geneInfos = EFetchParser.parseAll(read(fixture), new ArrayList<String>());
+			assertFalse(fixture, geneInfos.isEmpty());
+			assertMatchesFlexjson(fixture, toList(geneInfos, EUtils.RETURN_CODES.SUCCESS));
+			for (GeneInfo geneInfo : geneInfos) {
+				assertMatchesFlexjson(fixture + ", gene " + geneInfo.getGeneId(), toList(geneInfo));
+			}
+		}
+	}
+
+	@Test
+	public void nullFieldsAndEmptyRIFsMatchFlexjson() throws Exception {
+
+		GeneInfo geneInfo = new GeneInfo();
+		geneInfo.setGeneId("1");
+		assertTrue(geneInfo.getGeneRif().isEmpty());
+		assertMatchesFlexjson("bare gene", toList(geneInfo));
+		assertMatchesFlexjson("no genes", toList(new ArrayList<GeneInfo>(), EUtils.RETURN_CODES.ID_NOT_FOUND));
+	}
+
+	@Test
+	public void escapingMatchesFlexjson() throws Exception {
+
+		GeneInfo geneInfo = new GeneInfo();
+		geneInfo.setGeneId("7157");
+		geneInfo.setGeneSymbol("TP53 \"quoted\" back\\slash /slash/");
+		geneInfo.setGeneSummary("tab\tnewline\nreturn\rformfeed\fbackspace\b control\u0001\u001f del\u007f");
+		geneInfo.setGeneDescription("<tag> & 'apostrophe' \u00e9\u00fc \u4e2d\u6587 \u2028\u2029 \ud83e\uddec");
+		geneInfo.setGeneAliases("");
+		GeneRIF geneRIF = new GeneRIF();
+		geneRIF.setPubmedId(12345);
+		geneRIF.setRif("rif with \"quotes\" and \u00b5");
+		geneInfo.getGeneRif().add(geneRIF);
+		geneRIF = new GeneRIF();
+		geneRIF.setPubmedId(-1);
+		geneInfo.getGeneRif().add(geneRIF);
+		assertMatchesFlexjson("escaping", toList(geneInfo));
+	}
+
+	private static void assertMatchesFlexjson(String message, GeneInfoList geneInfoList) throws IOException {
+
+		byte[] expected = new JSONSerializer().exclude("*.class").deepSerialize(geneInfoList).getBytes("UTF-8");
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		JSONWriter.write(geneInfoList, actual);
+		assertEquals(message, new String(expected, "UTF-8"), new String(actual.toByteArray(), "UTF-8"));
+		assertArrayEquals(message, expected, actual.toByteArray());
+	}
+
+	private static GeneInfoList toList(GeneInfo geneInfo) {
+		List<GeneInfo> geneInfos = new ArrayList<GeneInfo>();
+		geneInfos.add(geneInfo);
+		return toList(geneInfos, EUtils.RETURN_CODES.SUCCESS);
+	}
+
+	private static GeneInfoList toList(List<GeneInfo> geneInfos, EUtils.RETURN_CODES returnCode) {
+		GeneInfoList geneInfoList = new GeneInfoList();
+		geneInfoList.getGeneInfo().addAll(geneInfos);
+		geneInfoList.setCount(geneInfos.size());
+		geneInfoList.setRetMax(geneInfos.size());
+		geneInfoList.setReturnCode(returnCode.toString());
+		return geneInfoList;
+	}
+
+	private static String read(String fixture) throws IOException {
+		InputStream in = JSONWriterTest.class.getResourceAsStream("/efetch/" + fixture);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) bytes.write(buffer, 0, read);
+			return new String(bytes.toByteArray(), "UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
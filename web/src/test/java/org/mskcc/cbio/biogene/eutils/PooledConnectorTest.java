@@ -0,0 +1,221 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.eutils;
+
+// imports
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests PooledConnector against a stub http server.
+ */
+public class PooledConnectorTest {
+
+	private static String BODY = "<eSearchResult><Count>1</Count>café</eSearchResult>";
+
+	private HttpServer server;
+	private String baseURL;
+	private ExecutorService serverThreads;
+
+	// what the server saw
+	private Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+	private AtomicInteger inFlight = new AtomicInteger();
+	private AtomicInteger maxInFlight = new AtomicInteger();
+
+	@Before
+	public void startServer() throws Exception {
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/plain", new StubHandler(200, false, "UTF-8", 0));
+		server.createContext("/gzip", new StubHandler(200, true, "ISO-8859-1", 0));
+		server.createContext("/error", new StubHandler(500, false, "UTF-8", 0));
+		server.createContext("/slow", new StubHandler(200, false, "UTF-8", 2000));
+		server.createContext("/busy", new StubHandler(200, false, "UTF-8", 200));
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	@Test
+	public void decodesBodyWithDeclaredCharset() throws Exception {
+
+		PooledConnector connector = new PooledConnector(1000, 1000, 2);
+		assertEquals(BODY, connector.execute(baseURL + "/plain", new StringHandler()));
+		assertEquals(BODY, connector.execute(baseURL + "/gzip", new StringHandler()));
+		assertEquals("gzip", acceptEncodings.get(0));
+	}
+
+	@Test
+	public void reusesConnections() throws Exception {
+
+		PooledConnector connector = new PooledConnector(1000, 1000, 2);
+		for (int lc = 0; lc < 5; lc++) {
+			connector.execute(baseURL + "/gzip", new StringHandler());
+		}
+		// errors are drained too, the connection survives them
+		try {
+			connector.execute(baseURL + "/error", new StringHandler());
+			fail("http 500 should raise an IOException");
+		}
+		catch (IOException e) {}
+		connector.execute(baseURL + "/plain", new StringHandler());
+		assertEquals("every request should use the same connection: " + clientPorts, 1, clientPorts.size());
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void honorsReadTimeout() throws Exception {
+		new PooledConnector(1000, 200, 2).execute(baseURL + "/slow", new StringHandler());
+	}
+
+	@Test
+	public void boundsRequestsPerHost() throws Exception {
+
+		final PooledConnector connector = new PooledConnector(1000, 5000, 2);
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int lc = 0; lc < 8; lc++) {
+				results.add(clients.submit(new Callable<String>() {
+						public String call() throws Exception {
+							return connector.execute(baseURL + "/busy", new StringHandler());
+						}
+					}));
+			}
+			for (Future<String> result : results) {
+				assertEquals(BODY, result.get());
+			}
+		}
+		finally {
+			clients.shutdownNow();
+		}
+		assertEquals(2, maxInFlight.get());
+	}
+
+	/**
+	 * Reads the body into a String.
+	 */
+	private static class StringHandler implements ResponseHandler<String> {
+		public String handle(InputStream in, String charset) throws Exception {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) bytes.write(buffer, 0, read);
+			return new String(bytes.toByteArray(), charset);
+		}
+	}
+
+	/**
+	 * Answers with BODY, encoded in the given charset (and gzipped), after the given delay.
+	 */
+	private class StubHandler implements HttpHandler {
+
+		private int status;
+		private boolean gzip;
+		private String charset;
+		private long delay;
+
+		StubHandler(int status, boolean gzip, String charset, long delay) {
+			this.status = status;
+			this.gzip = gzip;
+			this.charset = charset;
+			this.delay = delay;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+
+			int now = inFlight.incrementAndGet();
+			while (true) {
+				int max = maxInFlight.get();
+				if (now <= max || maxInFlight.compareAndSet(max, now)) break;
+			}
+			try {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				acceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+				if (delay > 0) Thread.sleep(delay);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			finally {
+				// done before the response goes out, the client may send its next request once it has read it
+				inFlight.decrementAndGet();
+			}
+
+			byte[] body = BODY.getBytes(charset);
+			if (gzip) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				GZIPOutputStream out = new GZIPOutputStream(compressed);
+				out.write(body);
+				out.close();
+				body = compressed.toByteArray();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=" + charset);
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+// $Id
+//------------------------------------------------------------------------------
+/** Copyright (c) 2013 Memorial Sloan-Kettering Cancer Center.
+ **
+ ** Code written by: Benjamin Gross
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has no obligations to provide maintenance, support,
+ ** updates, enhancements or modifications.  In no event shall
+ ** Memorial Sloan-Kettering Cancer Center
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** Memorial Sloan-Kettering Cancer Center
+ ** has been advised of the possibility of such damage.  See
+ ** the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **/
+package org.mskcc.cbio.biogene.util.cache;
+
+// imports
+import org.mskcc.cbio.biogene.schema.*;
+import org.mskcc.cbio.biogene.eutils.EUtils;
+import org.mskcc.cbio.biogene.eutils.ESearch;
+import org.mskcc.cbio.biogene.eutils.SearchResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.HashMap;
+import java.util.ArrayList;
+
+/**
+ * Checks GeneIndex wildcard (*x*) lookups against a scan of the indexed symbols & aliases.
+ */
+public class GeneIndexTest {
+
+	private static String ORGANISM = "homo sapiens";
+	private static String ALPHABET = "ABCDEFGHIKLMNPRSTVWXYZ0123456789-";
+
+	// gene id -> lowercase symbol & aliases
+	private Map<Integer, List<String>> genes = new HashMap<Integer, List<String>>();
+	private Random random = new Random(1);
+
+	@Before
+	public void buildIndex() {
+
+		GeneIndex.clear();
+		for (int lc = 1; lc <= 2000; lc++) {
+			add(lc, randomString(1 + random.nextInt(8)), randomString(2 + random.nextInt(8)) + ":" + randomString(1 + random.nextInt(3)));
+		}
+		// updates replace what was indexed before
+		for (int lc = 1; lc <= 200; lc++) {
+			add(lc, randomString(1 + random.nextInt(6)), null);
+		}
+		GeneIndex.markComplete(ORGANISM, ORGANISM);
+	}
+
+	@After
+	public void clearIndex() {
+		GeneIndex.clear();
+	}
+
+	@Test
+	public void wildcardMatchesScan() {
+
+		for (int lc = 0; lc < 500; lc++) {
+			String key = randomString(1 + random.nextInt(5)).toLowerCase();
+			TreeSet<Integer> expected = new TreeSet<Integer>();
+			for (Map.Entry<Integer, List<String>> gene : genes.entrySet()) {
+				for (String symbol : gene.getValue()) {
+					if (symbol.contains(key)) expected.add(gene.getKey());
+				}
+			}
+			SearchResult result = GeneIndex.search(ESearch.SEARCH_MODE.SYMBOL_WILDCARD, key.toUpperCase(), ORGANISM);
+			assertEquals(key, expected.isEmpty() ? EUtils.RETURN_CODES.ID_NOT_FOUND : EUtils.RETURN_CODES.SUCCESS, result.getCode());
+			TreeSet<Integer> found = new TreeSet<Integer>();
+			for (String geneID : result.getIDs()) found.add(Integer.valueOf(geneID));
+			assertEquals(key, expected, found);
+		}
+	}
+
+	@Test
+	public void sharedSymbolSurvivesRemovalOfOneGene() {
+
+		add(5001, "ZZQ1", null);
+		add(5002, "ZZQ1", null);
+		add(5001, "ABC", null);
+		SearchResult result = GeneIndex.search(ESearch.SEARCH_MODE.SYMBOL_WILDCARD, "zq1", ORGANISM);
+		assertEquals(1, result.getIDs().size());
+		assertEquals("5002", result.getIDs().get(0));
+	}
+
+	private void add(int geneID, String symbol, String aliases) {
+
+		GeneInfo geneInfo = new GeneInfo();
+		geneInfo.setGeneId(Integer.toString(geneID));
+		geneInfo.setGeneOrganism(ORGANISM);
+		geneInfo.setGeneSymbol(symbol);
+		geneInfo.setGeneAliases(aliases);
+		GeneIndex.add(geneInfo);
+
+		List<String> symbols = new ArrayList<String>();
+		symbols.add(symbol.toLowerCase());
+		if (aliases != null) {
+			for (String alias : aliases.split(":")) symbols.add(alias.toLowerCase());
+		}
+		genes.put(geneID, symbols);
+	}
+
+	private String randomString(int length) {
+		StringBuilder toReturn = new StringBuilder();
+		for (int lc = 0; lc < length; lc++) toReturn.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return toReturn.toString();
+	}
+}